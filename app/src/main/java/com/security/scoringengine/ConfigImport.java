@@ -0,0 +1,133 @@
+package com.security.scoringengine;
+
+import com.google.gson.JsonElement;
+import com.security.scoringengine.config.ConfigPlan;
+import com.security.scoringengine.config.ConfigValidator;
+import com.security.scoringengine.security.SecureConfigStorage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+
+/**
+ * Imports a picked config in a single pass over the source. JSON is validated
+ * as it streams in, and each top-level section is encrypted into the config
+ * store as a plan as soon as it has been checked, so a large config is never
+ * held whole. The stored config is only replaced when validation passes.
+ *
+ * Blocks on I/O and the keystore; run it off the main thread.
+ */
+public class ConfigImport {
+    private static final int PLAN_MAGIC_LENGTH = 4;
+
+    public interface ProgressListener {
+        /** @param totalBytes the source size, or -1 if unknown */
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    private final SecureConfigStorage storage;
+
+    public ConfigImport(SecureConfigStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Validates and stores the config read from {@code source}. Returns the
+     * validation result; the config was stored only if it has no errors.
+     */
+    public ConfigValidator.Result run(InputStream source, long totalBytes, ProgressListener listener)
+            throws Exception {
+        final SecureConfigStorage.Writer writer = storage.openWriter();
+        try {
+            BufferedInputStream in = new BufferedInputStream(
+                new ProgressInputStream(source, totalBytes, listener), 64 * 1024);
+            ConfigValidator.SectionSink sink = new ConfigValidator.SectionSink() {
+                @Override
+                public void section(String name, JsonElement value) throws IOException {
+                    writer.writeSection(name, value);
+                }
+            };
+            ConfigValidator.Result result;
+            if (isPlan(in)) {
+                // Plans are compact and decoded from one buffer. They get the
+                // same checks as JSON, since a plan can be built or edited
+                // without the compiler's validation
+                ByteArrayOutputStream plan = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    plan.write(buffer, 0, n);
+                }
+                JsonElement tree = ConfigPlan.readTree(ByteBuffer.wrap(plan.toByteArray()));
+                result = new ConfigValidator().validate(tree, sink);
+            } else {
+                result = new ConfigValidator().validate(new InputStreamReader(in, "UTF-8"), sink);
+            }
+            if (!result.hasErrors()) {
+                writer.commit();
+            }
+            return result;
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static boolean isPlan(BufferedInputStream in) throws IOException {
+        in.mark(PLAN_MAGIC_LENGTH);
+        byte[] header = new byte[PLAN_MAGIC_LENGTH];
+        int n = 0;
+        int read;
+        while (n < header.length && (read = in.read(header, n, header.length - n)) != -1) {
+            n += read;
+        }
+        in.reset();
+        return n == header.length && ConfigPlan.isPlan(header);
+    }
+
+    /** Reports how much of the source has been read. */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final long totalBytes;
+        private final ProgressListener listener;
+        private long bytesRead;
+
+        ProgressInputStream(InputStream in, long totalBytes, ProgressListener listener) {
+            super(in);
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+                if (listener != null) {
+                    listener.onProgress(bytesRead, totalBytes);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -20,9 +20,12 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.gson.Gson;
 import com.security.scoringengine.models.ScoringConfig;
+import com.security.scoringengine.scoring.InputKey;
+import com.security.scoringengine.scoring.ScoringEngine;
 import com.security.scoringengine.security.SecureConfigStorage;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,12 +48,24 @@ public class ForensicsActivity extends AppCompatActivity {
     private ScoringService scoringService;
     private boolean serviceBound = false;
 
+    // Held here because the service only keeps a weak reference
+    private final ScoringService.ScoringCallback scoreListener = new ScoringService.ScoringCallback() {
+        @Override
+        public void onScoreUpdated(ScoringEngine.ScoringResult result) {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle("Score: " + result.getCurrentPoints()
+                    + " / " + result.getMaxPoints());
+            }
+        }
+    };
+
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             ScoringService.LocalBinder binder = (ScoringService.LocalBinder) service;
             scoringService = binder.getService();
             serviceBound = true;
+            scoringService.addScoreListener(scoreListener);
         }
 
         @Override
@@ -97,11 +112,8 @@ public class ForensicsActivity extends AppCompatActivity {
     private void loadConfiguration() {
         try {
             SecureConfigStorage storage = new SecureConfigStorage(this);
-            String configJson = storage.loadConfig();
-            if (configJson != null && !configJson.isEmpty()) {
-                Gson gson = new Gson();
-                config = gson.fromJson(configJson, ScoringConfig.class);
-            }
+            // Only the questions are needed here
+            config = storage.loadScoringConfig(Collections.singleton("forensicsQuestions"));
         } catch (Exception e) {
             e.printStackTrace();
             Toast.makeText(this, "Error loading configuration", Toast.LENGTH_SHORT).show();
@@ -278,9 +290,9 @@ public class ForensicsActivity extends AppCompatActivity {
 
             Toast.makeText(this, "Correct! Points awarded.", Toast.LENGTH_LONG).show();
 
-            // Trigger scoring update
+            // Trigger scoring update for just this question
             if (serviceBound && scoringService != null) {
-                scoringService.performScoring();
+                scoringService.markInputChanged(InputKey.forensics(questionId));
             }
 
             // Rebuild this question's view
@@ -384,6 +396,7 @@ public class ForensicsActivity extends AppCompatActivity {
             handler.removeCallbacksAndMessages(null);
         }
         if (serviceBound) {
+            scoringService.removeScoreListener(scoreListener);
             unbindService(serviceConnection);
             serviceBound = false;
         }
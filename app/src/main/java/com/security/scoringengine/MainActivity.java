@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -21,24 +22,26 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.security.scoringengine.config.ConfigValidator;
+import com.security.scoringengine.models.ScoreCategory;
 import com.security.scoringengine.models.ScoreItem;
 import com.security.scoringengine.scoring.ScoringEngine;
 import com.security.scoringengine.security.SecureConfigStorage;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
     private static final int REQUEST_CODE_PICK_CONFIG = 1001;
     private static final int REQUEST_CODE_PICK_README = 1002;
     private static final int REQUEST_CODE_PERMISSIONS = 1003;
-    private static final String README_FILENAME = "readme.html";
+    private static final String TRACE_FILENAME = "scoring_trace.json";
     
     // Setup screen views
     private LinearLayout setupLayout;
@@ -56,8 +59,18 @@ public class MainActivity extends AppCompatActivity {
     
     private ScoringService scoringService;
     private boolean serviceBound = false;
+    // Config and README imports stream to disk here, off the main thread
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor();
     private int lastScore = 0;
 
+    // Held here because the service only keeps a weak reference
+    private final ScoringService.ScoringCallback scoreListener = new ScoringService.ScoringCallback() {
+        @Override
+        public void onScoreUpdated(ScoringEngine.ScoringResult result) {
+            updateUI(result);
+        }
+    };
+
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
@@ -65,22 +78,8 @@ public class MainActivity extends AppCompatActivity {
             scoringService = binder.getService();
             serviceBound = true;
             
-            scoringService.setCallback(new ScoringService.ScoringCallback() {
-                @Override
-                public void onScoreUpdated(ScoringEngine.ScoringResult result) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            updateUI(result);
-                        }
-                    });
-                }
-            });
-            
-            ScoringEngine.ScoringResult lastResult = scoringService.getLastResult();
-            if (lastResult != null) {
-                updateUI(lastResult);
-            }
+            // Delivers the latest result straight away, then each change
+            scoringService.addScoreListener(scoreListener);
         }
 
         @Override
@@ -156,16 +155,10 @@ public class MainActivity extends AppCompatActivity {
     
     private void checkConfigurationStatus() {
         SecureConfigStorage storage = new SecureConfigStorage(this);
-        try {
-            String config = storage.loadConfig();
-            if (config == null || config.isEmpty()) {
-                showSetupScreen();
-            } else {
-                showMainScreen();
-                startScoringService();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (storage.hasConfig()) {
+            showMainScreen();
+            startScoringService();
+        } else {
             showSetupScreen();
         }
     }
@@ -212,7 +205,7 @@ public class MainActivity extends AppCompatActivity {
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         
         String title = requestCode == REQUEST_CODE_PICK_CONFIG ? 
-            "Select Scoring Configuration File" : "Select README.html File";
+            "Select Scoring Configuration File" : "Select README (.html or .zip)";
         
         try {
             startActivityForResult(Intent.createChooser(intent, title), requestCode);
@@ -249,53 +242,101 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
-    private void loadConfigFromUri(Uri uri) {
-        try {
-            InputStream inputStream = getContentResolver().openInputStream(uri);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
-            reader.close();
-            inputStream.close();
-            
-            String configJson = sb.toString();
-            
-            // Validate JSON by trying to parse it
-            com.google.gson.Gson gson = new com.google.gson.Gson();
-            com.security.scoringengine.models.ScoringConfig config = 
-                gson.fromJson(configJson, com.security.scoringengine.models.ScoringConfig.class);
+    private void loadConfigFromUri(final Uri uri) {
+        final CharSequence setupMessage = setupMessageTextView.getText();
+        final long totalBytes = sizeOf(uri);
+        selectConfigButton.setEnabled(false);
+        setupMessageTextView.setText("Importing configuration...");
+        
+        // Validated and encrypted in one streaming pass, off the main thread
+        final ConfigImport.ProgressListener progress = new ConfigImport.ProgressListener() {
+            private int lastPercent = -1;
             
-            if (config == null || config.penaltiesandPoints == null) {
-                Toast.makeText(this, "Invalid configuration file format", Toast.LENGTH_LONG).show();
-                return;
+            @Override
+            public void onProgress(long bytesRead, long total) {
+                final int percent = total > 0 ? (int) Math.min(100, bytesRead * 100 / total) : -1;
+                if (percent == lastPercent) {
+                    return;
+                }
+                lastPercent = percent;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        setupMessageTextView.setText("Importing configuration... " + percent + "%");
+                    }
+                });
             }
-            
-            // Save encrypted configuration
-            SecureConfigStorage storage = new SecureConfigStorage(this);
-            storage.saveConfig(configJson);
-            
-            Toast.makeText(this, "Configuration loaded successfully", 
-                Toast.LENGTH_SHORT).show();
-            
-            // Check if we should proceed to main screen
-            if (hasReadme()) {
-                // Both files loaded, proceed
-                showMainScreen();
-                startScoringService();
-            } else {
-                // Prompt for README
-                readmeStatusText.setText("✓ Config loaded. Now select README.html (optional)");
-                selectReadmeButton.setEnabled(true);
+        };
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ConfigValidator.Result result = null;
+                Exception error = null;
+                try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+                    if (inputStream == null) {
+                        throw new java.io.FileNotFoundException("Could not open " + uri);
+                    }
+                    result = new ConfigImport(new SecureConfigStorage(MainActivity.this))
+                        .run(inputStream, totalBytes, progress);
+                } catch (Exception e) {
+                    error = e;
+                }
+                final ConfigValidator.Result imported = result;
+                final Exception failure = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConfigImported(imported, failure, setupMessage);
+                    }
+                });
             }
-            
+        });
+    }
+    
+    /** Returns the size of the picked file, or -1 if the provider does not know it. */
+    private long sizeOf(Uri uri) {
+        try (AssetFileDescriptor descriptor = getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            return descriptor != null ? descriptor.getLength() : -1;
         } catch (Exception e) {
-            Toast.makeText(this, "Error loading configuration: " + e.getMessage(),
+            return -1;
+        }
+    }
+    
+    private void onConfigImported(ConfigValidator.Result result, Exception error, CharSequence setupMessage) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        selectConfigButton.setEnabled(true);
+        setupMessageTextView.setText(setupMessage);
+        if (error != null) {
+            Toast.makeText(this, "Error loading configuration: " + error.getMessage(),
                     Toast.LENGTH_LONG).show();
-            e.printStackTrace();
+            error.printStackTrace();
+            return;
+        }
+        
+        for (ConfigValidator.Issue issue : result.getIssues()) {
+            android.util.Log.w("MainActivity", "Config " + issue);
+            if (issue.severity == ConfigValidator.Severity.ERROR) {
+                Toast.makeText(this, "Invalid configuration: " + issue.path + ": " + issue.message,
+                    Toast.LENGTH_LONG).show();
+                return;
+            }
+        }
+        int warnings = result.count(ConfigValidator.Severity.WARNING);
+        Toast.makeText(this, warnings == 0 ? "Configuration loaded successfully"
+                : "Configuration loaded with " + warnings + " warning(s)",
+            Toast.LENGTH_SHORT).show();
+        
+        // Check if we should proceed to main screen
+        if (hasReadme()) {
+            // Both files loaded, proceed
+            showMainScreen();
+            startScoringService();
+        } else {
+            // Prompt for README
+            readmeStatusText.setText("✓ Config loaded. Now select a README (optional)");
+            selectReadmeButton.setEnabled(true);
         }
     }
     
@@ -325,15 +366,15 @@ public class MainActivity extends AppCompatActivity {
         Collections.sort(items, new Comparator<ScoreItem>() {
             @Override
             public int compare(ScoreItem o1, ScoreItem o2) {
-                return o1.getCategory().compareTo(o2.getCategory());
+                return o1.getCategory().ordinal() - o2.getCategory().ordinal();
             }
         });
         
-        String currentCategory = "";
+        ScoreCategory currentCategory = null;
         for (ScoreItem item : items) {
-            if (!item.getCategory().equals(currentCategory)) {
+            if (item.getCategory() != currentCategory) {
                 currentCategory = item.getCategory();
-                report.append("\n━━━ ").append(currentCategory.toUpperCase()).append(" ━━━\n\n");
+                report.append("\n━━━ ").append(currentCategory.getLabel().toUpperCase()).append(" ━━━\n\n");
             }
             
             String sign = item.getPoints() >= 0 ? "+" : "";
@@ -362,46 +403,105 @@ public class MainActivity extends AppCompatActivity {
             startActivity(intent);
             return true;
         }
+        if (item.getItemId() == R.id.action_export_trace) {
+            exportTrace();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
     
-    private void loadReadmeFromUri(Uri uri) {
-        try {
-            InputStream inputStream = getContentResolver().openInputStream(uri);
-            
-            // Read the HTML file as bytes to preserve formatting
-            byte[] buffer = new byte[inputStream.available()];
-            inputStream.read(buffer);
-            inputStream.close();
-            
-            // Save README to internal storage (not encrypted, preserves HTML formatting)
-            File readmeFile = new File(getFilesDir(), README_FILENAME);
-            java.io.FileOutputStream fos = new java.io.FileOutputStream(readmeFile);
-            fos.write(buffer);
-            fos.close();
-            
-            Toast.makeText(this, "README loaded successfully", Toast.LENGTH_SHORT).show();
-            
-            // Proceed to main screen
-            showMainScreen();
-            startScoringService();
-            
-        } catch (Exception e) {
-            Toast.makeText(this, "Error loading README: " + e.getMessage(),
+    /**
+     * Writes the scoring trace where adb can pull it:
+     * /sdcard/Android/data/&lt;package&gt;/files/scoring_trace.json
+     */
+    private void exportTrace() {
+        if (!serviceBound || scoringService == null) {
+            Toast.makeText(this, "Scoring service is not running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final ScoringService service = scoringService;
+        final File file = new File(getExternalFilesDir(null), TRACE_FILENAME);
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    message = service.exportTrace(file)
+                        ? "Trace saved to " + file.getAbsolutePath()
+                        : "Tracing is off; set diagnostics.traceSpans in the config";
+                } catch (IOException e) {
+                    android.util.Log.w("MainActivity", "Could not export trace", e);
+                    message = "Could not export trace: " + e.getMessage();
+                }
+                final String text = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+    
+    private void loadReadmeFromUri(final Uri uri) {
+        final ReadmeBundle bundle = new ReadmeBundle(this);
+        selectReadmeButton.setEnabled(false);
+        readmeStatusText.setText("Importing README...");
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+                    if (inputStream == null) {
+                        throw new java.io.FileNotFoundException("Could not open " + uri);
+                    }
+                    bundle.importFrom(inputStream);
+                } catch (Exception e) {
+                    error = e;
+                }
+                final Exception failure = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReadmeImported(failure);
+                    }
+                });
+            }
+        });
+    }
+    
+    private void onReadmeImported(Exception error) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        selectReadmeButton.setEnabled(true);
+        if (error != null) {
+            readmeStatusText.setText("README import failed");
+            Toast.makeText(this, "Error loading README: " + error.getMessage(),
                     Toast.LENGTH_LONG).show();
-            e.printStackTrace();
+            error.printStackTrace();
+            return;
         }
+        
+        readmeStatusText.setText("✓ README loaded");
+        Toast.makeText(this, "README loaded successfully", Toast.LENGTH_SHORT).show();
+        
+        // Proceed to main screen
+        showMainScreen();
+        startScoringService();
     }
     
     private boolean hasReadme() {
-        File readmeFile = new File(getFilesDir(), README_FILENAME);
-        return readmeFile.exists();
+        return new ReadmeBundle(this).exists();
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        importExecutor.shutdown();
         if (serviceBound) {
+            scoringService.removeScoreListener(scoreListener);
             unbindService(serviceConnection);
             serviceBound = false;
         }
@@ -1,14 +1,21 @@
 package com.security.scoringengine;
 
+import android.net.Uri;
 import android.os.Bundle;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
-import android.widget.Toast;
+import android.webkit.WebViewClient;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
 
 public class ReadmeActivity extends AppCompatActivity {
     
@@ -29,25 +36,45 @@ public class ReadmeActivity extends AppCompatActivity {
         webView.getSettings().setBuiltInZoomControls(true);
         webView.getSettings().setDisplayZoomControls(false);
         
-        try {
-            File readmeFile = new File(getFilesDir(), "readme.html");
-            if (readmeFile.exists()) {
-                // Read the HTML file as bytes to preserve all formatting
-                java.io.FileInputStream fis = new java.io.FileInputStream(readmeFile);
-                byte[] buffer = new byte[(int) readmeFile.length()];
-                fis.read(buffer);
-                fis.close();
-                
-                String htmlContent = new String(buffer, "UTF-8");
-                webView.loadDataWithBaseURL(null, htmlContent, "text/html", "UTF-8", null);
-            } else {
-                webView.loadData("<html><body><h1>README not found</h1><p>No README file has been loaded.</p></body></html>", 
-                    "text/html", "UTF-8");
-            }
-        } catch (Exception e) {
-            Toast.makeText(this, "Error loading README", Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
+        final ReadmeBundle bundle = new ReadmeBundle(this);
+        if (!bundle.exists()) {
+            webView.loadData("<html><body><h1>README not found</h1><p>No README file has been loaded.</p></body></html>",
+                "text/html", "UTF-8");
+            return;
         }
+        
+        // Pages and images are streamed from the bundle as the WebView asks
+        // for them, on the WebView's own I/O thread
+        webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                Uri url = request.getUrl();
+                if (!ReadmeBundle.HOST.equals(url.getHost())) {
+                    return null;
+                }
+                try {
+                    File file = bundle.resolve(url.getPath());
+                    if (file != null) {
+                        String type = mimeType(file);
+                        return new WebResourceResponse(type, type.startsWith("text/") ? "UTF-8" : null,
+                            new FileInputStream(file));
+                    }
+                } catch (IOException e) {
+                    android.util.Log.w("ReadmeActivity", "Could not open " + url, e);
+                }
+                return new WebResourceResponse("text/plain", "UTF-8", 404, "Not Found",
+                    Collections.<String, String>emptyMap(), new ByteArrayInputStream(new byte[0]));
+            }
+        });
+        webView.loadUrl(ReadmeBundle.INDEX_URL);
+    }
+    
+    private static String mimeType(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String type = dot >= 0 ? MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+            name.substring(dot + 1).toLowerCase(Locale.ROOT)) : null;
+        return type != null ? type : "application/octet-stream";
     }
     
     @Override
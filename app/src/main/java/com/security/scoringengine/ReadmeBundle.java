@@ -0,0 +1,208 @@
+package com.security.scoringengine;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The scenario README, kept unpacked under files/readme/ and served to the
+ * WebView one file at a time. A README is either a single HTML file or a zip
+ * bundle holding index.html and the images and stylesheets it links to.
+ *
+ * Imports stream into a staging directory and only replace the current
+ * README once they are complete, so a failed import leaves the old one in
+ * place. A readme.html saved by older versions is still served.
+ */
+public class ReadmeBundle {
+    /** Origin the WebView loads the README from; never resolved over the network. */
+    public static final String HOST = "readme.local";
+    public static final String INDEX_URL = "https://" + HOST + "/index.html";
+
+    private static final String DIR = "readme";
+    private static final String STAGING_DIR = "readme.staging";
+    private static final String PREVIOUS_DIR = "readme.previous";
+    private static final String LEGACY_FILE = "readme.html";
+    private static final String INDEX = "index.html";
+    private static final long MAX_BUNDLE_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_ENTRIES = 4096;
+
+    private final File filesDir;
+
+    public ReadmeBundle(Context context) {
+        this.filesDir = context.getFilesDir();
+        // Put back a README moved aside by an import that was killed mid-swap
+        File previous = new File(filesDir, PREVIOUS_DIR);
+        if (previous.isDirectory() && !new File(filesDir, DIR).exists()) {
+            previous.renameTo(new File(filesDir, DIR));
+        }
+    }
+
+    public boolean exists() {
+        return new File(new File(filesDir, DIR), INDEX).isFile() || new File(filesDir, LEGACY_FILE).isFile();
+    }
+
+    /**
+     * Maps a request path such as {@code /images/step1.png} to a file in the
+     * README, or returns null if there is no such file or the path escapes
+     * the bundle.
+     */
+    public File resolve(String path) throws IOException {
+        if (path == null || path.isEmpty() || path.equals("/")) {
+            path = "/" + INDEX;
+        }
+        File root = new File(filesDir, DIR);
+        if (!root.isDirectory()) {
+            // Only the index exists in the legacy layout
+            File legacy = new File(filesDir, LEGACY_FILE);
+            return path.equals("/" + INDEX) && legacy.isFile() ? legacy : null;
+        }
+        File file = new File(root, path);
+        if (!isInside(root, file) || !file.isFile()) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Replaces the README with the HTML file or zip bundle read from
+     * {@code in}. Blocks on I/O; call it off the main thread.
+     *
+     * @throws IOException if the content could not be read or a bundle has
+     *                     no index.html, is too large or has unsafe paths
+     */
+    public void importFrom(InputStream in) throws IOException {
+        File staging = new File(filesDir, STAGING_DIR);
+        deleteRecursively(staging);
+        if (!staging.mkdirs()) {
+            throw new IOException("Could not create " + staging);
+        }
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+            if (isZip(buffered)) {
+                unzip(buffered, staging);
+            } else {
+                copy(buffered, new File(staging, INDEX), MAX_BUNDLE_BYTES);
+            }
+            File root = findIndexRoot(staging);
+            if (root == null) {
+                throw new IOException("README bundle has no index.html");
+            }
+
+            // Move the current README aside rather than deleting it, so it can
+            // be put back if the new one cannot be moved in
+            File target = new File(filesDir, DIR);
+            File previous = new File(filesDir, PREVIOUS_DIR);
+            deleteRecursively(previous);
+            if (target.exists() && !target.renameTo(previous)) {
+                throw new IOException("Could not move the current README aside");
+            }
+            if (!root.renameTo(target)) {
+                previous.renameTo(target);
+                throw new IOException("Could not install README");
+            }
+            deleteRecursively(previous);
+            new File(filesDir, LEGACY_FILE).delete();
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    private static boolean isZip(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        byte[] magic = new byte[4];
+        int n = 0;
+        while (n < magic.length) {
+            int read = in.read(magic, n, magic.length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        in.reset();
+        return n == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+    }
+
+    private static void unzip(InputStream in, File staging) throws IOException {
+        long total = 0;
+        int entries = 0;
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (++entries > MAX_ENTRIES) {
+                throw new IOException("README bundle has too many entries");
+            }
+            File file = new File(staging, entry.getName());
+            if (!isInside(staging, file)) {
+                throw new IOException("README bundle entry outside the bundle: " + entry.getName());
+            }
+            if (entry.isDirectory()) {
+                file.mkdirs();
+                continue;
+            }
+            File parent = file.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            total += copy(zip, file, MAX_BUNDLE_BYTES - total);
+        }
+    }
+
+    /** Streams {@code in} to {@code file}, failing once more than {@code limit} bytes arrive. */
+    private static long copy(InputStream in, File file, long limit) throws IOException {
+        long written = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                written += n;
+                if (written > limit) {
+                    throw new IOException("README is larger than " + MAX_BUNDLE_BYTES / (1024 * 1024) + " MB");
+                }
+                out.write(buffer, 0, n);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns the directory holding index.html: the staging directory itself,
+     * or its only subdirectory when a folder was zipped as a whole.
+     */
+    private static File findIndexRoot(File staging) {
+        if (new File(staging, INDEX).isFile()) {
+            return staging;
+        }
+        File[] children = staging.listFiles();
+        if (children != null && children.length == 1 && children[0].isDirectory()
+                && new File(children[0], INDEX).isFile()) {
+            return children[0];
+        }
+        return null;
+    }
+
+    private static boolean isInside(File root, File file) {
+        try {
+            String rootPath = root.getCanonicalPath() + File.separator;
+            return file.getCanonicalPath().startsWith(rootPath);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
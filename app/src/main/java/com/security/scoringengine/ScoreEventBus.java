@@ -0,0 +1,136 @@
+package com.security.scoringengine;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.security.scoringengine.scoring.ScoringEngine;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans scoring results out to any number of listeners. Results identical to
+ * the previous one are dropped. Each listener is called on its own handler's
+ * thread, at most once per its minimum interval, with only the latest result;
+ * anything published in between is coalesced away.
+ *
+ * Listeners are held weakly so an activity that forgets to unsubscribe is not
+ * kept alive. The subscriber must therefore keep its own strong reference to
+ * the listener, e.g. in a field.
+ */
+public class ScoreEventBus {
+    public static final long DEFAULT_MIN_INTERVAL_MS = 500;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile ScoringEngine.ScoringResult latest;
+
+    /** Subscribes on the main thread with the default rate limit. */
+    public void subscribe(ScoringService.ScoringCallback listener) {
+        subscribe(listener, new Handler(Looper.getMainLooper()), DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    /**
+     * Subscribes {@code listener}, delivering on {@code handler}. The latest
+     * result, if any, is delivered straight away.
+     */
+    public void subscribe(ScoringService.ScoringCallback listener, Handler handler, long minIntervalMs) {
+        unsubscribe(listener);
+        Subscription subscription = new Subscription(listener, handler, minIntervalMs);
+        subscriptions.add(subscription);
+        ScoringEngine.ScoringResult current = latest;
+        if (current != null) {
+            subscription.offer(current);
+        }
+    }
+
+    public void unsubscribe(ScoringService.ScoringCallback listener) {
+        for (Subscription subscription : subscriptions) {
+            ScoringService.ScoringCallback subscribed = subscription.listener.get();
+            if (subscribed == null || subscribed == listener) {
+                subscription.cancel();
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Publishes a result. Returns false, delivering nothing, when it satisfies
+     * the same checks as the previous one. Called from a single publishing
+     * thread.
+     */
+    public boolean publish(ScoringEngine.ScoringResult result) {
+        if (result.hasSameOutcomeAs(latest)) {
+            return false;
+        }
+        latest = result;
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener.get() == null) {
+                subscription.cancel();
+                subscriptions.remove(subscription);
+            } else {
+                subscription.offer(result);
+            }
+        }
+        return true;
+    }
+
+    public ScoringEngine.ScoringResult getLatest() {
+        return latest;
+    }
+
+    public void clear() {
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+        subscriptions.clear();
+    }
+
+    private static class Subscription implements Runnable {
+        final WeakReference<ScoringService.ScoringCallback> listener;
+        final Handler handler;
+        final long minIntervalMs;
+        final AtomicReference<ScoringEngine.ScoringResult> pending = new AtomicReference<>();
+
+        // Only touched on the handler's thread
+        private long lastDeliveredAt = Long.MIN_VALUE / 2;
+
+        Subscription(ScoringService.ScoringCallback listener, Handler handler, long minIntervalMs) {
+            this.listener = new WeakReference<>(listener);
+            this.handler = handler;
+            this.minIntervalMs = minIntervalMs;
+        }
+
+        void offer(ScoringEngine.ScoringResult result) {
+            // Only the first result since the last delivery schedules one;
+            // later ones just replace it
+            if (pending.getAndSet(result) == null) {
+                handler.post(this);
+            }
+        }
+
+        void cancel() {
+            pending.set(null);
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            long wait = lastDeliveredAt + minIntervalMs - now;
+            if (wait > 0) {
+                handler.postDelayed(this, wait);
+                return;
+            }
+            ScoringEngine.ScoringResult result = pending.getAndSet(null);
+            ScoringService.ScoringCallback target = listener.get();
+            if (result == null || target == null) {
+                return;
+            }
+            lastDeliveredAt = now;
+            target.onScoreUpdated(result);
+        }
+    }
+}
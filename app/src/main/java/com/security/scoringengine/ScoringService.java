@@ -4,27 +4,87 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
+import android.provider.Settings;
 
-import com.google.gson.Gson;
 import com.security.scoringengine.models.ScoringConfig;
+import com.security.scoringengine.reporting.ScoreReportQueue;
+import com.security.scoringengine.reporting.ScoreReporter;
+import com.security.scoringengine.scoring.AndroidDeviceReader;
+import com.security.scoringengine.scoring.InputKey;
+import com.security.scoringengine.scoring.PackageIndex;
+import com.security.scoringengine.scoring.PrivilegedCommandRunner;
 import com.security.scoringengine.scoring.ScoringEngine;
+import com.security.scoringengine.scoring.SettingsNamespace;
+import com.security.scoringengine.scoring.Tracer;
 import com.security.scoringengine.security.SecureConfigStorage;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class ScoringService extends Service {
     private static final int NOTIFICATION_ID = 1001;
     private static final String CHANNEL_ID = "ScoringEngineChannel";
     private static final long CHECK_INTERVAL = 2 * 60 * 1000; // 2 minutes
+    private static final String REPORT_QUEUE_FILE = "score_reports.queue";
+    private static final String ENGINE_SNAPSHOT_FILE = "engine_state.bin";
+    private static final int DEFAULT_REPORT_BATCH_SIZE = 20;
+    private static final int DEFAULT_MAX_QUEUED_REPORTS = 500;
+    private static final int DEFAULT_TRACE_PASSES = 5;
+    // Above this many keys in a namespace, one observer watches the whole table
+    private static final int MAX_KEY_OBSERVERS = 256;
 
     private Handler handler;
     private Runnable scoringRunnable;
-    private ScoringEngine scoringEngine;
+    private volatile ScoringEngine scoringEngine;
     private SecureConfigStorage configStorage;
-    private ScoringEngine.ScoringResult lastResult;
-    private ScoringCallback callback;
+    // Written only by publishResult on the scoring thread; read from any thread without locking
+    private final AtomicReference<ScoringEngine.ScoringResult> lastResult = new AtomicReference<>();
+    private final ScoreEventBus scoreEvents = new ScoreEventBus();
+    
+    // Passes and engine swaps are serialised on one thread; configs compile on another
+    private ExecutorService scoringExecutor;
+    private ExecutorService compileExecutor;
+    // Shared by every engine so timeout and leak counts survive config reloads
+    private PrivilegedCommandRunner commandRunner;
+    private volatile long requestedConfigVersion = -1;
+    // Set by onDestroy; a compiled engine is only queued for a swap while holding lifecycleLock
+    private volatile boolean destroyed;
+    private final Object lifecycleLock = new Object();
+    // Replaced on the scoring thread when the config changes its size
+    private volatile Tracer tracer = Tracer.DISABLED;
+    private volatile int tracePasses = DEFAULT_TRACE_PASSES;
+    
+    // Only touched on the scoring thread
+    private ScoreReporter reporter;
+    private String reporterEndpoint;
+    private final List<ContentObserver> settingsObservers = new ArrayList<>();
+    
+    // Inputs changed since the last recalculation; guarded by itself
+    private final Set<InputKey> dirtyInputs = new HashSet<>();
+    // Kept current by packageReceiver and shared by every engine
+    private final PackageIndex packageIndex = new PackageIndex();
+    private BroadcastReceiver packageReceiver;
 
     public interface ScoringCallback {
         void onScoreUpdated(ScoringEngine.ScoringResult result);
@@ -47,8 +107,20 @@ public class ScoringService extends Service {
         
         configStorage = new SecureConfigStorage(this);
         handler = new Handler();
+        scoringExecutor = Executors.newSingleThreadExecutor();
+        compileExecutor = Executors.newSingleThreadExecutor();
+        commandRunner = new PrivilegedCommandRunner();
+        // Registered before any pass loads the package index, so it misses no change
+        registerPackageReceiver();
         
-        loadConfigAndInitialize();
+        loadConfigAndInitialize(configStorage.getConfigVersion());
+        configStorage.setConfigVersionListener(new SecureConfigStorage.ConfigVersionListener() {
+            @Override
+            public void onConfigVersionChanged(long version) {
+                android.util.Log.d("ScoringService", "Config version changed to " + version + ", reloading");
+                loadConfigAndInitialize(version);
+            }
+        });
         
         scoringRunnable = new Runnable() {
             @Override
@@ -71,37 +143,380 @@ public class ScoringService extends Service {
         return binder;
     }
 
-    public void setCallback(ScoringCallback callback) {
-        this.callback = callback;
+    /**
+     * Registers a listener for score changes, called on the main thread. The
+     * listener is held weakly; keep a reference to it while registered.
+     */
+    public void addScoreListener(ScoringCallback listener) {
+        scoreEvents.subscribe(listener);
     }
 
+    public void removeScoreListener(ScoringCallback listener) {
+        scoreEvents.unsubscribe(listener);
+    }
+
+    /**
+     * Queues a scoring pass on the scoring thread. Listeners hear about the
+     * result only if it changed the score.
+     */
     public void performScoring() {
-        if (scoringEngine != null) {
-            lastResult = scoringEngine.calculateScore();
-            if (callback != null) {
-                callback.onScoreUpdated(lastResult);
+        if (scoringExecutor.isShutdown()) {
+            return;
+        }
+        scoringExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runScoringPass();
+            }
+        });
+    }
+
+    private void runScoringPass() {
+        ScoringEngine engine = scoringEngine;
+        if (engine == null) {
+            return;
+        }
+        ScoringEngine.ScoringResult result = engine.calculateScore();
+        if (result == null) {
+            // Cancelled because a new config is being swapped in
+            return;
+        }
+        result = publishResult(result);
+        if (reporter != null) {
+            long span = tracer.begin("report");
+            reporter.report(result);
+            tracer.end(span);
+        }
+        scoreEvents.publish(result);
+        long span = tracer.begin("save snapshot");
+        try {
+            engine.saveSnapshot(new File(getFilesDir(), ENGINE_SNAPSHOT_FILE), result);
+        } catch (IOException e) {
+            android.util.Log.w("ScoringService", "Could not save engine snapshot", e);
+        } finally {
+            tracer.end(span);
+        }
+    }
+
+    /**
+     * Watches the settings the engine's checks read, so a change is rescored
+     * on its own instead of waiting for the next pass. Runs on the scoring
+     * thread when an engine is swapped in.
+     */
+    private void observeSettings(ScoringEngine engine) {
+        ContentResolver resolver = getContentResolver();
+        for (ContentObserver observer : settingsObservers) {
+            resolver.unregisterContentObserver(observer);
+        }
+        settingsObservers.clear();
+        for (SettingsNamespace namespace : SettingsNamespace.values()) {
+            List<String> keys = engine.getSettingKeys(namespace);
+            if (keys.isEmpty()) {
+                continue;
+            }
+            ContentObserver observer = new SettingsObserver(namespace);
+            if (keys.size() > MAX_KEY_OBSERVERS) {
+                // The changed key's URI is still passed to onChange
+                resolver.registerContentObserver(tableUri(namespace), true, observer);
+            } else {
+                for (String key : keys) {
+                    resolver.registerContentObserver(settingUri(namespace, key), false, observer);
+                }
+            }
+            settingsObservers.add(observer);
+        }
+    }
+
+    private static Uri tableUri(SettingsNamespace namespace) {
+        switch (namespace) {
+            case SECURE:
+                return Settings.Secure.CONTENT_URI;
+            case SYSTEM:
+                return Settings.System.CONTENT_URI;
+            default:
+                return Settings.Global.CONTENT_URI;
+        }
+    }
+
+    private static Uri settingUri(SettingsNamespace namespace, String key) {
+        switch (namespace) {
+            case SECURE:
+                return Settings.Secure.getUriFor(key);
+            case SYSTEM:
+                return Settings.System.getUriFor(key);
+            default:
+                return Settings.Global.getUriFor(key);
+        }
+    }
+
+    private class SettingsObserver extends ContentObserver {
+        private final SettingsNamespace namespace;
+
+        SettingsObserver(SettingsNamespace namespace) {
+            super(handler);
+            this.namespace = namespace;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            String key = uri != null ? uri.getLastPathSegment() : null;
+            if (key != null) {
+                markInputChanged(InputKey.setting(namespace, key));
             }
         }
     }
 
+    private void registerPackageReceiver() {
+        packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                String packageName = data != null ? data.getSchemeSpecificPart() : null;
+                if (packageName == null) {
+                    return;
+                }
+                // An update also sends REMOVED and ADDED with EXTRA_REPLACING; REPLACED covers it
+                if (!Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())
+                        && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                    return;
+                }
+                markInputChanged(InputKey.forPackage(packageName));
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        // Components enabled or disabled, which component checks read
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        registerReceiver(packageReceiver, filter);
+    }
+
+    /**
+     * Re-evaluates just the checks that read {@code key} on the scoring
+     * thread and publishes the result, instead of waiting for the next pass.
+     * Changes arriving before the recalculation runs join it.
+     */
+    public void markInputChanged(InputKey key) {
+        boolean schedule;
+        synchronized (dirtyInputs) {
+            schedule = dirtyInputs.isEmpty();
+            dirtyInputs.add(key);
+        }
+        if (schedule && !scoringExecutor.isShutdown()) {
+            scoringExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recalculateDirtyInputs();
+                }
+            });
+        }
+    }
+
+    private void recalculateDirtyInputs() {
+        Set<InputKey> changed;
+        synchronized (dirtyInputs) {
+            changed = new HashSet<>(dirtyInputs);
+            dirtyInputs.clear();
+        }
+        ScoringEngine engine = scoringEngine;
+        ScoringEngine.ScoringResult previous = lastResult.get();
+        if (engine == null || previous == null) {
+            // The first pass will read everything anyway
+            return;
+        }
+        ScoringEngine.ScoringResult result = engine.recalculate(previous, changed);
+        if (result == null) {
+            runScoringPass();
+            return;
+        }
+        if (result == previous) {
+            return;
+        }
+        result = publishResult(result);
+        if (reporter != null) {
+            reporter.report(result);
+        }
+        scoreEvents.publish(result);
+    }
+
+    /**
+     * Stamps {@code result} with the next version and makes it the last
+     * result. Versions only grow, so a reader holding two results can tell
+     * which is newer. Only called on the scoring thread, so a plain set is
+     * enough.
+     */
+    private ScoringEngine.ScoringResult publishResult(ScoringEngine.ScoringResult result) {
+        ScoringEngine.ScoringResult current = lastResult.get();
+        ScoringEngine.ScoringResult stamped = result.withVersion(current != null ? current.getVersion() + 1 : 1);
+        lastResult.set(stamped);
+        return stamped;
+    }
+
+    /** Returns the latest published result without blocking, or null before the first. */
     public ScoringEngine.ScoringResult getLastResult() {
-        return lastResult;
+        return lastResult.get();
     }
     
     public boolean hasConfiguration() {
         return scoringEngine != null;
     }
 
-    private void loadConfigAndInitialize() {
+    /**
+     * Writes the last passes as Chrome trace JSON to {@code file}. Returns
+     * false without writing if the config does not enable tracing.
+     */
+    public boolean exportTrace(File file) throws IOException {
+        Tracer tracer = this.tracer;
+        if (!tracer.isEnabled()) {
+            return false;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            tracer.writeChromeTrace(out, tracePasses);
+        }
+        return true;
+    }
+
+    /** Exposes the su runner's command, timeout and leaked-process counts. */
+    public PrivilegedCommandRunner getCommandRunner() {
+        return commandRunner;
+    }
+
+    /**
+     * Compiles the stored config in the background, then swaps the new engine
+     * in between passes. A pass running on the old engine is cancelled so the
+     * swap does not wait for it to finish.
+     */
+    private void loadConfigAndInitialize(final long version) {
+        requestedConfigVersion = version;
+        compileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (version != requestedConfigVersion) {
+                    // A newer config was saved while this one was queued
+                    return;
+                }
+                final ScoringEngine newEngine;
+                // The tracer may be swapped before this span ends
+                Tracer compileTracer = tracer;
+                long span = compileTracer.begin("compile config");
+                try {
+                    ScoringConfig config = configStorage.loadScoringConfig();
+                    if (config == null) {
+                        return;
+                    }
+                    newEngine = new ScoringEngine(
+                        new AndroidDeviceReader(ScoringService.this, commandRunner), config);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return;
+                } finally {
+                    compileTracer.end(span);
+                }
+                
+                synchronized (lifecycleLock) {
+                    if (destroyed) {
+                        return;
+                    }
+                    ScoringEngine oldEngine = scoringEngine;
+                    if (oldEngine != null) {
+                        oldEngine.cancel();
+                    }
+                    scoringExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            swapEngine(newEngine, version);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void swapEngine(ScoringEngine newEngine, long version) {
+        if (destroyed) {
+            // Queued before onDestroy; registering observers now would leak them
+            return;
+        }
+        if (scoringEngine != null) {
+            newEngine.inheritStateFrom(scoringEngine);
+        } else {
+            restoreSnapshot(newEngine);
+        }
+        scoringEngine = newEngine;
+        configureReporter(newEngine.getConfig().reporting);
+        configureTracer(newEngine);
+        observeSettings(newEngine);
+        newEngine.setPackageIndex(packageIndex);
+        ScoringConfig.Diagnostics diagnostics = newEngine.getConfig().diagnostics;
+        newEngine.setVerifyIncremental(diagnostics != null
+            && Boolean.TRUE.equals(diagnostics.verifyIncremental));
+        android.util.Log.d("ScoringService", "Swapped in engine for config version " + version);
+        runScoringPass();
+    }
+
+    /**
+     * Resumes from the state saved before the service was last stopped, and
+     * shows the saved score until the first pass replaces it. The saved
+     * result was already reported, so only listeners get it.
+     */
+    private void restoreSnapshot(ScoringEngine engine) {
+        long start = System.nanoTime();
+        ScoringEngine.ScoringResult restored = engine.restoreSnapshot(new File(getFilesDir(), ENGINE_SNAPSHOT_FILE));
+        android.util.Log.d("ScoringService", "Engine snapshot " + (restored != null ? "restored" : "not usable")
+            + " in " + (System.nanoTime() - start) / 1000 + " us");
+        if (restored != null) {
+            scoreEvents.publish(publishResult(restored));
+        }
+    }
+
+    /**
+     * Applies the config's tracing settings. The ring is kept across config
+     * reloads unless its size changes.
+     */
+    private void configureTracer(ScoringEngine engine) {
+        ScoringConfig.Diagnostics diagnostics = engine.getConfig().diagnostics;
+        int spans = diagnostics != null && diagnostics.traceSpans != null ? diagnostics.traceSpans : 0;
+        if (spans != tracer.getCapacity()) {
+            tracer = spans > 0 ? new Tracer(spans) : Tracer.DISABLED;
+        }
+        tracePasses = diagnostics != null && diagnostics.tracePasses != null
+            ? diagnostics.tracePasses : DEFAULT_TRACE_PASSES;
+        commandRunner.setTracer(tracer);
+        engine.setTracer(tracer);
+    }
+
+    private void configureReporter(ScoringConfig.Reporting reporting) {
+        String endpoint = reporting != null ? reporting.endpoint : null;
+        if (endpoint != null && endpoint.isEmpty()) {
+            endpoint = null;
+        }
+        if (reporter != null && endpoint != null && endpoint.equals(reporterEndpoint)) {
+            return;
+        }
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+            reporterEndpoint = null;
+        }
+        if (endpoint == null) {
+            return;
+        }
+        
         try {
-            String configJson = configStorage.loadConfig();
-            if (configJson != null && !configJson.isEmpty()) {
-                Gson gson = new Gson();
-                ScoringConfig config = gson.fromJson(configJson, ScoringConfig.class);
-                scoringEngine = new ScoringEngine(this, config);
+            String deviceId = reporting.deviceId;
+            if (deviceId == null || deviceId.isEmpty()) {
+                deviceId = Settings.Secure.getString(getContentResolver(), Settings.Secure.ANDROID_ID);
             }
+            int batchSize = reporting.batchSize != null ? reporting.batchSize : DEFAULT_REPORT_BATCH_SIZE;
+            int maxQueued = reporting.maxQueuedReports != null
+                ? reporting.maxQueuedReports : DEFAULT_MAX_QUEUED_REPORTS;
+            ScoreReportQueue queue = new ScoreReportQueue(new File(getFilesDir(), REPORT_QUEUE_FILE), maxQueued);
+            reporter = new ScoreReporter(new URL(endpoint), deviceId, reporting.authToken, batchSize, queue);
+            reporterEndpoint = endpoint;
         } catch (Exception e) {
-            e.printStackTrace();
+            android.util.Log.e("ScoringService", "Score reporting disabled: invalid endpoint " + endpoint, e);
         }
     }
 
@@ -128,8 +543,42 @@ public class ScoringService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        synchronized (lifecycleLock) {
+            destroyed = true;
+        }
         if (handler != null && scoringRunnable != null) {
             handler.removeCallbacks(scoringRunnable);
         }
+        if (configStorage != null) {
+            configStorage.setConfigVersionListener(null);
+        }
+        if (packageReceiver != null) {
+            unregisterReceiver(packageReceiver);
+        }
+        scoreEvents.clear();
+        ScoringEngine engine = scoringEngine;
+        if (engine != null) {
+            engine.cancel();
+        }
+        if (compileExecutor != null) {
+            compileExecutor.shutdownNow();
+        }
+        if (scoringExecutor != null) {
+            scoringExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ContentResolver resolver = getContentResolver();
+                    for (ContentObserver observer : settingsObservers) {
+                        resolver.unregisterContentObserver(observer);
+                    }
+                    settingsObservers.clear();
+                    if (reporter != null) {
+                        reporter.shutdown();
+                    }
+                    commandRunner.shutdown();
+                }
+            });
+            scoringExecutor.shutdown();
+        }
     }
 }
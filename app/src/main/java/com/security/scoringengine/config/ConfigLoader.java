@@ -0,0 +1,26 @@
+package com.security.scoringengine.config;
+
+import com.google.gson.Gson;
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Turns a stored config into a {@link ScoringConfig}, whichever form it was
+ * imported in. Compiled plans are decoded directly; anything else is JSON.
+ */
+public final class ConfigLoader {
+    private ConfigLoader() {
+    }
+
+    public static ScoringConfig parse(byte[] data) throws Exception {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (ConfigPlan.isPlan(data)) {
+            return ConfigPlan.read(ByteBuffer.wrap(data));
+        }
+        return new Gson().fromJson(new String(data, Charset.forName("UTF-8")), ScoringConfig.class);
+    }
+}
@@ -0,0 +1,376 @@
+package com.security.scoringengine.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary form of a {@link ScoringConfig}, produced offline by the
+ * config compiler so the device never has to parse JSON.
+ *
+ * <pre>
+ * magic "SCPL", u8 version
+ * varint stringCount, then each string as varint length + UTF-8 bytes
+ * root value
+ *
+ * value := u8 tag, then
+ *   NULL | FALSE | TRUE
+ *   INT    zig-zag varint
+ *   STRING varint index into the string table
+ *   LIST   varint count, values
+ *   OBJECT varint count, (varint key index, value) pairs
+ * </pre>
+ *
+ * Every string, including field names and map keys, is stored once in the
+ * table. Objects are keyed by field name, so plans survive field reordering
+ * and unknown fields are skipped on read.
+ *
+ * The stored config keeps each top-level section as a plan of its own, so
+ * the service decodes it at boot without any JSON.
+ */
+public final class ConfigPlan {
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'S', 'C', 'P', 'L'};
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_STRING = 4;
+    private static final int TAG_LIST = 5;
+    private static final int TAG_OBJECT = 6;
+
+    private static final Map<Class<?>, Map<String, Field>> FIELD_CACHE = new ConcurrentHashMap<>();
+
+    private ConfigPlan() {
+    }
+
+    public static boolean isPlan(byte[] data) {
+        if (data == null || data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void write(ScoringConfig config, OutputStream out) throws IOException {
+        write(new Gson().toJsonTree(config), out);
+    }
+
+    /** Encodes any config value, such as a single top-level section. */
+    public static void write(JsonElement tree, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        collectStrings(tree, strings);
+        
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(MAGIC);
+        body.write(VERSION);
+        writeVarint(body, strings.size());
+        for (String value : strings.keySet()) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(body, bytes.length);
+            body.write(bytes);
+        }
+        writeValue(body, tree, strings);
+        body.writeTo(out);
+    }
+
+    public static byte[] toBytes(ScoringConfig config) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(config, out);
+        return out.toByteArray();
+    }
+
+    public static ScoringConfig read(ByteBuffer buffer) throws IOException {
+        return (ScoringConfig) read(buffer, ScoringConfig.class);
+    }
+
+    /**
+     * Decodes a plan holding the top-level section {@code name} into the
+     * matching field of {@code config}. Sections it does not declare are
+     * skipped.
+     */
+    public static void readSection(ByteBuffer buffer, String name, ScoringConfig config) throws IOException {
+        Field field = fieldsOf(ScoringConfig.class).get(name);
+        if (field == null) {
+            return;
+        }
+        Object value = read(buffer, field.getGenericType());
+        try {
+            field.set(config, value);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IOException("Plan section " + name + " does not match ScoringConfig", e);
+        }
+    }
+
+    /**
+     * Decodes a plan into the JSON tree it was written from, without binding
+     * it to {@link ScoringConfig}, so it can be validated like imported JSON.
+     */
+    public static JsonElement readTree(ByteBuffer buffer) throws IOException {
+        try {
+            return readTreeValue(buffer, readStrings(buffer));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt scoring plan", e);
+        }
+    }
+
+    private static Object read(ByteBuffer buffer, Type type) throws IOException {
+        try {
+            return readValue(buffer, readStrings(buffer), type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt scoring plan", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Plan does not match ScoringConfig", e);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) throws IOException {
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) {
+                throw new IOException("Not a compiled scoring plan");
+            }
+        }
+        int version = buffer.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported plan version " + version);
+        }
+        
+        String[] strings = new String[readVarint(buffer)];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = readVarint(buffer);
+            if (buffer.hasArray()) {
+                strings[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+                buffer.position(buffer.position() + length);
+            } else {
+                if (scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, UTF_8);
+            }
+        }
+        return strings;
+    }
+
+    private static void collectStrings(JsonElement element, Map<String, Integer> strings) {
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                intern(entry.getKey(), strings);
+                collectStrings(entry.getValue(), strings);
+            }
+        } else if (element.isJsonArray()) {
+            for (JsonElement child : element.getAsJsonArray()) {
+                collectStrings(child, strings);
+            }
+        } else if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            intern(element.getAsString(), strings);
+        }
+    }
+
+    private static void intern(String value, Map<String, Integer> strings) {
+        if (!strings.containsKey(value)) {
+            strings.put(value, strings.size());
+        }
+    }
+
+    private static void writeValue(OutputStream out, JsonElement element, Map<String, Integer> strings) throws IOException {
+        if (element.isJsonNull()) {
+            out.write(TAG_NULL);
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            out.write(TAG_OBJECT);
+            writeVarint(out, object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeVarint(out, strings.get(entry.getKey()));
+                writeValue(out, entry.getValue(), strings);
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            out.write(TAG_LIST);
+            writeVarint(out, array.size());
+            for (JsonElement child : array) {
+                writeValue(out, child, strings);
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.write(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if (primitive.isNumber()) {
+                long value = primitive.getAsLong();
+                out.write(TAG_INT);
+                writeVarint(out, (value << 1) ^ (value >> 63));
+            } else {
+                out.write(TAG_STRING);
+                writeVarint(out, strings.get(primitive.getAsString()));
+            }
+        }
+    }
+
+    private static Object readValue(ByteBuffer in, String[] strings, Type type) throws IOException, ReflectiveOperationException {
+        Class<?> raw = ConfigValidator.rawType(type);
+        int tag = in.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+            case TAG_TRUE:
+                return tag == TAG_TRUE;
+            case TAG_INT: {
+                long encoded = readVarLong(in);
+                long value = (encoded >>> 1) ^ -(encoded & 1);
+                if (raw == Integer.class || raw == int.class) {
+                    return (int) value;
+                }
+                if (raw == String.class) {
+                    return String.valueOf(value);
+                }
+                return value;
+            }
+            case TAG_STRING:
+                return strings[readVarint(in)];
+            case TAG_LIST: {
+                int count = readVarint(in);
+                Type elementType = ConfigValidator.typeArgument(type, 0);
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(in, strings, elementType));
+                }
+                return list;
+            }
+            case TAG_OBJECT: {
+                int count = readVarint(in);
+                if (Map.class.isAssignableFrom(raw)) {
+                    Type valueType = ConfigValidator.typeArgument(type, 1);
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        String key = strings[readVarint(in)];
+                        map.put(key, readValue(in, strings, valueType));
+                    }
+                    return map;
+                }
+                Object target = raw.newInstance();
+                Map<String, Field> fields = fieldsOf(raw);
+                for (int i = 0; i < count; i++) {
+                    Field field = fields.get(strings[readVarint(in)]);
+                    Object value = readValue(in, strings, field != null ? field.getGenericType() : Object.class);
+                    if (field != null && value != null) {
+                        field.set(target, value);
+                    }
+                }
+                return target;
+            }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static JsonElement readTreeValue(ByteBuffer in, String[] strings) throws IOException {
+        int tag = in.get();
+        switch (tag) {
+            case TAG_NULL:
+                return JsonNull.INSTANCE;
+            case TAG_FALSE:
+            case TAG_TRUE:
+                return new JsonPrimitive(tag == TAG_TRUE);
+            case TAG_INT: {
+                long encoded = readVarLong(in);
+                return new JsonPrimitive((encoded >>> 1) ^ -(encoded & 1));
+            }
+            case TAG_STRING:
+                return new JsonPrimitive(strings[readVarint(in)]);
+            case TAG_LIST: {
+                int count = readVarint(in);
+                JsonArray array = new JsonArray();
+                for (int i = 0; i < count; i++) {
+                    array.add(readTreeValue(in, strings));
+                }
+                return array;
+            }
+            case TAG_OBJECT: {
+                int count = readVarint(in);
+                JsonObject object = new JsonObject();
+                for (int i = 0; i < count; i++) {
+                    String key = strings[readVarint(in)];
+                    if (object.has(key)) {
+                        throw new IOException("Duplicate key '" + key + "' in scoring plan");
+                    }
+                    object.add(key, readTreeValue(in, strings));
+                }
+                return object;
+            }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static Map<String, Field> fieldsOf(Class<?> type) {
+        Map<String, Field> fields = FIELD_CACHE.get(type);
+        if (fields == null) {
+            fields = new HashMap<>();
+            for (Field field : type.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.put(field.getName(), field);
+                }
+            }
+            // Two threads may build the same map; both results are equal
+            FIELD_CACHE.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
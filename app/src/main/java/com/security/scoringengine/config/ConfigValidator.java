@@ -0,0 +1,594 @@
+package com.security.scoringengine.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.security.scoringengine.models.ScoringConfig;
+import com.security.scoringengine.scoring.FileRule;
+import com.security.scoringengine.scoring.ListenerRule;
+import com.security.scoringengine.scoring.VersionConstraint;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Validates a scoring config against the fields {@link ScoringConfig} actually
+ * declares, in the same single streaming pass that parses it. Unlike a plain
+ * Gson parse this reports duplicate keys, unknown fields and type mismatches
+ * with their JSON path. Each top-level section is checked as soon as it has
+ * been read, so a {@link SectionSink} can take the sections one at a time.
+ * Decoded plans go through the same checks as a tree.
+ */
+public class ConfigValidator {
+    // Fields ScoringConfig accepts but ScoringEngine never reads
+    private static final Set<String> UNUSED_FIELDS = new HashSet<>(Arrays.asList(
+        "penaltiesandPoints.appPenalty"
+    ));
+
+    public enum Severity {
+        ERROR,
+        WARNING
+    }
+
+    public static class Issue {
+        public final Severity severity;
+        public final String path;
+        public final String message;
+
+        Issue(Severity severity, String path, String message) {
+            this.severity = severity;
+            this.path = path;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return severity + " " + (path.isEmpty() ? "$" : path) + ": " + message;
+        }
+    }
+
+    /** Receives each top-level section once it has been read and checked. */
+    public interface SectionSink {
+        void section(String name, JsonElement value) throws IOException;
+    }
+
+    public static class Result {
+        private final List<Issue> issues;
+        private final ScoringConfig config;
+
+        public Result(List<Issue> issues, ScoringConfig config) {
+            this.issues = Collections.unmodifiableList(issues);
+            this.config = config;
+        }
+
+        public List<Issue> getIssues() {
+            return issues;
+        }
+
+        /**
+         * Returns the parsed config, or null if validation found errors or the
+         * sections were handed to a {@link SectionSink}.
+         */
+        public ScoringConfig getConfig() {
+            return config;
+        }
+
+        public boolean hasErrors() {
+            return count(Severity.ERROR) > 0;
+        }
+
+        public int count(Severity severity) {
+            int count = 0;
+            for (Issue issue : issues) {
+                if (issue.severity == severity) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private List<Issue> issues;
+    private int errors;
+    private boolean hasPoints;
+
+    public Result validate(Reader source) throws IOException {
+        return validate(source, null);
+    }
+
+    /**
+     * Validates {@code source}, passing each top-level section to {@code sink}
+     * instead of keeping it, so only one section is held at a time. Sections
+     * stop going to the sink at the first error; the result then has errors
+     * and whatever the sink received should be discarded.
+     */
+    public Result validate(Reader source, SectionSink sink) throws IOException {
+        issues = new ArrayList<>();
+        errors = 0;
+        hasPoints = false;
+        JsonObject tree = new JsonObject();
+        JsonReader reader = new JsonReader(source);
+        // Match Gson.fromJson(String), which the app has always parsed configs with
+        reader.setLenient(true);
+        try {
+            if (expect(reader, reader.peek(), JsonToken.BEGIN_OBJECT, "")) {
+                Set<String> seen = new HashSet<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    Field field = findField(ScoringConfig.class, name);
+                    if (field == null) {
+                        warning(name, "Unknown field '" + name + "' is ignored by the engine");
+                        reader.skipValue();
+                        continue;
+                    }
+                    JsonElement value = readValue(reader, field.getGenericType(), name);
+                    if (!seen.add(name)) {
+                        error(name, "Duplicate key '" + name + "'");
+                        continue;
+                    }
+                    acceptSection(name, value, tree, sink);
+                }
+                reader.endObject();
+            }
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                error("", "Unexpected content after the top-level object");
+            }
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            error("", "Malformed JSON: " + e.getMessage());
+            return new Result(issues, null);
+        }
+        return finish(tree, sink);
+    }
+
+    /**
+     * Validates an already decoded config, such as a plan read with
+     * {@link ConfigPlan#readTree}, the same way as {@link #validate(Reader, SectionSink)}.
+     */
+    public Result validate(JsonElement root, SectionSink sink) throws IOException {
+        issues = new ArrayList<>();
+        errors = 0;
+        hasPoints = false;
+        JsonObject tree = new JsonObject();
+        if (!root.isJsonObject()) {
+            error("", "Expected an object but found " + describe(root));
+        } else {
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject().entrySet()) {
+                String name = entry.getKey();
+                Field field = findField(ScoringConfig.class, name);
+                if (field == null) {
+                    warning(name, "Unknown field '" + name + "' is ignored by the engine");
+                    continue;
+                }
+                acceptSection(name, checkValue(entry.getValue(), field.getGenericType(), name), tree, sink);
+            }
+        }
+        return finish(tree, sink);
+    }
+
+    private void acceptSection(String name, JsonElement value, JsonObject tree, SectionSink sink) throws IOException {
+        checkSection(name, value);
+        if (sink == null) {
+            tree.add(name, value);
+        } else if (errors == 0) {
+            sink.section(name, value);
+        }
+    }
+
+    private Result finish(JsonObject tree, SectionSink sink) {
+        if (!hasPoints && !hasErrorAt("")) {
+            error("penaltiesandPoints", "Missing required section");
+        }
+        
+        ScoringConfig config = null;
+        if (sink == null && errors == 0) {
+            config = new Gson().fromJson(tree, ScoringConfig.class);
+        }
+        return new Result(issues, config);
+    }
+
+    private JsonElement readValue(JsonReader reader, Type type, String path) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return JsonNull.INSTANCE;
+        }
+        
+        Class<?> raw = rawType(type);
+        if (raw == Boolean.class || raw == boolean.class) {
+            if (expect(reader, token, JsonToken.BOOLEAN, path)) {
+                return new JsonPrimitive(reader.nextBoolean());
+            }
+        } else if (raw == Integer.class || raw == int.class || raw == Long.class || raw == long.class) {
+            if (expect(reader, token, JsonToken.NUMBER, path)) {
+                return readInteger(reader, raw == Integer.class || raw == int.class, path);
+            }
+        } else if (raw == String.class) {
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                return new JsonPrimitive(reader.nextString());
+            }
+            expect(reader, token, JsonToken.STRING, path);
+        } else if (List.class.isAssignableFrom(raw)) {
+            if (expect(reader, token, JsonToken.BEGIN_ARRAY, path)) {
+                Type elementType = typeArgument(type, 0);
+                JsonArray array = new JsonArray();
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    array.add(readValue(reader, elementType, path + "[" + i + "]"));
+                }
+                reader.endArray();
+                return array;
+            }
+        } else if (Map.class.isAssignableFrom(raw)) {
+            if (expect(reader, token, JsonToken.BEGIN_OBJECT, path)) {
+                Type valueType = typeArgument(type, 1);
+                JsonObject object = new JsonObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    String childPath = join(path, name);
+                    JsonElement value = readValue(reader, valueType, childPath);
+                    if (object.has(name)) {
+                        error(childPath, "Duplicate key '" + name + "'");
+                    } else {
+                        object.add(name, value);
+                    }
+                }
+                reader.endObject();
+                return object;
+            }
+        } else {
+            if (expect(reader, token, JsonToken.BEGIN_OBJECT, path)) {
+                JsonObject object = new JsonObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    String childPath = join(path, name);
+                    Field field = findField(raw, name);
+                    if (field == null) {
+                        warning(childPath, "Unknown field '" + name + "' is ignored by the engine");
+                        reader.skipValue();
+                        continue;
+                    }
+                    if (UNUSED_FIELDS.contains(childPath)) {
+                        warning(childPath, "Field is accepted but not used for scoring");
+                    }
+                    JsonElement value = readValue(reader, field.getGenericType(), childPath);
+                    if (object.has(name)) {
+                        error(childPath, "Duplicate key '" + name + "'");
+                    } else {
+                        object.add(name, value);
+                    }
+                }
+                reader.endObject();
+                return object;
+            }
+        }
+        return JsonNull.INSTANCE;
+    }
+
+    /** The tree counterpart of {@link #readValue}; returns null elements where the type is wrong. */
+    private JsonElement checkValue(JsonElement value, Type type, String path) {
+        if (value.isJsonNull()) {
+            return value;
+        }
+        
+        Class<?> raw = rawType(type);
+        if (raw == Boolean.class || raw == boolean.class) {
+            if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+                return value;
+            }
+            mismatch(value, "a boolean", path);
+        } else if (raw == Integer.class || raw == int.class || raw == Long.class || raw == long.class) {
+            if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+                long asLong = value.getAsLong();
+                if ((raw == Integer.class || raw == int.class)
+                        && (asLong < Integer.MIN_VALUE || asLong > Integer.MAX_VALUE)) {
+                    error(path, "Value " + asLong + " does not fit in an int");
+                    return JsonNull.INSTANCE;
+                }
+                return value;
+            }
+            mismatch(value, "a number", path);
+        } else if (raw == String.class) {
+            if (value.isJsonPrimitive() && !value.getAsJsonPrimitive().isBoolean()) {
+                return new JsonPrimitive(value.getAsString());
+            }
+            mismatch(value, "a string", path);
+        } else if (List.class.isAssignableFrom(raw)) {
+            if (value.isJsonArray()) {
+                Type elementType = typeArgument(type, 0);
+                JsonArray array = new JsonArray();
+                int i = 0;
+                for (JsonElement element : value.getAsJsonArray()) {
+                    array.add(checkValue(element, elementType, path + "[" + i++ + "]"));
+                }
+                return array;
+            }
+            mismatch(value, "an array", path);
+        } else if (Map.class.isAssignableFrom(raw)) {
+            if (value.isJsonObject()) {
+                Type valueType = typeArgument(type, 1);
+                JsonObject object = new JsonObject();
+                for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                    object.add(entry.getKey(), checkValue(entry.getValue(), valueType, join(path, entry.getKey())));
+                }
+                return object;
+            }
+            mismatch(value, "an object", path);
+        } else {
+            if (value.isJsonObject()) {
+                JsonObject object = new JsonObject();
+                for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                    String name = entry.getKey();
+                    String childPath = join(path, name);
+                    Field field = findField(raw, name);
+                    if (field == null) {
+                        warning(childPath, "Unknown field '" + name + "' is ignored by the engine");
+                        continue;
+                    }
+                    if (UNUSED_FIELDS.contains(childPath)) {
+                        warning(childPath, "Field is accepted but not used for scoring");
+                    }
+                    object.add(name, checkValue(entry.getValue(), field.getGenericType(), childPath));
+                }
+                return object;
+            }
+            mismatch(value, "an object", path);
+        }
+        return JsonNull.INSTANCE;
+    }
+
+    private void mismatch(JsonElement value, String expected, String path) {
+        error(path, "Expected " + expected + " but found " + describe(value));
+    }
+
+    private JsonElement readInteger(JsonReader reader, boolean isInt, String path) throws IOException {
+        String text = reader.nextString();
+        try {
+            BigDecimal value = new BigDecimal(text);
+            long asLong = value.longValueExact();
+            if (isInt && (asLong < Integer.MIN_VALUE || asLong > Integer.MAX_VALUE)) {
+                error(path, "Value " + text + " does not fit in an int");
+                return JsonNull.INSTANCE;
+            }
+            return new JsonPrimitive(asLong);
+        } catch (ArithmeticException | NumberFormatException e) {
+            error(path, "Expected a whole number but found " + text);
+            return JsonNull.INSTANCE;
+        }
+    }
+
+    private boolean expect(JsonReader reader, JsonToken actual, JsonToken expected, String path) throws IOException {
+        if (actual == expected) {
+            return true;
+        }
+        error(path, "Expected " + describe(expected) + " but found " + describe(actual));
+        reader.skipValue();
+        return false;
+    }
+
+    private void checkSection(String name, JsonElement value) {
+        switch (name) {
+            case "penaltiesandPoints":
+                hasPoints = value.isJsonObject();
+                break;
+            case "forensicsQuestions":
+                if (value.isJsonObject()) {
+                    for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                        JsonElement question = entry.getValue();
+                        if (!question.isJsonArray() || question.getAsJsonArray().size() < 2) {
+                            error(join("forensicsQuestions", entry.getKey()),
+                                "Question must be an array of [question, answer]");
+                        }
+                    }
+                }
+                break;
+            case "fileDeletions":
+                if (value.isJsonArray()) {
+                    for (int i = 0; i < value.getAsJsonArray().size(); i++) {
+                        JsonElement entry = value.getAsJsonArray().get(i);
+                        if (!entry.isJsonPrimitive() || !FileRule.isRule(entry.getAsString())) {
+                            continue;
+                        }
+                        try {
+                            FileRule.parse(entry.getAsString());
+                        } catch (IllegalArgumentException e) {
+                            error("fileDeletions[" + i + "]", e.getMessage());
+                        }
+                    }
+                }
+                break;
+            case "fileHashes":
+                if (value.isJsonObject()) {
+                    for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                        if (!entry.getValue().isJsonObject()) {
+                            continue;
+                        }
+                        JsonObject rule = entry.getValue().getAsJsonObject();
+                        if (!rule.has("expected") && !rule.has("forbidden")) {
+                            error(join("fileHashes", entry.getKey()), "Rule needs expected or forbidden digests");
+                        }
+                        for (String list : new String[]{"expected", "forbidden"}) {
+                            JsonElement digests = rule.get(list);
+                            if (digests == null || !digests.isJsonArray()) {
+                                continue;
+                            }
+                            for (JsonElement digest : digests.getAsJsonArray()) {
+                                if (!digest.isJsonPrimitive() || !digest.getAsString().matches("[0-9a-fA-F]{64}")) {
+                                    error(join(join("fileHashes", entry.getKey()), list), "Not a SHA-256 hex digest: " + digest);
+                                }
+                            }
+                        }
+                    }
+                }
+                break;
+            case "processChecks":
+                if (value.isJsonObject()) {
+                    for (String list : new String[]{"forbiddenCmdlines", "requiredCmdlines"}) {
+                        JsonElement patterns = value.getAsJsonObject().get(list);
+                        if (patterns == null || !patterns.isJsonArray()) {
+                            continue;
+                        }
+                        for (JsonElement pattern : patterns.getAsJsonArray()) {
+                            if (!pattern.isJsonPrimitive()) {
+                                continue;
+                            }
+                            try {
+                                Pattern.compile(pattern.getAsString());
+                            } catch (PatternSyntaxException e) {
+                                error(join("processChecks", list), "Invalid pattern " + pattern + ": " + e.getDescription());
+                            }
+                        }
+                    }
+                }
+                break;
+            case "networkListeners":
+                if (value.isJsonObject()) {
+                    for (String list : new String[]{"forbidden", "required"}) {
+                        JsonElement specs = value.getAsJsonObject().get(list);
+                        if (specs == null || !specs.isJsonArray()) {
+                            continue;
+                        }
+                        for (int i = 0; i < specs.getAsJsonArray().size(); i++) {
+                            JsonElement spec = specs.getAsJsonArray().get(i);
+                            if (!spec.isJsonPrimitive()) {
+                                continue;
+                            }
+                            try {
+                                ListenerRule.parse(spec.getAsString());
+                            } catch (IllegalArgumentException e) {
+                                error(join("networkListeners", list) + "[" + i + "]", e.getMessage());
+                            }
+                        }
+                    }
+                }
+                break;
+            case "appUpdates":
+                if (value.isJsonObject()) {
+                    for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                        if (!entry.getValue().isJsonPrimitive()) {
+                            continue;
+                        }
+                        try {
+                            VersionConstraint.parse(entry.getValue().getAsString());
+                        } catch (IllegalArgumentException e) {
+                            error(join("appUpdates", entry.getKey()), e.getMessage());
+                        }
+                    }
+                }
+                break;
+            case "reporting":
+                if (value.isJsonObject()) {
+                    JsonElement endpoint = value.getAsJsonObject().get("endpoint");
+                    if (endpoint == null || !endpoint.isJsonPrimitive()) {
+                        error("reporting.endpoint", "Missing scoreboard endpoint");
+                    } else {
+                        String url = endpoint.getAsString();
+                        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+                            error("reporting.endpoint", "Endpoint must be an http:// or https:// URL");
+                        }
+                    }
+                }
+                break;
+            case "systemUpdatePolicy":
+                if (value.isJsonObject() && !value.getAsJsonObject().has("policyTypeName")) {
+                    warning("systemUpdatePolicy", "Section without policyTypeName counts towards max points but can never be earned");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        try {
+            Field field = type.getField(name);
+            return Modifier.isStatic(field.getModifiers()) ? null : field;
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return Object.class;
+    }
+
+    static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            return ((ParameterizedType) type).getActualTypeArguments()[index];
+        }
+        return Object.class;
+    }
+
+    private static String join(String path, String name) {
+        return path.isEmpty() ? name : path + "." + name;
+    }
+
+    private static String describe(JsonToken token) {
+        switch (token) {
+            case BEGIN_ARRAY: return "an array";
+            case BEGIN_OBJECT: return "an object";
+            case STRING: return "a string";
+            case NUMBER: return "a number";
+            case BOOLEAN: return "a boolean";
+            default: return token.toString().toLowerCase();
+        }
+    }
+
+    private static String describe(JsonElement value) {
+        if (value.isJsonArray()) {
+            return "an array";
+        }
+        if (value.isJsonObject()) {
+            return "an object";
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        return primitive.isBoolean() ? "a boolean" : primitive.isNumber() ? "a number" : "a string";
+    }
+
+    private boolean hasErrorAt(String path) {
+        for (Issue issue : issues) {
+            if (issue.severity == Severity.ERROR && issue.path.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void error(String path, String message) {
+        issues.add(new Issue(Severity.ERROR, path, message));
+        errors++;
+    }
+
+    private void warning(String path, String message) {
+        issues.add(new Issue(Severity.WARNING, path, message));
+    }
+}
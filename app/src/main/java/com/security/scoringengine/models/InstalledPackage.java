@@ -0,0 +1,23 @@
+package com.security.scoringengine.models;
+
+public class InstalledPackage {
+    public String packageName;
+    public String versionName;
+    public long versionCode;
+    // Linux uid the package runs as; null when unknown
+    public Integer uid;
+
+    public InstalledPackage() {
+    }
+
+    public InstalledPackage(String packageName, String versionName, long versionCode) {
+        this.packageName = packageName;
+        this.versionName = versionName;
+        this.versionCode = versionCode;
+    }
+
+    public InstalledPackage(String packageName, String versionName, long versionCode, Integer uid) {
+        this(packageName, versionName, versionCode);
+        this.uid = uid;
+    }
+}
@@ -0,0 +1,29 @@
+package com.security.scoringengine.models;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Runtime state of one installed package: permissions, components and app-ops. */
+public class PackageState {
+    public String packageName;
+    public Set<String> grantedPermissions = new HashSet<>();
+    // Fully qualified class names of components that are currently enabled;
+    // disabled components are left out
+    public Set<String> enabledComponents = new HashSet<>();
+    // Op name (e.g. "CAMERA") to mode ("allow", "ignore", ...) for ops that
+    // are not in their default mode; null when app-ops were not read
+    public Map<String, String> appOps;
+
+    public PackageState() {
+    }
+
+    public PackageState(String packageName) {
+        this.packageName = packageName;
+    }
+
+    /** True for the modes that stop an app using an op. */
+    public static boolean isDeniedMode(String mode) {
+        return "ignore".equals(mode) || "deny".equals(mode) || "errored".equals(mode);
+    }
+}
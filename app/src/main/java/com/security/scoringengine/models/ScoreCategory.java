@@ -0,0 +1,23 @@
+package com.security.scoringengine.models;
+
+/** Report sections; declaration order is display order. */
+public enum ScoreCategory {
+    APPS("apps"),
+    FILES("files"),
+    FORENSICS("forensics"),
+    NETWORK("network"),
+    POLICY("policy"),
+    PROCESSES("processes"),
+    SETTINGS("settings"),
+    USERS("users");
+
+    private final String label;
+
+    ScoreCategory(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -1,16 +1,24 @@
 package com.security.scoringengine.models;
 
-public class ScoreItem {
-    private String description;
-    private int points;
-    private String category;
-    private long timestamp;
+/**
+ * One scoring check. Items are created once per config and shared by every
+ * result; a result only records which check ids were satisfied.
+ */
+public final class ScoreItem {
+    private final int checkId;
+    private final String description;
+    private final int points;
+    private final ScoreCategory category;
 
-    public ScoreItem(String description, int points, String category) {
+    public ScoreItem(int checkId, String description, int points, ScoreCategory category) {
+        this.checkId = checkId;
         this.description = description;
         this.points = points;
         this.category = category;
-        this.timestamp = System.currentTimeMillis();
+    }
+
+    public int getCheckId() {
+        return checkId;
     }
 
     public String getDescription() {
@@ -21,11 +29,7 @@ public class ScoreItem {
         return points;
     }
 
-    public String getCategory() {
+    public ScoreCategory getCategory() {
         return category;
     }
-
-    public long getTimestamp() {
-        return timestamp;
-    }
 }
@@ -16,11 +16,18 @@ public class ScoringConfig {
     public AdditionalRestrictions additionalRestrictions;
     public SystemUpdatePolicy systemUpdatePolicy;
     public List<String> fileDeletions;
+    public FileScanLimits fileScanLimits;
+    public Map<String, FileHash> fileHashes;
+    public ProcessChecks processChecks;
+    public NetworkListeners networkListeners;
     public List<String> appDeletions;
     public Map<String, String> appUpdates;
     public List<String> appInstalls;
+    public Map<String, AppPermissions> appPermissions;
     public Map<String, List<String>> forensicsQuestions;
     public PenaltiesAndPoints penaltiesandPoints;
+    public Reporting reporting;
+    public Diagnostics diagnostics;
 
     public static class DeviceRestrictions {
         public Boolean screenCaptureDisabled;
@@ -46,6 +53,56 @@ public class ScoringConfig {
         public String policyTypeName;
     }
 
+    public static class ProcessChecks {
+        public List<String> forbidden;
+        public List<String> required;
+        public List<String> forbiddenCmdlines;
+        public List<String> requiredCmdlines;
+    }
+
+    public static class NetworkListeners {
+        public List<String> forbidden;
+        public List<String> required;
+    }
+
+    /**
+     * Component names are fully qualified class names, or start with "." to
+     * be relative to the package.
+     */
+    public static class AppPermissions {
+        public List<String> revoked;
+        public List<String> granted;
+        public List<String> deniedOps;
+        public List<String> disabledComponents;
+        public List<String> enabledComponents;
+    }
+
+    public static class FileHash {
+        public List<String> expected;
+        public List<String> forbidden;
+        public String description;
+    }
+
+    public static class FileScanLimits {
+        public Integer maxDepth;
+        public Integer maxEntries;
+    }
+
+    public static class Reporting {
+        public String endpoint;
+        public String deviceId;
+        public String authToken;
+        public Integer batchSize;
+        public Integer maxQueuedReports;
+    }
+
+    public static class Diagnostics {
+        public Integer traceSpans;
+        public Integer tracePasses;
+        // Cross-check every targeted recalculation against a full pass
+        public Boolean verifyIncremental;
+    }
+
     public static class PenaltiesAndPoints {
         public int updatePoints;
         public int appInstallPoints;
@@ -57,5 +114,9 @@ public class ScoringConfig {
         public int userPenalty;
         public int appPenalty;
         public int forensicsPoints;
+        public Integer fileIntegrityPoints;
+        public Integer processPoints;
+        public Integer networkPoints;
+        public Integer permissionPoints;
     }
 }
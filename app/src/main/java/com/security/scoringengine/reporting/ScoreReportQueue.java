@@ -0,0 +1,122 @@
+package com.security.scoringengine.reporting;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounded FIFO of pending reports, persisted one JSON object per line so
+ * reports survive a service restart or reboot. Additions are appended to the
+ * file; the file is only rewritten when reports are removed or the oldest
+ * are dropped to stay within capacity.
+ */
+public class ScoreReportQueue {
+    private final File file;
+    private final int capacity;
+    private final ArrayDeque<String> entries = new ArrayDeque<>();
+    private int droppedCount;
+
+    public ScoreReportQueue(File file, int capacity) {
+        this.file = file;
+        this.capacity = Math.max(1, capacity);
+        load();
+    }
+
+    public synchronized void add(String entry) {
+        entries.addLast(entry);
+        if (entries.size() > capacity) {
+            while (entries.size() > capacity) {
+                entries.removeFirst();
+                droppedCount++;
+            }
+            rewrite();
+        } else {
+            append(entry);
+        }
+    }
+
+    /** Returns up to {@code max} of the oldest entries without removing them. */
+    public synchronized List<String> peek(int max) {
+        List<String> batch = new ArrayList<>(Math.min(max, entries.size()));
+        Iterator<String> iterator = entries.iterator();
+        while (iterator.hasNext() && batch.size() < max) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    /** Removes the {@code count} oldest entries, normally after they were sent. */
+    public synchronized void remove(int count) {
+        for (int i = 0; i < count && !entries.isEmpty(); i++) {
+            entries.removeFirst();
+        }
+        rewrite();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Number of reports discarded because the queue was full. */
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    entries.addLast(line);
+                }
+            }
+        } catch (IOException e) {
+            android.util.Log.w("ScoreReportQueue", "Could not read report queue, starting empty", e);
+            entries.clear();
+        }
+        while (entries.size() > capacity) {
+            entries.removeFirst();
+            droppedCount++;
+        }
+    }
+
+    private void append(String entry) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")) {
+            writer.write(entry);
+            writer.write('\n');
+        } catch (IOException e) {
+            android.util.Log.w("ScoreReportQueue", "Could not persist report", e);
+        }
+    }
+
+    private void rewrite() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8")) {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            android.util.Log.w("ScoreReportQueue", "Could not persist report queue", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            android.util.Log.w("ScoreReportQueue", "Could not replace report queue file");
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.security.scoringengine.reporting;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.security.scoringengine.models.ScoreItem;
+import com.security.scoringengine.scoring.ScoringEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pushes score changes to a scoreboard endpoint.
+ *
+ * <p>{@link #report} only hands the result to the reporter's own thread, so a
+ * scoring pass never waits on the network. There the result is diffed against
+ * the last one reported and, if anything changed, the delta is added to a
+ * persistent {@link ScoreReportQueue}. Deltas are sent in gzip-compressed
+ * batches; failed sends are retried with jittered exponential backoff so many
+ * devices on a flaky network do not retry in lockstep.
+ */
+public class ScoreReporter {
+    private static final String TAG = "ScoreReporter";
+    private static final long LINGER_MS = 2000;
+    private static final long INITIAL_BACKOFF_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final URL endpoint;
+    private final String deviceId;
+    private final String authToken;
+    private final int batchSize;
+    private final ScoreReportQueue queue;
+    private final long lingerMs;
+    private final long initialBackoffMs;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+
+    // Only touched on the executor thread
+    private ScoringEngine.ScoringResult lastResult;
+    // Keyed by check id; descriptions need not be unique
+    private Map<Integer, ScoreItem> lastItems;
+    private int lastPoints = Integer.MIN_VALUE;
+    private int lastMaxPoints = Integer.MIN_VALUE;
+    private long sequence;
+    private int consecutiveFailures;
+    private ScheduledFuture<?> pendingFlush;
+    private long pendingFlushAt;
+
+    private volatile int sentBatches;
+    private volatile int failedAttempts;
+
+    public ScoreReporter(URL endpoint, String deviceId, String authToken, int batchSize, ScoreReportQueue queue) {
+        this(endpoint, deviceId, authToken, batchSize, queue, LINGER_MS, INITIAL_BACKOFF_MS);
+    }
+
+    ScoreReporter(URL endpoint, String deviceId, String authToken, int batchSize, ScoreReportQueue queue,
+                  long lingerMs, long initialBackoffMs) {
+        this.endpoint = endpoint;
+        this.deviceId = deviceId;
+        this.authToken = authToken;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = queue;
+        this.lingerMs = lingerMs;
+        this.initialBackoffMs = initialBackoffMs;
+        this.sequence = System.currentTimeMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        
+        // Anything left over from a previous run goes out first
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue.size() > 0) {
+                    scheduleFlush(0);
+                }
+            }
+        });
+    }
+
+    /** Queues the change since the last reported result. Returns immediately. */
+    public void report(final ScoringEngine.ScoringResult result) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                enqueueDelta(result);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getSentBatches() {
+        return sentBatches;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public int getQueuedReports() {
+        return queue.size();
+    }
+
+    private void enqueueDelta(ScoringEngine.ScoringResult result) {
+        if (result.hasSameOutcomeAs(lastResult)) {
+            return;
+        }
+        lastResult = result;
+        Map<Integer, ScoreItem> items = new HashMap<>();
+        for (ScoreItem item : result.getScoreItems()) {
+            items.put(item.getCheckId(), item);
+        }
+        
+        boolean full = lastItems == null;
+        if (!full && sameItems(items, lastItems) && result.getCurrentPoints() == lastPoints
+                && result.getMaxPoints() == lastMaxPoints) {
+            return;
+        }
+        
+        JsonObject delta = new JsonObject();
+        delta.addProperty("seq", ++sequence);
+        delta.addProperty("timestamp", System.currentTimeMillis());
+        delta.addProperty("full", full);
+        delta.addProperty("currentPoints", result.getCurrentPoints());
+        delta.addProperty("maxPoints", result.getMaxPoints());
+        JsonArray gained = new JsonArray();
+        for (ScoreItem item : items.values()) {
+            if (full || !sameItem(item, lastItems.get(item.getCheckId()))) {
+                JsonObject gainedItem = new JsonObject();
+                gainedItem.addProperty("checkId", item.getCheckId());
+                gainedItem.addProperty("description", item.getDescription());
+                gainedItem.addProperty("points", item.getPoints());
+                gained.add(gainedItem);
+            }
+        }
+        delta.add("gained", gained);
+        JsonArray lost = new JsonArray();
+        if (!full) {
+            for (Integer checkId : lastItems.keySet()) {
+                if (!items.containsKey(checkId)) {
+                    lost.add(checkId);
+                }
+            }
+        }
+        delta.add("lost", lost);
+        
+        queue.add(delta.toString());
+        lastItems = items;
+        lastPoints = result.getCurrentPoints();
+        lastMaxPoints = result.getMaxPoints();
+        
+        if (consecutiveFailures == 0) {
+            // Give closely spaced results a moment to share one request
+            scheduleFlush(lingerMs);
+        }
+    }
+
+    private static boolean sameItems(Map<Integer, ScoreItem> items, Map<Integer, ScoreItem> other) {
+        if (items.size() != other.size()) {
+            return false;
+        }
+        for (ScoreItem item : items.values()) {
+            if (!sameItem(item, other.get(item.getCheckId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether a reload kept the check as it was, as far as the scoreboard can tell. */
+    private static boolean sameItem(ScoreItem item, ScoreItem other) {
+        return other != null && item.getPoints() == other.getPoints()
+            && item.getDescription().equals(other.getDescription());
+    }
+
+    private void scheduleFlush(long delayMs) {
+        long at = System.currentTimeMillis() + delayMs;
+        if (pendingFlush != null && !pendingFlush.isDone()) {
+            if (pendingFlushAt <= at) {
+                return;
+            }
+            pendingFlush.cancel(false);
+        }
+        pendingFlushAt = at;
+        pendingFlush = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        pendingFlush = null;
+        List<String> batch = queue.peek(batchSize);
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        int status;
+        try {
+            status = send(batch);
+        } catch (IOException e) {
+            android.util.Log.w(TAG, "Report upload failed: " + e.getMessage());
+            status = -1;
+        }
+        
+        if (status >= 200 && status < 300) {
+            queue.remove(batch.size());
+            sentBatches++;
+            consecutiveFailures = 0;
+            if (queue.size() > 0) {
+                scheduleFlush(0);
+            }
+        } else if (status >= 400 && status < 500 && status != 408 && status != 429) {
+            // The server will never accept this batch; drop it rather than block the queue
+            android.util.Log.e(TAG, "Scoreboard rejected " + batch.size() + " report(s) with HTTP " + status);
+            queue.remove(batch.size());
+            consecutiveFailures = 0;
+            if (queue.size() > 0) {
+                scheduleFlush(0);
+            }
+        } else {
+            failedAttempts++;
+            consecutiveFailures++;
+            scheduleFlush(backoffDelay());
+        }
+    }
+
+    private long backoffDelay() {
+        int exponent = Math.min(consecutiveFailures - 1, 20);
+        long delay = Math.min(MAX_BACKOFF_MS, initialBackoffMs << exponent);
+        // Full jitter over the upper half keeps devices from retrying together
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private int send(List<String> batch) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(body), "UTF-8");
+        JsonObject header = new JsonObject();
+        header.addProperty("deviceId", deviceId);
+        header.addProperty("sentAt", System.currentTimeMillis());
+        String headerJson = header.toString();
+        // Entries are already JSON, so splice them in rather than re-parse
+        writer.write(headerJson, 0, headerJson.length() - 1);
+        writer.write(",\"reports\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) writer.write(',');
+            writer.write(batch.get(i));
+        }
+        writer.write("]}");
+        writer.close();
+        
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.size());
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            if (authToken != null && !authToken.isEmpty()) {
+                connection.setRequestProperty("Authorization", "Bearer " + authToken);
+            }
+            OutputStream out = connection.getOutputStream();
+            body.writeTo(out);
+            out.close();
+            
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package com.security.scoringengine.scoring;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.provider.Settings;
+
+import com.google.gson.Gson;
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads device state on a rooted device, using su for files outside the app
+ * sandbox.
+ */
+public class AndroidDeviceReader implements DeviceReader {
+    private static final String PREFS_NAME = "ForensicsPrefs";
+    private static final String PREFS_ANSWERED = "answered_questions";
+    private static final String POLICY_STATE_PATH = "/data/data/com.deviceconfig.policymanager/policy_state.json";
+    private static final String SETTINGS_DIR = "/data/system/users/0/";
+    // Up to this many packages are looked up one by one rather than listing all
+    private static final int MAX_PACKAGE_LOOKUPS = 32;
+    private static final int PACKAGE_STATE_FLAGS = PackageManager.GET_PERMISSIONS
+        | PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+        | PackageManager.GET_SERVICES | PackageManager.GET_PROVIDERS;
+
+    private final Context context;
+    private final PrivilegedCommandRunner commandRunner;
+
+    public AndroidDeviceReader(Context context) {
+        this(context, new PrivilegedCommandRunner());
+    }
+
+    public AndroidDeviceReader(Context context, PrivilegedCommandRunner commandRunner) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.commandRunner = commandRunner;
+    }
+
+    @Override
+    public PolicyState readPolicyState() throws Exception {
+        String filePath = POLICY_STATE_PATH;
+        
+        android.util.Log.d("ScoringEngine", "Reading policy file with root: " + filePath);
+        
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runAsRoot("cat " + filePath);
+            
+            if (result.exitCode != 0) {
+                android.util.Log.e("ScoringEngine", "Failed to read policy file. Exit code: " + result.exitCode);
+                android.util.Log.e("ScoringEngine", "Error output: " + result.stderr);
+                throw new Exception("Failed to read policy file with root. Exit code: " + result.exitCode);
+            }
+            
+            String jsonContent = result.stdoutText().trim();
+            if (jsonContent.isEmpty()) {
+                android.util.Log.e("ScoringEngine", "Policy file is empty or could not be read");
+                throw new Exception("Policy file is empty");
+            }
+            
+            android.util.Log.d("ScoringEngine", "Policy file read successfully. Length: " + jsonContent.length());
+            
+            PolicyState state;
+            long span = commandRunner.getTracer().begin("parse policy state");
+            try {
+                state = new Gson().fromJson(jsonContent, PolicyState.class);
+            } finally {
+                commandRunner.getTracer().end(span);
+            }
+            
+            android.util.Log.d("ScoringEngine", "Policy state parsed. Users: " + 
+                (state.userProfiles != null ? state.userProfiles.size() : 0));
+            
+            return state;
+            
+        } catch (Exception e) {
+            android.util.Log.e("ScoringEngine", "Error reading policy file", e);
+            throw new Exception("Failed to read policy file: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<String, String> readSettings(SettingsNamespace namespace) {
+        String path = SETTINGS_DIR + namespace.getFileName();
+        Map<String, String> settings = new HashMap<>();
+        try {
+            android.util.Log.d("ScoringEngine", "Reading settings file with root: " + path);
+            
+            PrivilegedCommandRunner.Result result = commandRunner.runAsRoot("cat " + path);
+            
+            if (result.exitCode != 0) {
+                android.util.Log.w("ScoringEngine", "Failed to read settings file: " + path + " (exit code: " + result.exitCode + ")");
+            } else {
+                long span = commandRunner.getTracer().begin("parse settings");
+                try {
+                    settings = SettingsXml.parse(new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(result.stdout), "UTF-8")));
+                } finally {
+                    commandRunner.getTracer().end(span);
+                }
+                android.util.Log.d("ScoringEngine", "Settings file read. Found " + settings.size() + " settings");
+            }
+            
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Error reading settings file: " + path, e);
+        }
+        return settings;
+    }
+
+    /**
+     * Reads the keys through the settings provider, which needs no root and
+     * no file parse. Falls back to the root file read if a key is hidden
+     * from apps.
+     */
+    @Override
+    public Map<String, String> readSettings(SettingsNamespace namespace, Collection<String> keys) {
+        ContentResolver resolver = context.getContentResolver();
+        Map<String, String> values = new HashMap<>();
+        try {
+            for (String key : keys) {
+                String value;
+                switch (namespace) {
+                    case SECURE:
+                        value = Settings.Secure.getString(resolver, key);
+                        break;
+                    case SYSTEM:
+                        value = Settings.System.getString(resolver, key);
+                        break;
+                    default:
+                        value = Settings.Global.getString(resolver, key);
+                        break;
+                }
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        } catch (SecurityException e) {
+            android.util.Log.w("ScoringEngine", "Settings provider refused a read, using the settings file", e);
+            return DeviceReader.super.readSettings(namespace, keys);
+        }
+    }
+
+    @Override
+    public Map<String, InstalledPackage> readInstalledPackages() {
+        Map<String, InstalledPackage> packages = new HashMap<>();
+        PackageManager pm = context.getPackageManager();
+        List<PackageInfo> infos = pm.getInstalledPackages(0);
+        for (PackageInfo info : infos) {
+            packages.put(info.packageName,
+                new InstalledPackage(info.packageName, info.versionName, info.getLongVersionCode(),
+                    info.applicationInfo != null ? info.applicationInfo.uid : null));
+        }
+        android.util.Log.d("ScoringEngine", "Package list read. Found " + packages.size() + " packages");
+        return packages;
+    }
+
+    @Override
+    public InstalledPackage readInstalledPackage(String packageName) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(packageName, 0);
+            return new InstalledPackage(info.packageName, info.versionName, info.getLongVersionCode(),
+                info.applicationInfo != null ? info.applicationInfo.uid : null);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, PackageState> readPackageStates(Collection<String> packages, Collection<String> opPackages) {
+        Map<String, PackageState> states = new HashMap<>();
+        if (packages.isEmpty()) {
+            return states;
+        }
+        Set<String> wanted = new HashSet<>(packages);
+        
+        // Without MATCH_DISABLED_COMPONENTS only enabled components are
+        // listed, which is exactly what is needed. A few packages, as when a
+        // broadcast marks them dirty, are cheaper to look up one by one than
+        // to list every package on the device with all its components.
+        List<PackageInfo> infos;
+        try {
+            PackageManager pm = context.getPackageManager();
+            if (wanted.size() <= MAX_PACKAGE_LOOKUPS) {
+                infos = new ArrayList<>(wanted.size());
+                for (String packageName : wanted) {
+                    try {
+                        infos.add(pm.getPackageInfo(packageName, PACKAGE_STATE_FLAGS));
+                    } catch (PackageManager.NameNotFoundException e) {
+                        // Not installed; it has no state
+                    }
+                }
+            } else {
+                infos = pm.getInstalledPackages(PACKAGE_STATE_FLAGS);
+            }
+        } catch (RuntimeException e) {
+            android.util.Log.w("ScoringEngine", "Error reading package permissions", e);
+            return null;
+        }
+        for (PackageInfo info : infos) {
+            if (!wanted.contains(info.packageName)) {
+                continue;
+            }
+            PackageState state = new PackageState(info.packageName);
+            if (info.requestedPermissions != null && info.requestedPermissionsFlags != null) {
+                for (int i = 0; i < info.requestedPermissions.length; i++) {
+                    if ((info.requestedPermissionsFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
+                        state.grantedPermissions.add(info.requestedPermissions[i]);
+                    }
+                }
+            }
+            addComponents(state, info.activities);
+            addComponents(state, info.receivers);
+            addComponents(state, info.services);
+            addComponents(state, info.providers);
+            states.put(info.packageName, state);
+        }
+        
+        readAppOps(states, opPackages);
+        return states;
+    }
+
+    private static void addComponents(PackageState state, ComponentInfo[] components) {
+        if (components != null) {
+            for (ComponentInfo component : components) {
+                state.enabledComponents.add(component.name);
+            }
+        }
+    }
+
+    /**
+     * Fills in app-op modes with one root shell. "cmd appops get" prints one
+     * "OP: mode; ..." line per op not in its default mode, with uid-wide modes
+     * prefixed by "Uid mode: "; the stricter of the two wins.
+     */
+    private void readAppOps(Map<String, PackageState> states, Collection<String> opPackages) {
+        StringBuilder script = new StringBuilder();
+        for (String pkg : opPackages) {
+            if (states.containsKey(pkg)) {
+                script.append("echo '#").append(pkg).append("'; cmd appops get ")
+                    .append(shellQuote(pkg)).append(" 2>/dev/null\n");
+            }
+        }
+        if (script.length() == 0) {
+            return;
+        }
+        script.append("true\n");
+        
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runScriptAsRoot(script.toString());
+            if (result.exitCode != 0) {
+                android.util.Log.w("ScoringEngine", "App-op scan failed (exit code: " + result.exitCode + ")");
+                return;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(result.stdout), "UTF-8"));
+            Map<String, String> ops = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    PackageState state = states.get(line.substring(1));
+                    ops = state != null ? new HashMap<String, String>() : null;
+                    if (state != null) {
+                        state.appOps = ops;
+                    }
+                    continue;
+                }
+                if (ops == null) {
+                    continue;
+                }
+                line = line.trim();
+                if (line.startsWith("Uid mode: ")) {
+                    line = line.substring("Uid mode: ".length());
+                }
+                int colon = line.indexOf(": ");
+                if (colon <= 0) {
+                    continue;
+                }
+                int end = line.indexOf(';', colon);
+                String op = line.substring(0, colon);
+                String mode = line.substring(colon + 2, end >= 0 ? end : line.length()).trim();
+                if (ops.containsKey(op) && !PackageState.isDeniedMode(mode)) {
+                    continue;  // keep a stricter mode already seen
+                }
+                ops.put(op, mode);
+            }
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Error reading app-ops", e);
+        }
+    }
+
+    @Override
+    public Set<String> findExistingFiles(Collection<String> paths) {
+        Set<String> existing = new HashSet<>();
+        if (paths.isEmpty()) {
+            return existing;
+        }
+        
+        // Test every path in one root shell instead of spawning su per file
+        StringBuilder script = new StringBuilder("for f in");
+        for (String path : paths) {
+            script.append(' ').append(shellQuote(path));
+        }
+        script.append("; do [ -e \"$f\" ] && echo \"$f\"; done; true\n");
+        
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runScriptAsRoot(script.toString());
+            if (result.exitCode == 0) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(result.stdout), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    existing.add(line);
+                }
+                return existing;
+            }
+            android.util.Log.e("ScoringEngine", "File existence batch failed (exit code: " + result.exitCode
+                + "): " + result.stderr);
+        } catch (Exception e) {
+            android.util.Log.e("ScoringEngine", "Error checking file existence", e);
+        }
+        // Without root, root-only files would look deleted
+        return null;
+    }
+
+    @Override
+    public Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache) {
+        Map<String, String> digests = new HashMap<>();
+        if (paths.isEmpty()) {
+            return digests;
+        }
+        List<String> ordered = new ArrayList<>(paths);
+        
+        // Stat every file in one root shell and only run sha256sum, which
+        // streams the file on the device, when the stat key differs from the
+        // one the cached digest was taken at
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < ordered.size(); i++) {
+            String cachedKey = cache.statKey(ordered.get(i));
+            script.append("f=").append(shellQuote(ordered.get(i)))
+                .append("; echo '#").append(i).append("'")
+                .append("; s=$(stat -c '%i:%s:%Y' \"$f\" 2>/dev/null) && { echo \"$s\"; [ \"$s\" = ")
+                .append(shellQuote(cachedKey != null ? cachedKey : ""))
+                .append(" ] || sha256sum \"$f\" 2>/dev/null; }\n");
+        }
+        script.append("true\n");
+        
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runScriptAsRoot(script.toString());
+            if (result.exitCode == 0) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(result.stdout), "UTF-8"));
+                int index = -1;
+                String statKey = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("#")) {
+                        index = Integer.parseInt(line.substring(1));
+                        statKey = null;
+                    } else if (index >= 0 && statKey == null) {
+                        statKey = line;
+                        String path = ordered.get(index);
+                        String cached = cache.get(path, statKey);
+                        // Exists; stays empty unless a cached or fresh digest turns up
+                        digests.put(path, cached != null ? cached : "");
+                    } else if (index >= 0 && line.length() >= 64) {
+                        String path = ordered.get(index);
+                        String digest = line.substring(0, 64).toLowerCase(Locale.ROOT);
+                        cache.put(path, statKey, digest);
+                        digests.put(path, digest);
+                    }
+                }
+                return digests;
+            }
+            android.util.Log.e("ScoringEngine", "File hashing failed (exit code: " + result.exitCode
+                + "): " + result.stderr);
+        } catch (Exception e) {
+            android.util.Log.e("ScoringEngine", "Error hashing files", e);
+        }
+        // Without root, root-only files would look deleted
+        return null;
+    }
+
+    @Override
+    public List<ProcessTable.RunningProcess> readProcesses(ProcessTable table) {
+        // Known processes are recognised from /proc/PID/stat, read with the
+        // shell's builtin read; only new ones cost a tr to read cmdline.
+        // Output is "=key" for known processes, else "key<TAB>comm<TAB>cmdline".
+        StringBuilder known = new StringBuilder(" ");
+        for (String key : table.keys()) {
+            known.append(key).append(' ');
+        }
+        String script = "known='" + known + "'; "
+            + "for d in /proc/[0-9]*; do p=${d#/proc/}; "
+            + "{ read -r st < $d/stat; } 2>/dev/null || continue; "
+            + "c=${st#*(}; c=${c%)*}; st=${st##*) }; set -- $st; k=\"$p:${20}\"; "
+            + "case \"$known\" in *\" $k \"*) echo \"=$k\";; "
+            + "*) printf '%s\\t%s\\t' \"$k\" \"$c\"; tr '\\0\\n' '  ' < $d/cmdline 2>/dev/null; echo;; esac; "
+            + "done; true\n";
+        
+        try {
+            // The known list grows with the process count, so it goes over stdin
+            PrivilegedCommandRunner.Result result = commandRunner.runScriptAsRoot(script);
+            if (result.exitCode != 0) {
+                android.util.Log.w("ScoringEngine", "Process scan failed (exit code: " + result.exitCode + ")");
+                return null;
+            }
+            Map<String, ProcessTable.RunningProcess> current = new HashMap<>();
+            int reused = 0;
+            long span = commandRunner.getTracer().begin("parse processes");
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(result.stdout), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("=")) {
+                        String key = line.substring(1);
+                        ProcessTable.RunningProcess process = table.get(key);
+                        if (process != null) {
+                            current.put(key, process);
+                            reused++;
+                        }
+                        continue;
+                    }
+                    int first = line.indexOf('\t');
+                    int second = first >= 0 ? line.indexOf('\t', first + 1) : -1;
+                    if (second < 0) {
+                        continue;
+                    }
+                    current.put(line.substring(0, first), new ProcessTable.RunningProcess(
+                        line.substring(first + 1, second), line.substring(second + 1).trim()));
+                }
+                table.update(current, reused);
+            } finally {
+                commandRunner.getTracer().end(span);
+            }
+            android.util.Log.d("ScoringEngine", "Process scan: " + current.size() + " processes, "
+                + reused + " reused");
+            return table.processes();
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Error scanning processes", e);
+            return null;
+        }
+    }
+
+    @Override
+    public List<ProcNet.Listener> readListeners() {
+        List<ProcNet.Listener> listeners = null;
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runAsRoot(ProcNet.SCRIPT);
+            if (result.exitCode == 0) {
+                long span = commandRunner.getTracer().begin("parse sockets");
+                try {
+                    listeners = ProcNet.parse(result.stdout);
+                } finally {
+                    commandRunner.getTracer().end(span);
+                }
+            } else {
+                android.util.Log.w("ScoringEngine", "Socket scan failed (exit code: " + result.exitCode + ")");
+            }
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Error scanning sockets", e);
+        }
+        if (listeners == null) {
+            // Apps may still read /proc/net before Android 10
+            listeners = ProcNet.parse(readProcNetLocally());
+        }
+        if (listeners != null) {
+            android.util.Log.d("ScoringEngine", "Socket scan: " + listeners.size() + " listeners");
+        }
+        return listeners;
+    }
+
+    private static byte[] readProcNetLocally() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (String table : new String[]{"tcp", "tcp6", "udp", "udp6"}) {
+            out.write('#');
+            out.write(table.getBytes(), 0, table.length());
+            out.write('\n');
+            try (FileInputStream in = new FileInputStream("/proc/net/" + table)) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public List<FileScan.Result> scanFiles(List<FileScan.Query> queries) {
+        List<FileScan.Result> results = new ArrayList<>(queries.size());
+        if (queries.isEmpty()) {
+            return results;
+        }
+        
+        // One root shell runs a pruned find per query; "#<index>" lines
+        // separate the listings and head enforces each query's limit
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < queries.size(); i++) {
+            FileScan.Query query = queries.get(i);
+            script.append("echo '#").append(i).append("'; find ").append(shellQuote(query.root))
+                .append(" -mindepth ").append(query.minDepth)
+                .append(" -maxdepth ").append(query.maxDepth);
+            if (query.nameGlob != null) {
+                script.append(" -name ").append(shellQuote(query.nameGlob));
+            }
+            script.append(" 2>/dev/null | head -n ").append(query.limit + 1).append('\n');
+        }
+        script.append("true\n");
+        
+        try {
+            PrivilegedCommandRunner.Result result = commandRunner.runScriptAsRoot(script.toString());
+            if (result.exitCode == 0) {
+                List<List<String>> listings = new ArrayList<>(queries.size());
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(result.stdout), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("#")) {
+                        listings.add(new ArrayList<String>());
+                    } else if (!listings.isEmpty() && !line.isEmpty()) {
+                        listings.get(listings.size() - 1).add(line);
+                    }
+                }
+                if (listings.size() == queries.size()) {
+                    for (int i = 0; i < queries.size(); i++) {
+                        results.add(FileScan.Result.of(listings.get(i), queries.get(i).limit));
+                    }
+                    return results;
+                }
+            }
+            android.util.Log.e("ScoringEngine", "File scan failed (exit code: " + result.exitCode
+                + "): " + result.stderr);
+        } catch (Exception e) {
+            android.util.Log.e("ScoringEngine", "Error scanning files", e);
+        }
+        // Without root, files in root-only directories would look deleted
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Boolean> readForensicsAnswers() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String answeredJson = prefs.getString(PREFS_ANSWERED, "{}");
+        Map<String, Boolean> answeredMap = new Gson().fromJson(answeredJson, Map.class);
+        return answeredMap != null ? answeredMap : new HashMap<String, Boolean>();
+    }
+
+    static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
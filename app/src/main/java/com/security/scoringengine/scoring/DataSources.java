@@ -0,0 +1,154 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-pass view of the device. Every source is fetched lazily the first time a
+ * check asks for it and then reused for the rest of the pass, so sources no
+ * check needs are never read at all.
+ */
+public class DataSources {
+    private static final String[] SETTINGS_SPANS = new String[SettingsNamespace.values().length];
+
+    static {
+        for (SettingsNamespace namespace : SettingsNamespace.values()) {
+            SETTINGS_SPANS[namespace.ordinal()] = "read " + namespace.getFileName();
+        }
+    }
+
+    private final Lazy<PolicyState> policyState;
+    private final Map<SettingsNamespace, Lazy<Map<String, String>>> settings;
+    private final Lazy<Map<String, InstalledPackage>> installedPackages;
+    private final Lazy<Map<String, PackageState>> packageStates;
+    private final Lazy<Set<String>> existingFiles;
+    private final Lazy<List<FileScan.Result>> fileScans;
+    private final Lazy<Map<String, String>> fileHashes;
+    private final Lazy<List<ProcessTable.RunningProcess>> processes;
+    private final Lazy<List<ProcNet.Listener>> listeners;
+    private final Lazy<Map<String, Boolean>> forensicsAnswers;
+
+    /**
+     * @param filePaths every path a check may ask about; they are tested in one
+     *                  batch the first time any of them is needed
+     * @param fileQueries directory scans for file rules, run together the first
+     *                    time any result is needed
+     * @param hashPaths   files whose contents are checked; hashed in one batch
+     *                    through {@code hashCache}
+     * @param processTable the previous process scan; this pass's scan replaces it
+     * @param statePackages packages whose permissions and components are checked
+     * @param opPackages    the subset whose app-ops are checked
+     * @param packageIndex  live package list used instead of reading one, or
+     *                      null to read it; loaded here if still empty
+     * @param tracer        records a span for each source fetch
+     */
+    public DataSources(final DeviceReader reader, Collection<String> filePaths,
+                       final List<FileScan.Query> fileQueries,
+                       final Collection<String> hashPaths, final FileHashCache hashCache,
+                       final ProcessTable processTable,
+                       final Collection<String> statePackages, final Collection<String> opPackages,
+                       final PackageIndex packageIndex, final Tracer tracer) {
+        final List<String> paths = filePaths != null
+            ? new ArrayList<>(filePaths) : Collections.<String>emptyList();
+
+        policyState = new Lazy<>(tracer, "read policy state", () -> {
+            try {
+                return reader.readPolicyState();
+            } catch (Exception e) {
+                android.util.Log.e("ScoringEngine", "Policy state unavailable for this pass", e);
+                return null;
+            }
+        });
+
+        settings = new EnumMap<>(SettingsNamespace.class);
+        for (final SettingsNamespace namespace : SettingsNamespace.values()) {
+            settings.put(namespace, new Lazy<>(tracer, SETTINGS_SPANS[namespace.ordinal()],
+                () -> reader.readSettings(namespace)));
+        }
+
+        installedPackages = new Lazy<>(tracer, "read installed packages", () -> {
+            Map<String, InstalledPackage> indexed = packageIndex != null ? packageIndex.get() : null;
+            if (indexed != null) {
+                return indexed;
+            }
+            Map<String, InstalledPackage> packages = reader.readInstalledPackages();
+            if (packageIndex != null) {
+                packageIndex.load(packages);
+            }
+            return packages;
+        });
+        packageStates = new Lazy<>(tracer, "read package states",
+            () -> reader.readPackageStates(statePackages, opPackages));
+        existingFiles = new Lazy<>(tracer, "find files", () -> reader.findExistingFiles(paths));
+        fileScans = new Lazy<>(tracer, "scan files", () -> reader.scanFiles(fileQueries));
+        fileHashes = new Lazy<>(tracer, "hash files", () -> reader.hashFiles(hashPaths, hashCache));
+        processes = new Lazy<>(tracer, "read processes", () -> reader.readProcesses(processTable));
+        listeners = new Lazy<>(tracer, "read listeners", reader::readListeners);
+        forensicsAnswers = new Lazy<>(tracer, "read forensics answers", reader::readForensicsAnswers);
+    }
+
+    /** Returns the parsed policy state, or null if it could not be read. */
+    public PolicyState policyState() {
+        return policyState.get();
+    }
+
+    public Map<String, String> settings(SettingsNamespace namespace) {
+        return settings.get(namespace).get();
+    }
+
+    public Map<String, InstalledPackage> installedPackages() {
+        return installedPackages.get();
+    }
+
+    /**
+     * Returns the state of each configured package that is installed, or null
+     * if it could not be read.
+     */
+    public Map<String, PackageState> packageStates() {
+        return packageStates.get();
+    }
+
+    /** Returns whether {@code path} exists, or null if files could not be tested. */
+    public Boolean fileExists(String path) {
+        Set<String> existing = existingFiles.get();
+        return existing != null ? existing.contains(path) : null;
+    }
+
+    /** Returns the listing for the query at {@code index}, or null if files could not be scanned. */
+    public FileScan.Result fileScan(int index) {
+        List<FileScan.Result> scans = fileScans.get();
+        return scans != null ? scans.get(index) : null;
+    }
+
+    /**
+     * Returns the SHA-256 hex of {@code path}, an empty string if it could not
+     * be hashed, or null if it does not exist.
+     */
+    public String fileHash(String path) {
+        Map<String, String> hashes = fileHashes.get();
+        return hashes != null ? hashes.get(path) : "";
+    }
+
+    /** Returns the running processes, or null if they could not be listed. */
+    public List<ProcessTable.RunningProcess> processes() {
+        return processes.get();
+    }
+
+    /** Returns the listening sockets, or null if they could not be read. */
+    public List<ProcNet.Listener> listeners() {
+        return listeners.get();
+    }
+
+    public Map<String, Boolean> forensicsAnswers() {
+        return forensicsAnswers.get();
+    }
+}
@@ -0,0 +1,93 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Raw access to the device state the scoring checks read. Each call does real
+ * I/O; callers go through {@link DataSources} so every source is fetched at
+ * most once per pass.
+ */
+public interface DeviceReader {
+    PolicyState readPolicyState() throws Exception;
+
+    Map<String, String> readSettings(SettingsNamespace namespace);
+
+    /**
+     * Reads only {@code keys} of {@code namespace}, for rescoring a few
+     * changed settings. Keys that are not set are left out.
+     */
+    default Map<String, String> readSettings(SettingsNamespace namespace, Collection<String> keys) {
+        Map<String, String> all = readSettings(namespace);
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = all.get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    Map<String, InstalledPackage> readInstalledPackages();
+
+    /** Reads one package, for rescoring after it changed; null if it is not installed. */
+    default InstalledPackage readInstalledPackage(String packageName) {
+        return readInstalledPackages().get(packageName);
+    }
+
+    /**
+     * Reads permission grants and enabled components of {@code packages} from
+     * one package manager snapshot, plus app-op modes for {@code opPackages}.
+     * Packages that are not installed are left out. Returns null if the
+     * snapshot could not be taken.
+     */
+    Map<String, PackageState> readPackageStates(Collection<String> packages, Collection<String> opPackages);
+
+    /**
+     * Returns the subset of {@code paths} that currently exist, or null if
+     * they could not be tested, since a guess from what this process can see
+     * would wrongly show root-only files as deleted.
+     */
+    Set<String> findExistingFiles(Collection<String> paths);
+
+    /**
+     * Returns the SHA-256 of each path that exists, as lowercase hex, reusing
+     * {@code cache} for files whose inode, size and mtime are unchanged. A file
+     * that exists but could not be hashed maps to an empty string. Returns
+     * null if the files could not be read at all, since hashing only what
+     * this process can see would wrongly show root-only files as deleted.
+     */
+    Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache);
+
+    /**
+     * Scans the running processes in one pass over /proc, reusing entries in
+     * {@code table} whose PID and start time are unchanged, and updates the
+     * table. Returns null if the scan failed, since an empty list would
+     * wrongly show every forbidden process as stopped.
+     */
+    List<ProcessTable.RunningProcess> readProcesses(ProcessTable table);
+
+    /**
+     * Reads the listening TCP and UDP sockets in one pass over /proc/net.
+     * Returns null if the tables could not be read, since an empty list would
+     * wrongly show every forbidden listener as closed.
+     */
+    List<ProcNet.Listener> readListeners();
+
+    /**
+     * Runs every query in one traversal; results are in query order. Returns
+     * null if the scan failed, since listings of only what this process can
+     * see would wrongly show files in root-only directories as deleted.
+     */
+    List<FileScan.Result> scanFiles(List<FileScan.Query> queries);
+
+    Map<String, Boolean> readForensicsAnswers();
+}
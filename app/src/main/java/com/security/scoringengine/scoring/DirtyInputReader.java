@@ -0,0 +1,200 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A reader that only reads the inputs in a dirty set, for
+ * {@link ScoringEngine#recalculate}. Everything else reads as absent, so
+ * only the outcomes of checks on dirty inputs are meaningful.
+ */
+final class DirtyInputReader implements DeviceReader {
+    private final DeviceReader reader;
+    private final Set<InputKey.Kind> kinds = EnumSet.noneOf(InputKey.Kind.class);
+    private final Map<SettingsNamespace, List<String>> settings = new EnumMap<>(SettingsNamespace.class);
+    private final Set<String> files = new HashSet<>();
+    private final Set<String> packages = new HashSet<>();
+
+    DirtyInputReader(DeviceReader reader, Collection<InputKey> dirty) {
+        this.reader = reader;
+        for (InputKey key : dirty) {
+            kinds.add(key.kind);
+            switch (key.kind) {
+                case SETTING:
+                    List<String> keys = settings.get(key.namespace);
+                    if (keys == null) {
+                        keys = new ArrayList<>();
+                        settings.put(key.namespace, keys);
+                    }
+                    keys.add(key.name);
+                    break;
+                case FILE:
+                    files.add(key.name);
+                    break;
+                case PACKAGE:
+                    packages.add(key.name);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    boolean has(InputKey.Kind kind) {
+        return kinds.contains(kind);
+    }
+
+    boolean hasSettings(SettingsNamespace namespace) {
+        return settings.containsKey(namespace);
+    }
+
+    Set<String> getPackages() {
+        return packages;
+    }
+
+    /** Whether {@code path} is dirty itself or lies below a dirty directory. */
+    boolean isDirtyPath(String path) {
+        for (String file : files) {
+            if (isSameOrBelow(path, file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether {@code path} is {@code root} or lies below it. */
+    static boolean isSameOrBelow(String path, String root) {
+        String prefix = root.endsWith("/") ? root : root + "/";
+        return path.equals(root) || path.startsWith(prefix);
+    }
+
+    @Override
+    public PolicyState readPolicyState() throws Exception {
+        return has(InputKey.Kind.POLICY) ? reader.readPolicyState() : null;
+    }
+
+    @Override
+    public Map<String, String> readSettings(SettingsNamespace namespace) {
+        List<String> keys = settings.get(namespace);
+        return keys != null ? reader.readSettings(namespace, keys) : new HashMap<String, String>();
+    }
+
+    @Override
+    public Map<String, InstalledPackage> readInstalledPackages() {
+        Map<String, InstalledPackage> installed = new HashMap<>();
+        for (String packageName : packages) {
+            InstalledPackage info = reader.readInstalledPackage(packageName);
+            if (info != null) {
+                installed.put(packageName, info);
+            }
+        }
+        return installed;
+    }
+
+    @Override
+    public InstalledPackage readInstalledPackage(String packageName) {
+        return packages.contains(packageName) ? reader.readInstalledPackage(packageName) : null;
+    }
+
+    @Override
+    public Map<String, PackageState> readPackageStates(Collection<String> packageNames, Collection<String> opPackages) {
+        List<String> wanted = new ArrayList<>();
+        for (String packageName : packageNames) {
+            if (packages.contains(packageName)) {
+                wanted.add(packageName);
+            }
+        }
+        List<String> ops = new ArrayList<>();
+        for (String packageName : opPackages) {
+            if (packages.contains(packageName)) {
+                ops.add(packageName);
+            }
+        }
+        return wanted.isEmpty() ? new HashMap<String, PackageState>() : reader.readPackageStates(wanted, ops);
+    }
+
+    @Override
+    public Set<String> findExistingFiles(Collection<String> paths) {
+        List<String> wanted = new ArrayList<>();
+        for (String path : paths) {
+            if (isDirtyPath(path)) {
+                wanted.add(path);
+            }
+        }
+        return wanted.isEmpty() ? Collections.<String>emptySet() : reader.findExistingFiles(wanted);
+    }
+
+    @Override
+    public Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache) {
+        List<String> wanted = new ArrayList<>();
+        for (String path : paths) {
+            if (isDirtyPath(path)) {
+                wanted.add(path);
+            }
+        }
+        return wanted.isEmpty() ? new HashMap<String, String>() : reader.hashFiles(wanted, cache);
+    }
+
+    @Override
+    public List<FileScan.Result> scanFiles(List<FileScan.Query> queries) {
+        // Queries keep their positions; only those under a dirty path are run
+        List<FileScan.Query> wanted = new ArrayList<>();
+        for (FileScan.Query query : queries) {
+            if (isDirtyPath(query.root) || coversDirtyPath(query.root)) {
+                wanted.add(query);
+            }
+        }
+        List<FileScan.Result> scanned = wanted.isEmpty()
+            ? Collections.<FileScan.Result>emptyList() : reader.scanFiles(wanted);
+        if (scanned == null) {
+            return null;
+        }
+        List<FileScan.Result> results = new ArrayList<>(queries.size());
+        int next = 0;
+        for (FileScan.Query query : queries) {
+            if (next < wanted.size() && wanted.get(next) == query) {
+                results.add(scanned.get(next++));
+            } else {
+                results.add(FileScan.Result.of(Collections.<String>emptyList(), query.limit));
+            }
+        }
+        return results;
+    }
+
+    /** Whether a dirty path lies below {@code root}. */
+    boolean coversDirtyPath(String root) {
+        for (String file : files) {
+            if (isSameOrBelow(file, root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<ProcessTable.RunningProcess> readProcesses(ProcessTable table) {
+        return null;
+    }
+
+    @Override
+    public List<ProcNet.Listener> readListeners() {
+        return null;
+    }
+
+    @Override
+    public Map<String, Boolean> readForensicsAnswers() {
+        return has(InputKey.Kind.FORENSICS) ? reader.readForensicsAnswers() : new HashMap<String, Boolean>();
+    }
+}
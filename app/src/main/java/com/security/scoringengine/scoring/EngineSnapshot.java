@@ -0,0 +1,165 @@
+package com.security.scoringengine.scoring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Engine state persisted between service restarts: the last result, the
+ * additions seen so far and the stat keys and digests of hashed files.
+ *
+ * The file is a small big-endian record ending in a CRC32 of everything
+ * before it. It is replaced atomically and read through a memory map, so a
+ * restarting service can show the last score before its first pass runs.
+ * A file with another magic, version or a bad checksum is ignored.
+ */
+public final class EngineSnapshot {
+    private static final int MAGIC = 0x5345534E;  // "SESN"
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Fingerprint of the checks the result was scored against. */
+    public long checksFingerprint;
+    public int currentPoints;
+    public int maxPoints;
+    public BitSet satisfied = new BitSet();
+    public List<String> additionsSeen = new ArrayList<>();
+    public List<String> hashPaths = new ArrayList<>();
+    public List<String> hashStatKeys = new ArrayList<>();
+    public List<String> hashDigests = new ArrayList<>();
+
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(checksFingerprint);
+        out.writeInt(currentPoints);
+        out.writeInt(maxPoints);
+        long[] words = satisfied.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+        writeStrings(out, additionsSeen);
+        out.writeInt(hashPaths.size());
+        for (int i = 0; i < hashPaths.size(); i++) {
+            writeString(out, hashPaths.get(i));
+            writeString(out, hashStatKeys.get(i));
+            writeString(out, hashDigests.get(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /** Returns the saved snapshot, or null if there is none or it is unusable. */
+    public static EngineSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 16 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                android.util.Log.w("ScoringEngine", "Ignoring engine snapshot with unknown format");
+                return null;
+            }
+            int bodyLength = (int) size - 8;
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.limit(bodyLength);
+            crc.update(body);
+            if (crc.getValue() != buffer.getLong(bodyLength)) {
+                android.util.Log.w("ScoringEngine", "Ignoring corrupt engine snapshot");
+                return null;
+            }
+
+            buffer.position(8);
+            buffer.limit(bodyLength);
+            EngineSnapshot snapshot = new EngineSnapshot();
+            snapshot.checksFingerprint = buffer.getLong();
+            snapshot.currentPoints = buffer.getInt();
+            snapshot.maxPoints = buffer.getInt();
+            long[] words = new long[checkedCount(buffer, 8)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = buffer.getLong();
+            }
+            snapshot.satisfied = BitSet.valueOf(words);
+            snapshot.additionsSeen = readStrings(buffer);
+            int hashes = checkedCount(buffer, 12);
+            for (int i = 0; i < hashes; i++) {
+                snapshot.hashPaths.add(readString(buffer));
+                snapshot.hashStatKeys.add(readString(buffer));
+                snapshot.hashDigests.add(readString(buffer));
+            }
+            return snapshot;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            android.util.Log.w("ScoringEngine", "Could not read engine snapshot", e);
+            return null;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = checkedCount(buffer, 4);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] encoded = new byte[checkedCount(buffer, 1)];
+        buffer.get(encoded);
+        return new String(encoded, UTF_8);
+    }
+
+    /** Reads a count and rejects it if the rest of the buffer cannot hold it. */
+    private static int checkedCount(ByteBuffer buffer, int minBytesEach) {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad count " + count + " in engine snapshot");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,75 @@
+package com.security.scoringengine.scoring;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SHA-256 digests of watched files, keyed by path and a stat key built from
+ * inode, size and mtime. A file whose stat key is unchanged since it was last
+ * hashed is not read again.
+ */
+public final class FileHashCache {
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    private static final class Entry {
+        final String statKey;
+        final String digest;
+
+        Entry(String statKey, String digest) {
+            this.statKey = statKey;
+            this.digest = digest;
+        }
+    }
+
+    /** Returns the stat key the cached digest for {@code path} was taken at, or null. */
+    public synchronized String statKey(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.statKey : null;
+    }
+
+    /** Returns the cached digest if the file still has {@code statKey}, else null. */
+    public synchronized String get(String path, String statKey) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.statKey.equals(statKey)) {
+            hits++;
+            return entry.digest;
+        }
+        misses++;
+        return null;
+    }
+
+    public synchronized void put(String path, String statKey, String digest) {
+        entries.put(path, new Entry(statKey, digest));
+    }
+
+    /** Returns the cached digest for {@code path} without checking its stat key, or null. */
+    public synchronized String digest(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.digest : null;
+    }
+
+    public synchronized List<String> paths() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /** Drops entries for files no check watches any more. */
+    public synchronized void retainAll(Collection<String> paths) {
+        Set<String> keep = new HashSet<>(paths);
+        entries.keySet().retainAll(keep);
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+}
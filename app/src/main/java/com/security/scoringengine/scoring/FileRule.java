@@ -0,0 +1,151 @@
+package com.security.scoringengine.scoring;
+
+import java.util.regex.Pattern;
+
+/**
+ * A {@code fileDeletions} entry that names more than one path: a glob such as
+ * {@code /sdcard/Download/*.apk} or {@code /sdcard/**}{@code /*.tmp}, or a
+ * directory rule ending in {@code /} that is satisfied once nothing is left
+ * under it. {@code *} and {@code ?} stay within one path segment,
+ * {@code **} spans any number of segments and {@code [...]} is a character
+ * class.
+ *
+ * Each rule is turned into a {@link FileScan.Query} rooted at its longest
+ * literal directory, so the traversal never leaves the part of the tree the
+ * rule can match.
+ */
+public final class FileRule {
+    private final String spec;
+    private final boolean directoryRule;
+    private final String root;
+    private final int minDepth;
+    // -1 when the rule contains ** and is bounded only by the scan limits
+    private final int maxDepth;
+    private final String nameGlob;
+    private final Pattern pathPattern;
+
+    private FileRule(String spec, boolean directoryRule, String root, int minDepth, int maxDepth,
+                     String nameGlob, Pattern pathPattern) {
+        this.spec = spec;
+        this.directoryRule = directoryRule;
+        this.root = root;
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+        this.nameGlob = nameGlob;
+        this.pathPattern = pathPattern;
+    }
+
+    /** True if {@code spec} is a glob or directory rule rather than an exact path. */
+    public static boolean isRule(String spec) {
+        return spec.length() > 1 && (spec.endsWith("/") || hasGlob(spec));
+    }
+
+    /** @throws IllegalArgumentException if the rule is not absolute or not a valid glob */
+    public static FileRule parse(String spec) {
+        if (!spec.startsWith("/")) {
+            throw new IllegalArgumentException("File rule must be an absolute path: " + spec);
+        }
+        if (spec.endsWith("/") && !hasGlob(spec)) {
+            String dir = spec.substring(0, spec.length() - 1);
+            return new FileRule(spec, true, dir, 1, 1, null,
+                Pattern.compile(Pattern.quote(dir) + "/.+"));
+        }
+
+        String[] segments = spec.substring(1).split("/", -1);
+        int literal = 0;
+        while (literal < segments.length - 1 && !hasGlob(segments[literal])) {
+            literal++;
+        }
+        StringBuilder rootPath = new StringBuilder();
+        for (int i = 0; i < literal; i++) {
+            rootPath.append('/').append(segments[i]);
+        }
+
+        int remaining = segments.length - literal;
+        boolean recursive = false;
+        StringBuilder regex = new StringBuilder(Pattern.quote(rootPath.toString()));
+        for (int i = literal; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Empty path segment in file rule: " + spec);
+            }
+            if (segment.equals("**")) {
+                recursive = true;
+                // Zero or more directories; a trailing ** matches anything below
+                regex.append(i == segments.length - 1 ? "/.+" : "(?:/[^/]+)*");
+            } else if (segment.contains("**")) {
+                throw new IllegalArgumentException("** must be a whole path segment: " + spec);
+            } else {
+                regex.append('/').append(globToRegex(segment, spec));
+            }
+        }
+
+        String last = segments[segments.length - 1];
+        return new FileRule(spec, false, rootPath.length() > 0 ? rootPath.toString() : "/",
+            recursive ? 1 : remaining, recursive ? -1 : remaining,
+            last.equals("**") ? null : last, Pattern.compile(regex.toString()));
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public boolean isDirectoryRule() {
+        return directoryRule;
+    }
+
+    public boolean matches(String path) {
+        return pathPattern.matcher(path).matches();
+    }
+
+    /**
+     * Builds the scan for this rule. A directory rule only needs to know
+     * whether anything is left, so it asks for a single entry.
+     */
+    public FileScan.Query toQuery(int depthLimit, int entryLimit) {
+        int depth = maxDepth < 0 ? depthLimit : Math.min(maxDepth, depthLimit);
+        return new FileScan.Query(root, Math.min(minDepth, depth), depth, nameGlob,
+            directoryRule ? 1 : entryLimit);
+    }
+
+    static boolean hasGlob(String value) {
+        return value.indexOf('*') >= 0 || value.indexOf('?') >= 0 || value.indexOf('[') >= 0;
+    }
+
+    /** Translates one path segment of glob syntax into a regex. */
+    static String globToRegex(String glob, String spec) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated [ in file rule: " + spec);
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.security.scoringengine.scoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Bounded directory listings used to evaluate {@link FileRule}s. */
+public final class FileScan {
+    private FileScan() {
+    }
+
+    /**
+     * Lists entries below {@code root} between {@code minDepth} and
+     * {@code maxDepth} levels down whose name matches {@code nameGlob} (any
+     * name when null), stopping after {@code limit} entries.
+     */
+    public static final class Query {
+        public final String root;
+        public final int minDepth;
+        public final int maxDepth;
+        public final String nameGlob;
+        public final int limit;
+        private final Pattern namePattern;
+
+        public Query(String root, int minDepth, int maxDepth, String nameGlob, int limit) {
+            this.root = root;
+            this.minDepth = minDepth;
+            this.maxDepth = maxDepth;
+            this.nameGlob = nameGlob;
+            this.limit = limit;
+            this.namePattern = nameGlob != null
+                ? Pattern.compile(FileRule.globToRegex(nameGlob, nameGlob)) : null;
+        }
+
+        public boolean acceptsName(String name) {
+            return namePattern == null || namePattern.matcher(name).matches();
+        }
+    }
+
+    public static final class Result {
+        public final List<String> paths;
+        /** True when the listing stopped at the limit, so absence proves nothing. */
+        public final boolean truncated;
+
+        public Result(List<String> paths, boolean truncated) {
+            this.paths = paths;
+            this.truncated = truncated;
+        }
+
+        /** Trims a listing read with one entry past the limit. */
+        public static Result of(List<String> paths, int limit) {
+            if (paths.size() > limit) {
+                return new Result(new ArrayList<>(paths.subList(0, limit)), true);
+            }
+            return new Result(paths, false);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.security.scoringengine.scoring;
+
+/**
+ * One piece of device state that checks read, for telling
+ * {@link ScoringEngine#recalculate} what changed: a setting, a file, a
+ * package, a policy field or a forensics answer.
+ */
+public final class InputKey {
+    public enum Kind {
+        SETTING,
+        FILE,
+        PACKAGE,
+        POLICY,
+        FORENSICS
+    }
+
+    public final Kind kind;
+    // Only set for settings
+    public final SettingsNamespace namespace;
+    public final String name;
+
+    private InputKey(Kind kind, SettingsNamespace namespace, String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Input key name is required");
+        }
+        this.kind = kind;
+        this.namespace = namespace;
+        this.name = name;
+    }
+
+    public static InputKey setting(SettingsNamespace namespace, String key) {
+        if (namespace == null) {
+            throw new IllegalArgumentException("Settings namespace is required");
+        }
+        return new InputKey(Kind.SETTING, namespace, key);
+    }
+
+    /** A file or directory; a directory also stands for everything below it. */
+    public static InputKey file(String path) {
+        return new InputKey(Kind.FILE, null, path);
+    }
+
+    public static InputKey forPackage(String packageName) {
+        return new InputKey(Kind.PACKAGE, null, packageName);
+    }
+
+    /**
+     * A field of the policy state, named by its path in policy_state.json,
+     * such as {@code devicePolicies.screenCaptureDisabled} or
+     * {@code userProfiles}.
+     */
+    public static InputKey policy(String field) {
+        return new InputKey(Kind.POLICY, null, field);
+    }
+
+    public static InputKey forensics(String questionId) {
+        return new InputKey(Kind.FORENSICS, null, questionId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InputKey)) {
+            return false;
+        }
+        InputKey other = (InputKey) o;
+        return kind == other.kind && namespace == other.namespace && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return (kind.hashCode() * 31 + (namespace != null ? namespace.hashCode() : 0)) * 31 + name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return namespace != null ? kind + " " + namespace + "/" + name : kind + " " + name;
+    }
+}
@@ -0,0 +1,39 @@
+package com.security.scoringengine.scoring;
+
+import java.util.function.Supplier;
+
+/**
+ * Memoising supplier. The loader runs on the first {@link #get()} only; a pass
+ * is scored on a single thread so no locking is done.
+ */
+final class Lazy<T> implements Supplier<T> {
+    private Supplier<T> loader;
+    private T value;
+    private final Tracer tracer;
+    private final String spanName;
+
+    /** Records the load as a span named {@code spanName}. */
+    Lazy(Tracer tracer, String spanName, Supplier<T> loader) {
+        this.tracer = tracer;
+        this.spanName = spanName;
+        this.loader = loader;
+    }
+
+    @Override
+    public T get() {
+        if (loader != null) {
+            long span = tracer.begin(spanName);
+            try {
+                value = loader.get();
+            } finally {
+                tracer.end(span);
+            }
+            loader = null;
+        }
+        return value;
+    }
+
+    boolean isLoaded() {
+        return loader == null;
+    }
+}
@@ -0,0 +1,131 @@
+package com.security.scoringengine.scoring;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code networkListeners} entry: {@code proto:port}, {@code proto:address:port}
+ * or either followed by {@code @package}. {@code proto} is {@code tcp} or
+ * {@code udp} and covers both IPv4 and IPv6; IPv6 addresses are written in
+ * brackets. Without an address, or with {@code *}, any bind address matches.
+ * {@code 0.0.0.0} and {@code [::]} both mean "all interfaces" and match each
+ * other, since an IPv6 wildcard socket also accepts IPv4 connections.
+ */
+public final class ListenerRule {
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6 = Pattern.compile("[0-9A-Fa-f:.]+");
+
+    private final String spec;
+    private final boolean udp;
+    // Null when any bind address matches
+    private final byte[] address;
+    private final boolean wildcard;
+    private final int port;
+    private final String owner;
+
+    private ListenerRule(String spec, boolean udp, byte[] address, int port, String owner) {
+        this.spec = spec;
+        this.udp = udp;
+        this.address = address;
+        this.wildcard = address != null && isZero(address);
+        this.port = port;
+        this.owner = owner;
+    }
+
+    /** @throws IllegalArgumentException if the entry is malformed */
+    public static ListenerRule parse(String spec) {
+        String rest = spec;
+        String owner = null;
+        int at = rest.indexOf('@');
+        if (at >= 0) {
+            owner = rest.substring(at + 1);
+            rest = rest.substring(0, at);
+            if (owner.isEmpty()) {
+                throw new IllegalArgumentException("Empty package after @: " + spec);
+            }
+        }
+
+        int colon = rest.indexOf(':');
+        int lastColon = rest.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected proto:port: " + spec);
+        }
+        String proto = rest.substring(0, colon);
+        if (!proto.equals("tcp") && !proto.equals("udp")) {
+            throw new IllegalArgumentException("Protocol must be tcp or udp: " + spec);
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(rest.substring(lastColon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port: " + spec);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Port out of range: " + spec);
+        }
+
+        byte[] address = null;
+        if (lastColon > colon) {
+            String host = rest.substring(colon + 1, lastColon);
+            if (!host.equals("*")) {
+                address = parseAddress(host, spec);
+            }
+        }
+        return new ListenerRule(spec, proto.equals("udp"), address, port, owner);
+    }
+
+    /** Accepts only literals so parsing never does a DNS lookup. */
+    private static byte[] parseAddress(String host, String spec) {
+        boolean bracketed = host.startsWith("[") && host.endsWith("]");
+        String literal = bracketed ? host.substring(1, host.length() - 1) : host;
+        if (bracketed ? !IPV6.matcher(literal).matches() || literal.indexOf(':') < 0
+                : !IPV4.matcher(literal).matches()) {
+            throw new IllegalArgumentException("Address must be an IPv4 literal or a bracketed IPv6 literal: " + spec);
+        }
+        try {
+            // Java already reduces IPv4-mapped IPv6 literals to 4 bytes
+            return InetAddress.getByName(literal).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid address: " + spec);
+        }
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public boolean hasOwner() {
+        return owner != null;
+    }
+
+    /**
+     * True if {@code listener} matches. {@code owners} are the packages that
+     * share the listener's uid, or null if they are unknown; a rule naming a
+     * package never matches an unknown owner.
+     */
+    public boolean matches(ProcNet.Listener listener, Collection<String> owners) {
+        if (listener.udp != udp || listener.port != port) {
+            return false;
+        }
+        if (address != null) {
+            boolean same = wildcard ? listener.isWildcard() : Arrays.equals(address, listener.address);
+            if (!same) {
+                return false;
+            }
+        }
+        return owner == null || (owners != null && owners.contains(owner));
+    }
+
+    private static boolean isZero(byte[] address) {
+        for (byte b : address) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
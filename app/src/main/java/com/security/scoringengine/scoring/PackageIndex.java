@@ -0,0 +1,54 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.InstalledPackage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Installed packages kept current from package broadcasts, so passes do not
+ * list every package again. The first pass that needs packages loads it;
+ * after that only {@link #update} changes it. Each change replaces the whole
+ * map, so a map handed to a pass never changes under it.
+ *
+ * Only use one where something feeds it every add, remove and replace;
+ * otherwise it goes stale.
+ */
+public final class PackageIndex {
+    private volatile Map<String, InstalledPackage> packages;
+
+    /** Returns the indexed packages, or null until {@link #load} is called. */
+    public Map<String, InstalledPackage> get() {
+        return packages;
+    }
+
+    public void load(Map<String, InstalledPackage> installed) {
+        if (installed != null) {
+            packages = Collections.unmodifiableMap(new HashMap<>(installed));
+        }
+    }
+
+    /**
+     * Records {@code info} for {@code packageName}, or its removal when null.
+     * Ignored until the index is loaded, since the load will see it anyway.
+     */
+    public void update(String packageName, InstalledPackage info) {
+        Map<String, InstalledPackage> current = packages;
+        if (current == null) {
+            return;
+        }
+        Map<String, InstalledPackage> updated = new HashMap<>(current);
+        if (info != null) {
+            updated.put(packageName, info);
+        } else {
+            updated.remove(packageName);
+        }
+        packages = Collections.unmodifiableMap(updated);
+    }
+
+    /** Drops the index, so the next pass lists every package again. */
+    public void invalidate() {
+        packages = null;
+    }
+}
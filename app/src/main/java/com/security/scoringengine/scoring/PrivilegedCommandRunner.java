@@ -0,0 +1,282 @@
+package com.security.scoringengine.scoring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs shell commands through su with a deadline. Both output streams are
+ * drained on their own threads so a chatty stderr cannot block the command,
+ * and a command that overruns its deadline (a pending su prompt, a hung
+ * shell) is destroyed and retried. Processes that survive being killed are
+ * counted as leaked.
+ */
+public class PrivilegedCommandRunner {
+    private static final String TAG = "ScoringEngine";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long KILL_GRACE_MS = 1000;
+
+    public static final long DEFAULT_TIMEOUT_MS = 15000;
+    public static final int DEFAULT_ATTEMPTS = 2;
+
+    private final long timeoutMs;
+    private final int attempts;
+    private final ExecutorService drainers;
+    private volatile Tracer tracer = Tracer.DISABLED;
+
+    private final AtomicInteger commands = new AtomicInteger();
+    private final AtomicInteger timeouts = new AtomicInteger();
+    // Processes still alive after destroyForcibly(); pruned when they exit
+    private final List<Process> leaked = new ArrayList<>();
+
+    public PrivilegedCommandRunner() {
+        this(DEFAULT_TIMEOUT_MS, DEFAULT_ATTEMPTS);
+    }
+
+    public PrivilegedCommandRunner(long timeoutMs, int attempts) {
+        this.timeoutMs = timeoutMs;
+        this.attempts = Math.max(1, attempts);
+        this.drainers = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "su-drain-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static class Result {
+        public final int exitCode;
+        public final byte[] stdout;
+        public final String stderr;
+
+        Result(int exitCode, byte[] stdout, String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public String stdoutText() {
+            return new String(stdout, UTF_8);
+        }
+    }
+
+    /** Thrown when every attempt at a command ran past its deadline. */
+    public static class CommandTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CommandTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /** Records every command, retries included, as one span. */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer != null ? tracer : Tracer.DISABLED;
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /** Runs {@code script} with {@code su -c}. */
+    public Result runAsRoot(String script) throws IOException, InterruptedException {
+        return run(new String[]{"su", "-c", script});
+    }
+
+    /**
+     * Runs {@code script} in a root shell that reads it from stdin. Unlike
+     * {@link #runAsRoot}, the script is not one exec argument, so it is not
+     * capped at the kernel's 128 KiB per-argument limit; use this for
+     * scripts that grow with the config.
+     */
+    public Result runScriptAsRoot(String script) throws IOException, InterruptedException {
+        // The shell reads the whole group before running it, so commands in
+        // the script cannot swallow the rest of it from their inherited stdin
+        return run(new String[]{"su"}, ("{\n" + script + "\n} </dev/null\n").getBytes(UTF_8));
+    }
+
+    /**
+     * Runs {@code command}, retrying only when an attempt times out. A non-zero
+     * exit code is returned as a result, not retried.
+     */
+    public Result run(String[] command) throws IOException, InterruptedException {
+        return run(command, null);
+    }
+
+    /** Like {@link #run(String[])}, writing {@code stdin} to the command's input. */
+    public Result run(String[] command, byte[] stdin) throws IOException, InterruptedException {
+        commands.incrementAndGet();
+        Tracer tracer = this.tracer;
+        long span = tracer.begin("su");
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Result result = runOnce(command, stdin);
+                if (result != null) {
+                    return result;
+                }
+                timeouts.incrementAndGet();
+                android.util.Log.w(TAG, "Privileged command timed out after " + timeoutMs + " ms (attempt "
+                    + attempt + " of " + attempts + ")");
+                if (attempt >= attempts) {
+                    throw new CommandTimeoutException("Command timed out " + attempts + " times");
+                }
+            }
+        } finally {
+            tracer.end(span);
+        }
+    }
+
+    /** Returns null on timeout. */
+    private Result runOnce(String[] command, byte[] stdin) throws IOException, InterruptedException {
+        Process process = Runtime.getRuntime().exec(command);
+        Future<byte[]> stdout = drainers.submit(new Drain(process.getInputStream()));
+        Future<byte[]> stderr = drainers.submit(new Drain(process.getErrorStream()));
+        // Fed on its own thread so a command that stops reading cannot block past the deadline
+        Future<byte[]> input = null;
+        if (stdin != null) {
+            input = drainers.submit(new Feed(process.getOutputStream(), stdin));
+        } else {
+            closeQuietly(process.getOutputStream());
+        }
+
+        boolean finished = false;
+        try {
+            finished = process.waitFor(timeoutMs, TimeUnit.MILLISECONDS);
+            if (!finished) {
+                return null;
+            }
+            if (input != null) {
+                // A shell that exited before reading all of its script ran only part of it
+                get(input);
+            }
+            return new Result(process.exitValue(), get(stdout), new String(get(stderr), UTF_8));
+        } finally {
+            if (!finished) {
+                kill(process);
+            }
+            if (input != null) {
+                input.cancel(true);
+                closeQuietly(process.getOutputStream());
+            }
+            stdout.cancel(true);
+            stderr.cancel(true);
+            closeQuietly(process.getInputStream());
+            closeQuietly(process.getErrorStream());
+        }
+    }
+
+    private void kill(Process process) throws InterruptedException {
+        process.destroy();
+        if (process.waitFor(KILL_GRACE_MS, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        process.destroyForcibly();
+        if (!process.waitFor(KILL_GRACE_MS, TimeUnit.MILLISECONDS)) {
+            android.util.Log.e(TAG, "Privileged command survived destroyForcibly()");
+            synchronized (leaked) {
+                leaked.add(process);
+            }
+        }
+    }
+
+    private byte[] get(Future<byte[]> drain) throws IOException, InterruptedException {
+        try {
+            // The process has exited, so its streams are at or near EOF
+            return drain.get(KILL_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read or write command streams", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Command output still open after exit");
+        }
+    }
+
+    public int getCommandCount() {
+        return commands.get();
+    }
+
+    public int getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /** Number of killed commands whose processes are still alive. */
+    public int getLeakedProcessCount() {
+        synchronized (leaked) {
+            Iterator<Process> it = leaked.iterator();
+            while (it.hasNext()) {
+                if (!it.next().isAlive()) {
+                    it.remove();
+                }
+            }
+            return leaked.size();
+        }
+    }
+
+    public void shutdown() {
+        drainers.shutdownNow();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class Drain implements Callable<byte[]> {
+        private final InputStream in;
+
+        Drain(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class Feed implements Callable<byte[]> {
+        private final OutputStream out;
+        private final byte[] data;
+
+        Feed(OutputStream out, byte[] data) {
+            this.out = out;
+            this.data = data;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            return data;
+        }
+    }
+}
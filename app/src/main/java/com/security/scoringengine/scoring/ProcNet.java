@@ -0,0 +1,251 @@
+package com.security.scoringengine.scoring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listening sockets parsed from the kernel's /proc/net/tcp, tcp6, udp and
+ * udp6 tables. The parser walks the raw bytes and only allocates for rows that
+ * are listening, which on a busy device is a small fraction of the table.
+ */
+public final class ProcNet {
+    /** Prints each table after a "#name" line, the format {@link #parse} reads. */
+    public static final String SCRIPT =
+        "for t in tcp tcp6 udp udp6; do echo \"#$t\"; cat /proc/net/$t 2>/dev/null; done; true";
+
+    private static final int TCP_LISTEN = 0x0A;
+    private static final int UDP_UNCONNECTED = 0x07;
+
+    private ProcNet() {
+    }
+
+    public static final class Listener {
+        public final boolean udp;
+        /** 4 or 16 bytes in network order; IPv4-mapped IPv6 is reduced to 4. */
+        public final byte[] address;
+        public final int port;
+        public final int uid;
+        public final long inode;
+
+        public Listener(boolean udp, byte[] address, int port, int uid, long inode) {
+            this.udp = udp;
+            this.address = address;
+            this.port = port;
+            this.uid = uid;
+            this.inode = inode;
+        }
+
+        public boolean isWildcard() {
+            for (byte b : address) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return (udp ? "udp:" : "tcp:") + formatAddress(address) + ":" + port;
+        }
+    }
+
+    /**
+     * Parses the output of {@link #SCRIPT}. Returns null when no table was
+     * present at all, so a failed read is not mistaken for an idle device.
+     */
+    public static List<Listener> parse(byte[] data) {
+        List<Listener> listeners = new ArrayList<>();
+        boolean sawTable = false;
+        boolean udp = false;
+        boolean inTable = false;
+        int pos = 0;
+        while (pos < data.length) {
+            int end = lineEnd(data, pos);
+            if (data[pos] == '#') {
+                // "#tcp", "#tcp6", "#udp" or "#udp6"
+                inTable = end - pos >= 4;
+                udp = inTable && data[pos + 1] == 'u';
+            } else if (inTable) {
+                if (parseRow(data, pos, end, udp, listeners)) {
+                    sawTable = true;
+                } else if (isHeader(data, pos, end)) {
+                    sawTable = true;
+                }
+            }
+            pos = end + 1;
+        }
+        return sawTable ? listeners : null;
+    }
+
+    /**
+     * Parses one table row:
+     * {@code sl local_address rem_address st tx:rx tr:when retrnsmt uid timeout inode}.
+     * Returns false if the row is malformed or the header.
+     */
+    private static boolean parseRow(byte[] data, int start, int end, boolean udp, List<Listener> out) {
+        int pos = skipSpaces(data, start, end);
+        int slot = pos;
+        while (pos < end && hexValue(data[pos]) >= 0) {
+            pos++;
+        }
+        if (pos == slot || pos >= end || data[pos] != ':') {
+            return false;
+        }
+
+        pos = skipSpaces(data, pos + 1, end);
+        int addressStart = pos;
+        while (pos < end && data[pos] != ':') {
+            pos++;
+        }
+        int addressLength = pos - addressStart;
+        if (pos >= end || (addressLength != 8 && addressLength != 32)) {
+            return false;
+        }
+        int port = (int) parseHex(data, pos + 1, pos + 5);
+        pos = skipToken(data, pos, end);
+
+        pos = skipToken(data, skipSpaces(data, pos, end), end);  // rem_address
+        pos = skipSpaces(data, pos, end);
+        int state = (int) parseHex(data, pos, pos + 2);
+        if (port < 0 || state != (udp ? UDP_UNCONNECTED : TCP_LISTEN)) {
+            // Established and closing sockets are never allocated
+            return port >= 0 && state >= 0;
+        }
+        for (int i = 0; i < 4; i++) {  // st, tx:rx, tr:when, retrnsmt
+            pos = skipToken(data, skipSpaces(data, pos, end), end);
+        }
+        pos = skipSpaces(data, pos, end);
+        int uidEnd = skipToken(data, pos, end);
+        long uid = parseDecimal(data, pos, uidEnd);
+        pos = skipToken(data, skipSpaces(data, uidEnd, end), end);  // timeout
+        pos = skipSpaces(data, pos, end);
+        long inode = parseDecimal(data, pos, skipToken(data, pos, end));
+        if (uid < 0 || inode < 0) {
+            return false;
+        }
+
+        out.add(new Listener(udp, decodeAddress(data, addressStart, addressLength), port, (int) uid, inode));
+        return true;
+    }
+
+    /**
+     * The kernel prints each 32-bit word of the address in host order, which
+     * is little-endian on every Android ABI, so each word's bytes are reversed.
+     */
+    private static byte[] decodeAddress(byte[] data, int start, int length) {
+        byte[] address = new byte[length / 2];
+        for (int word = 0; word < address.length; word += 4) {
+            for (int i = 0; i < 4; i++) {
+                int at = start + (word + 3 - i) * 2;
+                address[word + i] = (byte) parseHex(data, at, at + 2);
+            }
+        }
+        if (address.length == 16 && isV4Mapped(address)) {
+            byte[] v4 = new byte[4];
+            System.arraycopy(address, 12, v4, 0, 4);
+            return v4;
+        }
+        return address;
+    }
+
+    private static boolean isV4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+    }
+
+    static String formatAddress(byte[] address) {
+        StringBuilder out = new StringBuilder();
+        if (address.length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    out.append('.');
+                }
+                out.append(address[i] & 0xff);
+            }
+            return out.toString();
+        }
+        out.append('[');
+        for (int i = 0; i < 16; i += 2) {
+            if (i > 0) {
+                out.append(':');
+            }
+            out.append(Integer.toHexString(((address[i] & 0xff) << 8) | (address[i + 1] & 0xff)));
+        }
+        return out.append(']').toString();
+    }
+
+    private static boolean isHeader(byte[] data, int start, int end) {
+        int pos = skipSpaces(data, start, end);
+        return end - pos >= 2 && data[pos] == 's' && data[pos + 1] == 'l';
+    }
+
+    private static int lineEnd(byte[] data, int pos) {
+        while (pos < data.length && data[pos] != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSpaces(byte[] data, int pos, int end) {
+        while (pos < end && data[pos] == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipToken(byte[] data, int pos, int end) {
+        while (pos < end && data[pos] != ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Returns -1 if the range is empty or not all hex digits. */
+    private static long parseHex(byte[] data, int start, int end) {
+        if (start >= end || end > data.length) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = hexValue(data[i]);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static long parseDecimal(byte[] data, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+}
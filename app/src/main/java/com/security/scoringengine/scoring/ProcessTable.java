@@ -0,0 +1,63 @@
+package com.security.scoringengine.scoring;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The processes seen by the last /proc scan, keyed by "pid:starttime" so a
+ * reused PID is never mistaken for the process that had it before. Scans
+ * pass the known keys to the device and only read the command line of
+ * processes that are new.
+ */
+public final class ProcessTable {
+    private Map<String, RunningProcess> processes = new HashMap<>();
+    private int reused;
+    private int read;
+
+    public static final class RunningProcess {
+        /** The kernel's comm name, at most 15 characters. */
+        public final String name;
+        /** Arguments joined by spaces; empty for kernel threads. */
+        public final String cmdline;
+        /** Last path segment of the first argument, or the comm name. */
+        public final String executable;
+
+        public RunningProcess(String name, String cmdline) {
+            this.name = name;
+            this.cmdline = cmdline;
+            int end = cmdline.indexOf(' ');
+            String argv0 = end >= 0 ? cmdline.substring(0, end) : cmdline;
+            this.executable = argv0.isEmpty() ? name : argv0.substring(argv0.lastIndexOf('/') + 1);
+        }
+    }
+
+    public synchronized Collection<String> keys() {
+        return new ArrayList<>(processes.keySet());
+    }
+
+    public synchronized RunningProcess get(String key) {
+        return processes.get(key);
+    }
+
+    /** Replaces the table with the result of a scan. */
+    public synchronized void update(Map<String, RunningProcess> current, int reusedCount) {
+        processes = current;
+        reused += reusedCount;
+        read += current.size() - reusedCount;
+    }
+
+    public synchronized List<RunningProcess> processes() {
+        return new ArrayList<>(processes.values());
+    }
+
+    public synchronized int getReusedCount() {
+        return reused;
+    }
+
+    public synchronized int getReadCount() {
+        return read;
+    }
+}
@@ -0,0 +1,105 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Several configs scored against the same device, such as the beginner,
+ * advanced and bonus tracks of a practice round. Each pass fetches every
+ * source once, covering what all scenarios need, and then evaluates each
+ * scenario against that one snapshot, so another scenario adds evaluation
+ * but no device reads.
+ */
+public class ScenarioSet {
+    private final DeviceReader deviceReader;
+    private final Map<String, ScoringEngine> engines = new LinkedHashMap<>();
+    private final List<String> filePaths;
+    private final List<FileScan.Query> fileQueries = new ArrayList<>();
+    private final int[] fileQueryOffsets;
+    private final List<String> hashPaths;
+    private final List<String> statePackages;
+    private final List<String> opPackages;
+    private final FileHashCache fileHashCache = new FileHashCache();
+    private final ProcessTable processTable = new ProcessTable();
+    private Tracer tracer = Tracer.DISABLED;
+
+    /** @param scenarios configs by scenario name, compiled here in iteration order */
+    public ScenarioSet(DeviceReader deviceReader, Map<String, ScoringConfig> scenarios) {
+        this.deviceReader = deviceReader;
+        Set<String> files = new LinkedHashSet<>();
+        Set<String> hashes = new LinkedHashSet<>();
+        Set<String> packages = new LinkedHashSet<>();
+        Set<String> ops = new LinkedHashSet<>();
+        fileQueryOffsets = new int[scenarios.size()];
+        int i = 0;
+        for (Map.Entry<String, ScoringConfig> scenario : scenarios.entrySet()) {
+            ScoringEngine engine = new ScoringEngine(deviceReader, scenario.getValue());
+            engines.put(scenario.getKey(), engine);
+            files.addAll(engine.getFilePaths());
+            hashes.addAll(engine.getHashPaths());
+            packages.addAll(engine.getStatePackages());
+            ops.addAll(engine.getOpStatePackages());
+            // Queries are not merged; each engine reads its own run of results
+            fileQueryOffsets[i++] = fileQueries.size();
+            fileQueries.addAll(engine.getFileQueries());
+        }
+        filePaths = new ArrayList<>(files);
+        hashPaths = new ArrayList<>(hashes);
+        statePackages = new ArrayList<>(packages);
+        opPackages = new ArrayList<>(ops);
+    }
+
+    public Set<String> getScenarioNames() {
+        return Collections.unmodifiableSet(engines.keySet());
+    }
+
+    public ScoringEngine getEngine(String scenario) {
+        return engines.get(scenario);
+    }
+
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer != null ? tracer : Tracer.DISABLED;
+        for (ScoringEngine engine : engines.values()) {
+            engine.setTracer(this.tracer);
+        }
+    }
+
+    /** Stops an in-flight pass at the next check boundary of any scenario. */
+    public void cancel() {
+        for (ScoringEngine engine : engines.values()) {
+            engine.cancel();
+        }
+    }
+
+    /**
+     * Runs one pass over a single snapshot of the device and returns each
+     * scenario's result by name, or null if the pass was cancelled.
+     */
+    public Map<String, ScoringEngine.ScoringResult> calculateScores() {
+        Tracer tracer = this.tracer;
+        long passSpan = tracer.beginPass("pass");
+        try {
+            DataSources sources = new DataSources(deviceReader, filePaths, fileQueries, hashPaths,
+                fileHashCache, processTable, statePackages, opPackages, null, tracer);
+            Map<String, ScoringEngine.ScoringResult> results = new LinkedHashMap<>();
+            int i = 0;
+            for (Map.Entry<String, ScoringEngine> engine : engines.entrySet()) {
+                ScoringEngine.ScoringResult result = engine.getValue().calculateScore(sources, fileQueryOffsets[i++]);
+                if (result == null) {
+                    return null;
+                }
+                results.put(engine.getKey(), result);
+            }
+            return results;
+        } finally {
+            tracer.end(passSpan);
+        }
+    }
+}
@@ -1,654 +1,1553 @@
 package com.security.scoringengine.scoring;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-
-import com.google.gson.Gson;
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
 import com.security.scoringengine.models.PolicyState;
+import com.security.scoringengine.models.ScoreCategory;
 import com.security.scoringengine.models.ScoreItem;
 import com.security.scoringengine.models.ScoringConfig;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+/**
+ * Compiles a config into checks and scores the device against them. Pass
+ * state (the satisfied set, the users seen so far, the file digest and
+ * process caches) is not synchronized; every pass, recalculation and state
+ * transfer must run on one scoring thread. Only {@link #cancel} may be called
+ * from elsewhere. Results are immutable and safe to hand to any thread.
+ */
 public class ScoringEngine {
-    private static final String PREFS_NAME = "ForensicsPrefs";
-    private static final String PREFS_ANSWERED = "answered_questions";
-    
-    private Context context;
+    private static final int NO_CHECK = -1;
+    private static final int DEFAULT_SCAN_DEPTH = 8;
+    private static final int DEFAULT_SCAN_ENTRIES = 5000;
+    private static final InputKey USER_PROFILES = InputKey.policy("userProfiles");
+
+    private DeviceReader deviceReader;
     private ScoringConfig config;
-    private Map<String, ScoreItem> currentScores;
-    private Set<String> previousUsers;
+    private volatile boolean cancelled;
+    private Tracer tracer = Tracer.DISABLED;
+    
+    // Every check the config defines, indexed by check id. Built once; a pass
+    // only sets bits in the reused satisfied set.
+    private final List<ScoreItem> checkList = new ArrayList<>();
+    private ScoreItem[] checks;
+    private int maxPoints;
+    // Identifies the compiled checks, so a saved result is only restored
+    // against the config it was scored with
+    private long checksFingerprint;
+    // Scratch for the pass in progress; results get their own copy
+    private final BitSet satisfied = new BitSet();
+    
+    private String[] additionUsers;
+    private int[] additionIds;
+    private int[] additionRemovedIds;
+    // Additions present in the previous pass, by index into additionUsers
+    private final BitSet additionsSeen = new BitSet();
+    private String[] authorizedUsers;
+    private int[] authorizedRemovedIds;
+    private String[] unauthorizedUsers;
+    private int[] unauthorizedRemovedIds;
+    
+    private int screenCaptureId = NO_CHECK;
+    private int networkLoggingId = NO_CHECK;
+    private int noConfigWifiId = NO_CHECK;
+    private int disallowDebuggingId = NO_CHECK;
+    private int noPrintingId = NO_CHECK;
+    private int passwordQualityId = NO_CHECK;
+    private int passwordExpirationId = NO_CHECK;
+    private int factoryResetId = NO_CHECK;
+    private int systemUpdateId = NO_CHECK;
+    
+    // Indexed by SettingsNamespace ordinal
+    private final String[][] settingKeys = new String[SettingsNamespace.values().length][];
+    private final String[][] settingValues = new String[SettingsNamespace.values().length][];
+    private final int[][] settingIds = new int[SettingsNamespace.values().length][];
+    
+    private String[] filePaths;
+    private int[] fileIds;
+    private FileRule[] fileRules;
+    private int[] fileRuleIds;
+    private List<FileScan.Query> fileQueries;
+    // Where this engine's queries start in the sources of the current pass
+    private int fileQueryOffset;
+    
+    // fileHashes: a digest must be in the expected set (when there is one) and
+    // must not be in the forbidden set
+    private String[] hashPaths;
+    private List<Set<String>> expectedHashes;
+    private List<Set<String>> forbiddenHashes;
+    private int[] hashIds;
+    private FileHashCache fileHashCache = new FileHashCache();
+    
+    // processChecks: names match the executable or comm name exactly,
+    // cmdline patterns are regexes searched in the joined arguments
+    private String[] processNames;
+    private boolean[] processNameForbidden;
+    private int[] processNameIds;
+    private Pattern[] cmdlinePatterns;
+    private boolean[] cmdlineForbidden;
+    private int[] cmdlineIds;
+    private ProcessTable processTable = new ProcessTable();
+    private PackageIndex packageIndex;
+    
+    private ListenerRule[] listenerRules;
+    private boolean[] listenerForbidden;
+    private int[] listenerIds;
+    private boolean listenerOwners;
+    private String[] deletedApps;
+    private int[] deletedAppIds;
+    private String[] installedApps;
+    private int[] installedAppIds;
+    
+    // appUpdates requirements, parsed once; a null constraint never matches
+    private String[] updatePackages;
+    private VersionConstraint[] updateConstraints;
+    private int[] updateIds;
+    
+    // appPermissions, one entry per rule. A package that is not installed
+    // satisfies every revoked, denied and disabled rule.
+    private String[] permissionPackages;
+    private String[] permissionNames;
+    private boolean[] permissionGranted;
+    private int[] permissionIds;
+    private String[] opPackages;
+    private String[] opNames;
+    private int[] opIds;
+    private String[] componentPackages;
+    private String[] componentNames;
+    private boolean[] componentEnabled;
+    private int[] componentIds;
+    private List<String> statePackages;
+    private List<String> opStatePackages;
     
-    public ScoringEngine(Context context, ScoringConfig config) {
-        this.context = context;
+    private String[] questionIds;
+    private int[] questionCheckIds;
+    
+    // Checks that read each setting, package, policy field and forensics
+    // answer; file checks are matched by path instead
+    private final Map<InputKey, int[]> dependents = new HashMap<>();
+    private boolean verifyIncremental;
+    
+    public ScoringEngine(DeviceReader deviceReader, ScoringConfig config) {
+        this.deviceReader = deviceReader;
         this.config = config;
-        this.currentScores = new HashMap<>();
-        this.previousUsers = new HashSet<>();
+        compileChecks();
+    }
+
+    private void compileChecks() {
+        ScoringConfig.PenaltiesAndPoints p = config.penaltiesandPoints;
+        if (p == null) {
+            android.util.Log.e("ScoringEngine", "penaltiesandPoints is null in config!");
+            p = new ScoringConfig.PenaltiesAndPoints();
+        }
+        
+        additionUsers = distinct(config.UsersAdditions);
+        additionIds = new int[additionUsers.length];
+        additionRemovedIds = new int[additionUsers.length];
+        for (int i = 0; i < additionUsers.length; i++) {
+            additionIds[i] = addCheck("User '" + additionUsers[i] + "' has been added",
+                p.userPoints, ScoreCategory.USERS);
+            additionRemovedIds[i] = addPenalty("User '" + additionUsers[i] + "' was removed (penalty)",
+                -p.userPenalty, ScoreCategory.USERS);
+        }
+        authorizedUsers = distinct(config.AuthorizedUsers);
+        authorizedRemovedIds = new int[authorizedUsers.length];
+        for (int i = 0; i < authorizedUsers.length; i++) {
+            authorizedRemovedIds[i] = addPenalty("Authorized user '" + authorizedUsers[i] + "' was removed (penalty)",
+                -p.userPenalty, ScoreCategory.USERS);
+        }
+        unauthorizedUsers = distinct(config.UnauthorizedUsers);
+        unauthorizedRemovedIds = new int[unauthorizedUsers.length];
+        for (int i = 0; i < unauthorizedUsers.length; i++) {
+            unauthorizedRemovedIds[i] = addCheck("Unauthorized user '" + unauthorizedUsers[i] + "' has been removed",
+                p.userPoints, ScoreCategory.USERS);
+        }
+        
+        if (config.deviceRestrictions != null) {
+            if (config.deviceRestrictions.screenCaptureDisabled != null) {
+                screenCaptureId = addCheck("Screen capture disabled policy set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+            if (config.deviceRestrictions.networkLoggingEnabled != null) {
+                networkLoggingId = addCheck("Network logging policy set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+        }
+        if (config.userRestrictions != null) {
+            if (config.userRestrictions.noConfigWifi != null) {
+                noConfigWifiId = addCheck("WiFi configuration restriction set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+            if (config.userRestrictions.disallowDebugging != null) {
+                disallowDebuggingId = addCheck("Debugging restriction set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+            if (config.userRestrictions.noPrinting != null) {
+                noPrintingId = addCheck("Printing restriction set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+        }
+        if (config.passwordPolicies != null) {
+            if (config.passwordPolicies.passwordQualityName != null) {
+                passwordQualityId = addCheck("Password quality set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+            if (config.passwordPolicies.passwordExpirationTimeout != null) {
+                passwordExpirationId = addCheck("Password expiration timeout set correctly",
+                    p.policyPoints, ScoreCategory.POLICY);
+            }
+        }
+        if (config.additionalRestrictions != null && config.additionalRestrictions.disallowFactoryReset != null) {
+            factoryResetId = addCheck("Factory reset restriction set correctly",
+                p.policyPoints, ScoreCategory.POLICY);
+        }
+        if (config.systemUpdatePolicy != null) {
+            systemUpdateId = addCheck("System update policy set correctly",
+                p.updatePoints, ScoreCategory.POLICY);
+        }
+        
+        compileSettings(SettingsNamespace.SECURE, config.SettingsSecure, "Secure", p.settingsPoints);
+        compileSettings(SettingsNamespace.SYSTEM, config.SettingsSystem, "System", p.settingsPoints);
+        compileSettings(SettingsNamespace.GLOBAL, config.SettingsGlobal, "Global", p.settingsPoints);
+        
+        compileFileDeletions(p.fileDeletionPoints);
+        compileFileHashes(p.fileIntegrityPoints != null ? p.fileIntegrityPoints : p.fileDeletionPoints);
+        
+        deletedApps = distinct(config.appDeletions);
+        deletedAppIds = new int[deletedApps.length];
+        for (int i = 0; i < deletedApps.length; i++) {
+            deletedAppIds[i] = addCheck(deletedApps[i] + " has been deleted",
+                p.appDeletionsPoints, ScoreCategory.APPS);
+        }
+        installedApps = distinct(config.appInstalls);
+        installedAppIds = new int[installedApps.length];
+        for (int i = 0; i < installedApps.length; i++) {
+            installedAppIds[i] = addCheck(installedApps[i] + " has been installed",
+                p.appInstallPoints, ScoreCategory.APPS);
+        }
+        compileAppUpdates(p.updatePoints);
+        compileAppPermissions(p.permissionPoints != null ? p.permissionPoints : p.policyPoints);
+        compileProcessChecks(p.processPoints != null ? p.processPoints : p.policyPoints);
+        compileListenerChecks(p.networkPoints != null ? p.networkPoints : p.policyPoints);
+        
+        questionIds = distinct(config.forensicsQuestions != null ? config.forensicsQuestions.keySet() : null);
+        questionCheckIds = new int[questionIds.length];
+        for (int i = 0; i < questionIds.length; i++) {
+            questionCheckIds[i] = addCheck("Forensics question '" + questionIds[i] + "' answered correctly",
+                p.forensicsPoints, ScoreCategory.FORENSICS);
+        }
+        
+        checks = checkList.toArray(new ScoreItem[0]);
+        checkList.clear();
+        checksFingerprint = fingerprint(checks);
+        buildDependencies();
+    }
+
+    private void buildDependencies() {
+        Map<InputKey, List<Integer>> graph = new HashMap<>();
+        for (int id : additionIds) {
+            depend(graph, USER_PROFILES, id);
+        }
+        for (int id : additionRemovedIds) {
+            depend(graph, USER_PROFILES, id);
+        }
+        for (int id : authorizedRemovedIds) {
+            depend(graph, USER_PROFILES, id);
+        }
+        for (int id : unauthorizedRemovedIds) {
+            depend(graph, USER_PROFILES, id);
+        }
+        depend(graph, InputKey.policy("devicePolicies.screenCaptureDisabled"), screenCaptureId);
+        depend(graph, InputKey.policy("devicePolicies.networkLoggingEnabled"), networkLoggingId);
+        depend(graph, InputKey.policy("userRestrictions.noConfigWifi"), noConfigWifiId);
+        depend(graph, InputKey.policy("userRestrictions.disallowDebugging"), disallowDebuggingId);
+        depend(graph, InputKey.policy("userRestrictions.noPrinting"), noPrintingId);
+        depend(graph, InputKey.policy("passwordPolicies.passwordQualityName"), passwordQualityId);
+        depend(graph, InputKey.policy("passwordPolicies.passwordExpirationTimeout"), passwordExpirationId);
+        depend(graph, InputKey.policy("additionalRestrictions.disallowFactoryReset"), factoryResetId);
+        depend(graph, InputKey.policy("systemUpdatePolicy.policyTypeName"), systemUpdateId);
+        
+        for (SettingsNamespace namespace : SettingsNamespace.values()) {
+            String[] keys = settingKeys[namespace.ordinal()];
+            for (int i = 0; i < keys.length; i++) {
+                depend(graph, InputKey.setting(namespace, keys[i]), settingIds[namespace.ordinal()][i]);
+            }
+        }
+        for (int i = 0; i < deletedApps.length; i++) {
+            depend(graph, InputKey.forPackage(deletedApps[i]), deletedAppIds[i]);
+        }
+        for (int i = 0; i < installedApps.length; i++) {
+            depend(graph, InputKey.forPackage(installedApps[i]), installedAppIds[i]);
+        }
+        for (int i = 0; i < updatePackages.length; i++) {
+            depend(graph, InputKey.forPackage(updatePackages[i]), updateIds[i]);
+        }
+        for (int i = 0; i < permissionPackages.length; i++) {
+            depend(graph, InputKey.forPackage(permissionPackages[i]), permissionIds[i]);
+        }
+        for (int i = 0; i < opPackages.length; i++) {
+            depend(graph, InputKey.forPackage(opPackages[i]), opIds[i]);
+        }
+        for (int i = 0; i < componentPackages.length; i++) {
+            depend(graph, InputKey.forPackage(componentPackages[i]), componentIds[i]);
+        }
+        for (int i = 0; i < questionIds.length; i++) {
+            depend(graph, InputKey.forensics(questionIds[i]), questionCheckIds[i]);
+        }
+        
+        for (Map.Entry<InputKey, List<Integer>> entry : graph.entrySet()) {
+            dependents.put(entry.getKey(), toIntArray(entry.getValue()));
+        }
+    }
+
+    private static void depend(Map<InputKey, List<Integer>> graph, InputKey key, int id) {
+        if (id == NO_CHECK) {
+            return;
+        }
+        List<Integer> ids = graph.get(key);
+        if (ids == null) {
+            ids = new ArrayList<>(1);
+            graph.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private void compileFileDeletions(int points) {
+        List<String> exact = new ArrayList<>();
+        List<FileRule> rules = new ArrayList<>();
+        for (String spec : distinct(config.fileDeletions)) {
+            if (!FileRule.isRule(spec)) {
+                exact.add(spec);
+                continue;
+            }
+            try {
+                rules.add(FileRule.parse(spec));
+            } catch (IllegalArgumentException e) {
+                android.util.Log.e("ScoringEngine", "Ignoring fileDeletions entry: " + e.getMessage());
+            }
+        }
+        
+        filePaths = exact.toArray(new String[0]);
+        fileIds = new int[filePaths.length];
+        for (int i = 0; i < filePaths.length; i++) {
+            fileIds[i] = addCheck(new File(filePaths[i]).getName() + " has been deleted",
+                points, ScoreCategory.FILES);
+        }
+        
+        ScoringConfig.FileScanLimits limits = config.fileScanLimits;
+        int depthLimit = limits != null && limits.maxDepth != null ? limits.maxDepth : DEFAULT_SCAN_DEPTH;
+        int entryLimit = limits != null && limits.maxEntries != null ? limits.maxEntries : DEFAULT_SCAN_ENTRIES;
+        fileRules = rules.toArray(new FileRule[0]);
+        fileRuleIds = new int[fileRules.length];
+        fileQueries = new ArrayList<>(fileRules.length);
+        for (int i = 0; i < fileRules.length; i++) {
+            FileRule rule = fileRules[i];
+            fileRuleIds[i] = addCheck(rule.isDirectoryRule()
+                    ? "Everything under " + rule.getSpec() + " has been deleted"
+                    : "All files matching " + rule.getSpec() + " have been deleted",
+                points, ScoreCategory.FILES);
+            fileQueries.add(rule.toQuery(depthLimit, entryLimit));
+        }
+    }
+
+    private void compileFileHashes(int points) {
+        int n = config.fileHashes != null ? config.fileHashes.size() : 0;
+        hashPaths = new String[n];
+        expectedHashes = new ArrayList<>(n);
+        forbiddenHashes = new ArrayList<>(n);
+        hashIds = new int[n];
+        int i = 0;
+        if (config.fileHashes != null) {
+            for (Map.Entry<String, ScoringConfig.FileHash> entry : config.fileHashes.entrySet()) {
+                ScoringConfig.FileHash rule = entry.getValue() != null ? entry.getValue() : new ScoringConfig.FileHash();
+                hashPaths[i] = entry.getKey();
+                expectedHashes.add(lowerCaseSet(rule.expected));
+                forbiddenHashes.add(lowerCaseSet(rule.forbidden));
+                String description = rule.description;
+                if (description == null) {
+                    String name = new File(entry.getKey()).getName();
+                    description = !expectedHashes.get(i).isEmpty()
+                        ? name + " has been restored"
+                        : name + " has been modified";
+                }
+                hashIds[i] = addCheck(description, points, ScoreCategory.FILES);
+                i++;
+            }
+        }
+        fileHashCache.retainAll(Arrays.asList(hashPaths));
+    }
+
+    private void compileAppPermissions(int points) {
+        List<String> permPkgs = new ArrayList<>();
+        List<String> perms = new ArrayList<>();
+        List<Boolean> permWanted = new ArrayList<>();
+        List<String> opPkgs = new ArrayList<>();
+        List<String> ops = new ArrayList<>();
+        List<String> compPkgs = new ArrayList<>();
+        List<String> comps = new ArrayList<>();
+        List<Boolean> compWanted = new ArrayList<>();
+        statePackages = new ArrayList<>();
+        opStatePackages = new ArrayList<>();
+        
+        List<Integer> permIdList = new ArrayList<>();
+        List<Integer> opIdList = new ArrayList<>();
+        List<Integer> compIdList = new ArrayList<>();
+        if (config.appPermissions != null) {
+            for (Map.Entry<String, ScoringConfig.AppPermissions> entry : config.appPermissions.entrySet()) {
+                String pkg = entry.getKey();
+                ScoringConfig.AppPermissions rules = entry.getValue();
+                if (rules == null) {
+                    continue;
+                }
+                statePackages.add(pkg);
+                for (String permission : distinct(rules.revoked)) {
+                    permPkgs.add(pkg);
+                    perms.add(permission);
+                    permWanted.add(false);
+                    permIdList.add(addCheck(permission + " revoked from " + pkg, points, ScoreCategory.APPS));
+                }
+                for (String permission : distinct(rules.granted)) {
+                    permPkgs.add(pkg);
+                    perms.add(permission);
+                    permWanted.add(true);
+                    permIdList.add(addCheck(permission + " granted to " + pkg, points, ScoreCategory.APPS));
+                }
+                String[] denied = distinct(rules.deniedOps);
+                if (denied.length > 0) {
+                    opStatePackages.add(pkg);
+                }
+                for (String op : denied) {
+                    opPkgs.add(pkg);
+                    ops.add(op);
+                    opIdList.add(addCheck("App op " + op + " denied for " + pkg, points, ScoreCategory.APPS));
+                }
+                String[][] groups = {distinct(rules.disabledComponents), distinct(rules.enabledComponents)};
+                for (int g = 0; g < groups.length; g++) {
+                    for (String component : groups[g]) {
+                        String className = component.startsWith(".") ? pkg + component : component;
+                        compPkgs.add(pkg);
+                        comps.add(className);
+                        compWanted.add(g == 1);
+                        compIdList.add(addCheck(g == 0
+                                ? "Component " + className + " disabled"
+                                : "Component " + className + " enabled",
+                            points, ScoreCategory.APPS));
+                    }
+                }
+            }
+        }
+        
+        permissionPackages = permPkgs.toArray(new String[0]);
+        permissionNames = perms.toArray(new String[0]);
+        permissionGranted = toBooleanArray(permWanted);
+        permissionIds = toIntArray(permIdList);
+        opPackages = opPkgs.toArray(new String[0]);
+        opNames = ops.toArray(new String[0]);
+        opIds = toIntArray(opIdList);
+        componentPackages = compPkgs.toArray(new String[0]);
+        componentNames = comps.toArray(new String[0]);
+        componentEnabled = toBooleanArray(compWanted);
+        componentIds = toIntArray(compIdList);
+    }
+
+    private static boolean[] toBooleanArray(List<Boolean> values) {
+        boolean[] array = new boolean[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
     }
 
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private void compileProcessChecks(int points) {
+        ScoringConfig.ProcessChecks checks = config.processChecks;
+        String[] forbidden = distinct(checks != null ? checks.forbidden : null);
+        String[] required = distinct(checks != null ? checks.required : null);
+        processNames = new String[forbidden.length + required.length];
+        processNameForbidden = new boolean[processNames.length];
+        processNameIds = new int[processNames.length];
+        for (int i = 0; i < processNames.length; i++) {
+            boolean isForbidden = i < forbidden.length;
+            processNames[i] = isForbidden ? forbidden[i] : required[i - forbidden.length];
+            processNameForbidden[i] = isForbidden;
+            processNameIds[i] = addCheck(isForbidden
+                    ? "Process '" + processNames[i] + "' is no longer running"
+                    : "Process '" + processNames[i] + "' is running",
+                points, ScoreCategory.PROCESSES);
+        }
+        
+        List<Pattern> patterns = new ArrayList<>();
+        List<Boolean> patternForbidden = new ArrayList<>();
+        List<Integer> patternIds = new ArrayList<>();
+        String[][] groups = {
+            distinct(checks != null ? checks.forbiddenCmdlines : null),
+            distinct(checks != null ? checks.requiredCmdlines : null)
+        };
+        for (int g = 0; g < groups.length; g++) {
+            for (String regex : groups[g]) {
+                try {
+                    patterns.add(Pattern.compile(regex));
+                } catch (PatternSyntaxException e) {
+                    android.util.Log.e("ScoringEngine", "Ignoring process pattern " + regex + ": " + e.getDescription());
+                    continue;
+                }
+                patternForbidden.add(g == 0);
+                patternIds.add(addCheck(g == 0
+                        ? "No process matching '" + regex + "' is running"
+                        : "A process matching '" + regex + "' is running",
+                    points, ScoreCategory.PROCESSES));
+            }
+        }
+        cmdlinePatterns = patterns.toArray(new Pattern[0]);
+        cmdlineForbidden = new boolean[cmdlinePatterns.length];
+        cmdlineIds = new int[cmdlinePatterns.length];
+        for (int i = 0; i < cmdlinePatterns.length; i++) {
+            cmdlineForbidden[i] = patternForbidden.get(i);
+            cmdlineIds[i] = patternIds.get(i);
+        }
+    }
+
+    private void compileListenerChecks(int points) {
+        ScoringConfig.NetworkListeners listeners = config.networkListeners;
+        String[][] groups = {
+            distinct(listeners != null ? listeners.forbidden : null),
+            distinct(listeners != null ? listeners.required : null)
+        };
+        List<ListenerRule> rules = new ArrayList<>();
+        List<Boolean> ruleForbidden = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int g = 0; g < groups.length; g++) {
+            for (String spec : groups[g]) {
+                ListenerRule rule;
+                try {
+                    rule = ListenerRule.parse(spec);
+                } catch (IllegalArgumentException e) {
+                    android.util.Log.e("ScoringEngine", "Ignoring networkListeners entry: " + e.getMessage());
+                    continue;
+                }
+                rules.add(rule);
+                ruleForbidden.add(g == 0);
+                ids.add(addCheck(g == 0
+                        ? "Nothing is listening on " + spec
+                        : "A service is listening on " + spec,
+                    points, ScoreCategory.NETWORK));
+            }
+        }
+        listenerRules = rules.toArray(new ListenerRule[0]);
+        listenerForbidden = new boolean[listenerRules.length];
+        listenerIds = new int[listenerRules.length];
+        listenerOwners = false;
+        for (int i = 0; i < listenerRules.length; i++) {
+            listenerForbidden[i] = ruleForbidden.get(i);
+            listenerIds[i] = ids.get(i);
+            listenerOwners |= listenerRules[i].hasOwner();
+        }
+    }
+
+    private static Set<String> lowerCaseSet(List<String> values) {
+        Set<String> set = new HashSet<>();
+        if (values != null) {
+            for (String value : values) {
+                set.add(value.toLowerCase(Locale.ROOT));
+            }
+        }
+        return set;
+    }
+
+    private void compileSettings(SettingsNamespace namespace, Map<String, Integer> expected, String label, int points) {
+        int n = expected != null ? expected.size() : 0;
+        String[] keys = new String[n];
+        String[] values = new String[n];
+        int[] ids = new int[n];
+        int i = 0;
+        if (expected != null) {
+            for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i] = String.valueOf(entry.getValue());
+                ids[i] = addCheck(label + " setting '" + entry.getKey() + "' set correctly",
+                    points, ScoreCategory.SETTINGS);
+                i++;
+            }
+        }
+        settingKeys[namespace.ordinal()] = keys;
+        settingValues[namespace.ordinal()] = values;
+        settingIds[namespace.ordinal()] = ids;
+    }
+
+    private void compileAppUpdates(int points) {
+        int count = config.appUpdates != null ? config.appUpdates.size() : 0;
+        updatePackages = new String[count];
+        updateConstraints = new VersionConstraint[count];
+        updateIds = new int[count];
+        int i = 0;
+        if (config.appUpdates != null) {
+            for (Map.Entry<String, String> entry : config.appUpdates.entrySet()) {
+                updatePackages[i] = entry.getKey();
+                try {
+                    updateConstraints[i] = VersionConstraint.parse(entry.getValue());
+                } catch (IllegalArgumentException e) {
+                    android.util.Log.e("ScoringEngine", "Ignoring appUpdates entry for " + entry.getKey() + ": " + e.getMessage());
+                }
+                updateIds[i] = addCheck(entry.getKey() + " has been updated", points, ScoreCategory.APPS);
+                i++;
+            }
+        }
+    }
+
+    private int addCheck(String description, int points, ScoreCategory category) {
+        maxPoints += points;
+        return addPenalty(description, points, category);
+    }
+
+    /** Adds a check that can only take points away, so it does not count towards the maximum. */
+    private int addPenalty(String description, int points, ScoreCategory category) {
+        int id = checkList.size();
+        checkList.add(new ScoreItem(id, description, points, category));
+        return id;
+    }
+
+    /** 64-bit FNV-1a over each check's description, points and category. */
+    private static long fingerprint(ScoreItem[] items) {
+        long hash = 0xcbf29ce484222325L;
+        for (ScoreItem item : items) {
+            String description = item.getDescription();
+            for (int i = 0; i < description.length(); i++) {
+                hash = (hash ^ description.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ item.getPoints()) * 0x100000001b3L;
+            hash = (hash ^ item.getCategory().ordinal()) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String[] distinct(Collection<String> values) {
+        if (values == null) {
+            return new String[0];
+        }
+        return new LinkedHashSet<>(values).toArray(new String[0]);
+    }
+
+    public ScoringConfig getConfig() {
+        return config;
+    }
+
+    List<String> getFilePaths() {
+        return Arrays.asList(filePaths);
+    }
+
+    List<FileScan.Query> getFileQueries() {
+        return fileQueries;
+    }
+
+    List<String> getHashPaths() {
+        return Arrays.asList(hashPaths);
+    }
+
+    List<String> getStatePackages() {
+        return statePackages;
+    }
+
+    List<String> getOpStatePackages() {
+        return opStatePackages;
+    }
+
+    /** Records each pass, source fetch and check group into {@code tracer}. */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer != null ? tracer : Tracer.DISABLED;
+    }
+
+    /**
+     * Reads installed packages from {@code index} instead of listing them each
+     * pass. The caller keeps the index current by passing every added, removed
+     * or replaced package to {@link #recalculate}.
+     */
+    public void setPackageIndex(PackageIndex index) {
+        this.packageIndex = index;
+    }
+
+    /**
+     * Carries state over from the engine this one replaces. Only users that
+     * both configs track as additions keep their history, so a check that did
+     * not change between configs scores as if the engine had not been swapped.
+     * File digests still watched by the new config and the last process scan
+     * are kept as well.
+     */
+    public void inheritStateFrom(ScoringEngine previous) {
+        if (previous == null) {
+            return;
+        }
+        fileHashCache = previous.fileHashCache;
+        processTable = previous.processTable;
+        fileHashCache.retainAll(Arrays.asList(hashPaths));
+        for (int i = previous.additionsSeen.nextSetBit(0); i >= 0; i = previous.additionsSeen.nextSetBit(i + 1)) {
+            int index = indexOf(additionUsers, previous.additionUsers[i]);
+            if (index >= 0) {
+                additionsSeen.set(index);
+            }
+        }
+    }
+
+    /**
+     * Saves what a restarted service needs to resume where this engine left
+     * off: {@code result}, the additions seen so far and the file digests.
+     * Called on the scoring thread after a pass.
+     */
+    public void saveSnapshot(File file, ScoringResult result) throws IOException {
+        EngineSnapshot snapshot = new EngineSnapshot();
+        snapshot.checksFingerprint = checksFingerprint;
+        if (result != null && result.checks == checks) {
+            snapshot.currentPoints = result.currentPoints;
+            snapshot.maxPoints = result.maxPoints;
+            snapshot.satisfied = result.satisfied;
+        } else {
+            // Nothing scored against these checks yet
+            snapshot.checksFingerprint = 0;
+        }
+        for (int i = additionsSeen.nextSetBit(0); i >= 0; i = additionsSeen.nextSetBit(i + 1)) {
+            snapshot.additionsSeen.add(additionUsers[i]);
+        }
+        for (String path : fileHashCache.paths()) {
+            String statKey = fileHashCache.statKey(path);
+            String digest = fileHashCache.digest(path);
+            if (statKey != null && digest != null) {
+                snapshot.hashPaths.add(path);
+                snapshot.hashStatKeys.add(statKey);
+                snapshot.hashDigests.add(digest);
+            }
+        }
+        snapshot.write(file);
+    }
+
+    /**
+     * Restores state saved by {@link #saveSnapshot} into a freshly compiled
+     * engine, the same way {@link #inheritStateFrom} does. Returns the saved
+     * result if it was scored against the same checks, else null; digests are
+     * only reused while their stat keys still match, so a stale snapshot
+     * costs a re-hash, never a wrong score.
+     */
+    public ScoringResult restoreSnapshot(File file) {
+        EngineSnapshot snapshot = EngineSnapshot.read(file);
+        if (snapshot == null) {
+            return null;
+        }
+        for (String user : snapshot.additionsSeen) {
+            int index = indexOf(additionUsers, user);
+            if (index >= 0) {
+                additionsSeen.set(index);
+            }
+        }
+        for (int i = 0; i < snapshot.hashPaths.size(); i++) {
+            if (fileHashCache.statKey(snapshot.hashPaths.get(i)) == null) {
+                fileHashCache.put(snapshot.hashPaths.get(i), snapshot.hashStatKeys.get(i), snapshot.hashDigests.get(i));
+            }
+        }
+        fileHashCache.retainAll(Arrays.asList(hashPaths));
+        
+        if (snapshot.checksFingerprint != checksFingerprint || snapshot.maxPoints != maxPoints
+                || snapshot.satisfied.length() > checks.length) {
+            return null;
+        }
+        return new ScoringResult(snapshot.currentPoints, snapshot.maxPoints, checks, snapshot.satisfied);
+    }
+
+    /**
+     * Stops an in-flight {@link #calculateScore()} at the next check boundary.
+     * A cancelled engine stays cancelled; it is expected to be discarded.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs a full scoring pass. Returns null if the engine was cancelled
+     * before the pass completed.
+     */
     public ScoringResult calculateScore() {
-        Map<String, ScoreItem> newScores = new HashMap<>();
-        int totalPoints = 0;
-        int maxPoints = calculateMaxPoints();
+        Tracer tracer = this.tracer;
+        long passSpan = tracer.beginPass("pass");
+        // Sources are only fetched when a check below first asks for them
+        DataSources sources = new DataSources(deviceReader, Arrays.asList(filePaths), fileQueries,
+            Arrays.asList(hashPaths), fileHashCache, processTable, statePackages, opStatePackages,
+            packageIndex, tracer);
+        try {
+            return calculateScore(sources, 0);
+        } finally {
+            tracer.end(passSpan);
+        }
+    }
+
+    /**
+     * Scores against {@code sources}, which may be shared with other engines.
+     * They must cover this engine's file paths, hash paths and packages, and
+     * hold its file queries starting at {@code fileQueryOffset}.
+     */
+    ScoringResult calculateScore(DataSources sources, int fileQueryOffset) {
+        satisfied.clear();
+        this.fileQueryOffset = fileQueryOffset;
         
         android.util.Log.d("ScoringEngine", "Starting score calculation. Max points: " + maxPoints);
         
+        Tracer tracer = this.tracer;
+        long span = Tracer.NO_SPAN;
         try {
-            PolicyState policyState = loadPolicyState();
-            android.util.Log.d("ScoringEngine", "Policy state loaded successfully");
-            
             // Check users
-            totalPoints += checkUsers(policyState, newScores);
+            span = tracer.begin("check users");
+            checkUsers(sources);
+            tracer.end(span);
             
+            throwIfCancelled();
             // Check policies
-            totalPoints += checkDeviceRestrictions(policyState, newScores);
-            totalPoints += checkUserRestrictions(policyState, newScores);
-            totalPoints += checkPasswordPolicies(policyState, newScores);
-            totalPoints += checkAdditionalRestrictions(policyState, newScores);
-            totalPoints += checkSystemUpdatePolicy(policyState, newScores);
+            span = tracer.begin("check policies");
+            checkDeviceRestrictions(sources);
+            checkUserRestrictions(sources);
+            checkPasswordPolicies(sources);
+            checkAdditionalRestrictions(sources);
+            checkSystemUpdatePolicy(sources);
+            tracer.end(span);
             
+            throwIfCancelled();
             // Check settings
-            totalPoints += checkSettingsSecure(newScores);
-            totalPoints += checkSettingsSystem(newScores);
-            totalPoints += checkSettingsGlobal(newScores);
+            span = tracer.begin("check settings");
+            checkSettings(sources, SettingsNamespace.SECURE);
+            checkSettings(sources, SettingsNamespace.SYSTEM);
+            checkSettings(sources, SettingsNamespace.GLOBAL);
+            tracer.end(span);
             
+            throwIfCancelled();
             // Check files
-            totalPoints += checkFileDeletions(newScores);
+            span = tracer.begin("check file deletions");
+            checkFileDeletions(sources);
+            tracer.end(span);
+            span = tracer.begin("check file hashes");
+            checkFileHashes(sources);
+            tracer.end(span);
             
+            throwIfCancelled();
             // Check apps
-            totalPoints += checkAppDeletions(newScores);
-            totalPoints += checkAppInstalls(newScores);
-            totalPoints += checkAppUpdates(newScores);
+            span = tracer.begin("check apps");
+            checkAppDeletions(sources);
+            checkAppInstalls(sources);
+            checkAppUpdates(sources);
+            tracer.end(span);
+            span = tracer.begin("check app permissions");
+            checkAppPermissions(sources);
+            tracer.end(span);
             
-            // Check forensics questions
-            totalPoints += checkForensicsQuestions(newScores);
+            throwIfCancelled();
+            // Check processes
+            span = tracer.begin("check processes");
+            checkProcesses(sources);
+            tracer.end(span);
+            
+            throwIfCancelled();
+            // Check listening sockets
+            span = tracer.begin("check listeners");
+            checkListeners(sources);
+            tracer.end(span);
             
-            android.util.Log.d("ScoringEngine", "Score calculation complete. Total: " + totalPoints + "/" + maxPoints);
-            android.util.Log.d("ScoringEngine", "Score items: " + newScores.size());
+            throwIfCancelled();
+            // Check forensics questions
+            span = tracer.begin("check forensics");
+            checkForensicsQuestions(sources);
+            tracer.end(span);
+            throwIfCancelled();
             
+        } catch (CancellationException e) {
+            android.util.Log.d("ScoringEngine", "Score calculation cancelled");
+            return null;
         } catch (Exception e) {
             android.util.Log.e("ScoringEngine", "Error calculating score", e);
             e.printStackTrace();
+            // Close the group that failed so the trace shows where
+            tracer.end(span);
+        }
+        
+        int totalPoints = 0;
+        for (int id = satisfied.nextSetBit(0); id >= 0; id = satisfied.nextSetBit(id + 1)) {
+            totalPoints += checks[id].getPoints();
         }
+        android.util.Log.d("ScoringEngine", "Score calculation complete. Total: " + totalPoints + "/" + maxPoints);
         
-        currentScores = newScores;
-        return new ScoringResult(totalPoints, maxPoints, new ArrayList<>(newScores.values()));
+        return new ScoringResult(totalPoints, maxPoints, checks, (BitSet) satisfied.clone());
     }
 
-    private int checkUsers(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        Set<String> currentUsers = new HashSet<>();
-        
-        if (policyState.userProfiles != null) {
-            for (PolicyState.UserProfile profile : policyState.userProfiles) {
-                currentUsers.add(profile.userName);
+    /** Returns the keys of {@code namespace} that checks look at. */
+    public List<String> getSettingKeys(SettingsNamespace namespace) {
+        return Collections.unmodifiableList(Arrays.asList(settingKeys[namespace.ordinal()]));
+    }
+
+    /**
+     * Cross-checks every {@link #recalculate} against a full pass, logging
+     * the checks that differ and returning the full result instead. Costs a
+     * full pass per call; for finding inputs that changed without being
+     * marked dirty.
+     */
+    public void setVerifyIncremental(boolean verify) {
+        this.verifyIncremental = verify;
+    }
+
+    /**
+     * Re-evaluates only the checks that read the inputs in {@code dirty},
+     * reading only those inputs, and returns {@code previous} with their
+     * outcomes and the total patched. The result equals a full pass as long
+     * as every input that changed since {@code previous} is in {@code dirty}.
+     * A file key also covers everything below it, and a policy key without a
+     * field, such as {@code devicePolicies}, covers the whole section.
+     *
+     * Returns {@code previous} itself if nothing changed, or null if it was
+     * not scored by this engine or the pass failed; run a full pass then.
+     * Packages in {@code dirty} are recorded in the package index, which is
+     * dropped when null is returned so the full pass lists packages again.
+     * Must run on the thread that runs passes.
+     */
+    public ScoringResult recalculate(ScoringResult previous, Set<InputKey> dirty) {
+        if (previous == null || previous.checks != checks) {
+            invalidatePackageIndex(dirty);
+            return null;
+        }
+        // A table-wide settings observer reports keys no check reads
+        List<InputKey> read = new ArrayList<>(dirty.size());
+        for (InputKey key : dirty) {
+            if (key.kind != InputKey.Kind.SETTING || dependents.containsKey(key)) {
+                read.add(key);
             }
         }
+        DirtyInputReader reader = new DirtyInputReader(deviceReader, read);
+        BitSet affected = affectedChecks(read, reader);
+        // Users are only re-read, and removal penalties only re-decided, when
+        // the user list itself changed; other inputs leave both as they were
+        boolean usersDirty = read.contains(USER_PROFILES);
+        if (affected.isEmpty() && !reader.has(InputKey.Kind.PACKAGE)) {
+            return previous;
+        }
         
-        // Check UsersAdditions
-        if (config.UsersAdditions != null) {
-            for (String user : config.UsersAdditions) {
-                String key = "user_add_" + user;
-                if (currentUsers.contains(user)) {
-                    if (!scores.containsKey(key)) {
-                        scores.put(key, new ScoreItem(
-                            "User '" + user + "' has been added",
-                            config.penaltiesandPoints.userPoints,
-                            "users"));
-                        points += config.penaltiesandPoints.userPoints;
+        // The full pass in verify mode must start from the same user history
+        BitSet additionsBefore = verifyIncremental ? (BitSet) additionsSeen.clone() : null;
+        Tracer tracer = this.tracer;
+        long span = tracer.begin("recalculate");
+        DataSources sources = new DataSources(reader, Arrays.asList(filePaths), fileQueries,
+            Arrays.asList(hashPaths), fileHashCache, processTable, statePackages, opStatePackages, null, tracer);
+        satisfied.clear();
+        fileQueryOffset = 0;
+        try {
+            if (usersDirty) {
+                checkUsers(sources);
+            }
+            if (reader.has(InputKey.Kind.POLICY)) {
+                checkDeviceRestrictions(sources);
+                checkUserRestrictions(sources);
+                checkPasswordPolicies(sources);
+                checkAdditionalRestrictions(sources);
+                checkSystemUpdatePolicy(sources);
+            }
+            for (SettingsNamespace namespace : SettingsNamespace.values()) {
+                if (reader.hasSettings(namespace)) {
+                    checkSettings(sources, namespace);
+                }
+            }
+            if (reader.has(InputKey.Kind.FILE)) {
+                checkFileDeletions(sources);
+                checkFileHashes(sources);
+            }
+            if (reader.has(InputKey.Kind.PACKAGE)) {
+                checkAppDeletions(sources);
+                checkAppInstalls(sources);
+                checkAppUpdates(sources);
+                checkAppPermissions(sources);
+                if (packageIndex != null) {
+                    Map<String, InstalledPackage> installed = sources.installedPackages();
+                    for (String packageName : reader.getPackages()) {
+                        packageIndex.update(packageName, installed.get(packageName));
                     }
-                } else if (previousUsers.contains(user)) {
-                    // User was removed - penalty
-                    scores.put(key + "_penalty", new ScoreItem(
-                        "User '" + user + "' was removed (penalty)",
-                        -config.penaltiesandPoints.userPenalty,
-                        "users"));
-                    points -= config.penaltiesandPoints.userPenalty;
                 }
             }
+            if (reader.has(InputKey.Kind.FORENSICS)) {
+                checkForensicsQuestions(sources);
+            }
+        } catch (Exception e) {
+            android.util.Log.e("ScoringEngine", "Error recalculating " + dirty.size() + " inputs", e);
+            invalidatePackageIndex(dirty);
+            return null;
+        } finally {
+            tracer.end(span);
         }
         
-        // Check AuthorizedUsers
-        if (config.AuthorizedUsers != null) {
-            for (String user : config.AuthorizedUsers) {
-                if (!currentUsers.contains(user)) {
-                    String key = "auth_user_removed_" + user;
-                    scores.put(key, new ScoreItem(
-                        "Authorized user '" + user + "' was removed (penalty)",
-                        -config.penaltiesandPoints.userPenalty,
-                        "users"));
-                    points -= config.penaltiesandPoints.userPenalty;
+        BitSet updated = (BitSet) previous.satisfied.clone();
+        for (int id = affected.nextSetBit(0); id >= 0; id = affected.nextSetBit(id + 1)) {
+            updated.set(id, satisfied.get(id));
+        }
+        ScoringResult result = patch(previous, updated);
+        if (additionsBefore != null) {
+            additionsSeen.clear();
+            additionsSeen.or(additionsBefore);
+            result = verify(result, usersDirty);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the package index if {@code dirty} holds a package, since a
+     * recalculation that gave up never recorded its change there.
+     */
+    private void invalidatePackageIndex(Collection<InputKey> dirty) {
+        if (packageIndex == null) {
+            return;
+        }
+        for (InputKey key : dirty) {
+            if (key.kind == InputKey.Kind.PACKAGE) {
+                packageIndex.invalidate();
+                return;
+            }
+        }
+    }
+
+    /** Returns the checks that read any input in {@code dirty}. */
+    private BitSet affectedChecks(Collection<InputKey> dirty, DirtyInputReader reader) {
+        BitSet affected = new BitSet(checks.length);
+        boolean files = false;
+        for (InputKey key : dirty) {
+            if (key.kind == InputKey.Kind.FILE) {
+                files = true;
+                continue;
+            }
+            int[] ids = dependents.get(key);
+            if (ids != null) {
+                for (int id : ids) {
+                    affected.set(id);
+                }
+            }
+            if (key.kind == InputKey.Kind.POLICY && key.name.indexOf('.') < 0) {
+                // A whole section, such as devicePolicies
+                for (Map.Entry<InputKey, int[]> entry : dependents.entrySet()) {
+                    if (entry.getKey().kind == InputKey.Kind.POLICY && entry.getKey().name.startsWith(key.name + ".")) {
+                        for (int id : entry.getValue()) {
+                            affected.set(id);
+                        }
+                    }
                 }
             }
         }
-        
-        // Check UnauthorizedUsers
-        if (config.UnauthorizedUsers != null) {
-            for (String user : config.UnauthorizedUsers) {
-                String key = "unauth_user_" + user;
-                if (!currentUsers.contains(user)) {
-                    scores.put(key, new ScoreItem(
-                        "Unauthorized user '" + user + "' has been removed",
-                        config.penaltiesandPoints.userPoints,
-                        "users"));
-                    points += config.penaltiesandPoints.userPoints;
+        if (files) {
+            for (int i = 0; i < filePaths.length; i++) {
+                if (reader.isDirtyPath(filePaths[i])) {
+                    affected.set(fileIds[i]);
+                }
+            }
+            for (int i = 0; i < fileRules.length; i++) {
+                String root = fileQueries.get(i).root;
+                if (reader.isDirtyPath(root) || reader.coversDirtyPath(root)) {
+                    affected.set(fileRuleIds[i]);
+                }
+            }
+            for (int i = 0; i < hashPaths.length; i++) {
+                if (reader.isDirtyPath(hashPaths[i])) {
+                    affected.set(hashIds[i]);
                 }
             }
         }
+        return affected;
+    }
+
+    /** Runs a full pass and logs where {@code incremental} differs from it. */
+    private ScoringResult verify(ScoringResult incremental, boolean usersDirty) {
+        ScoringResult full = calculateScore();
+        if (full != null && !usersDirty) {
+            // A full pass drops a removal penalty an earlier pass applied; a
+            // recalculation of other inputs rightly keeps it
+            BitSet kept = (BitSet) full.satisfied.clone();
+            for (int id : additionRemovedIds) {
+                if (incremental.satisfied.get(id)) {
+                    kept.set(id);
+                }
+            }
+            full = patch(full, kept);
+        }
+        if (full == null || full.satisfied.equals(incremental.satisfied)
+                && full.currentPoints == incremental.currentPoints) {
+            return full != null ? incremental : null;
+        }
+        BitSet differing = (BitSet) full.satisfied.clone();
+        differing.xor(incremental.satisfied);
+        StringBuilder message = new StringBuilder("Incremental result differs from full pass (")
+            .append(incremental.currentPoints).append(" vs ").append(full.currentPoints).append(" points):");
+        for (int id = differing.nextSetBit(0); id >= 0; id = differing.nextSetBit(id + 1)) {
+            message.append("\n  ").append(checks[id].getDescription())
+                .append(full.satisfied.get(id) ? " (met)" : " (not met)");
+        }
+        android.util.Log.e("ScoringEngine", message.toString());
+        return full;
+    }
+
+    /**
+     * Returns {@code previous} with its outcomes replaced by {@code updated},
+     * adjusting points for each check that changed, or {@code previous}
+     * itself if none did.
+     */
+    private ScoringResult patch(ScoringResult previous, BitSet updated) {
+        BitSet changed = (BitSet) updated.clone();
+        changed.xor(previous.satisfied);
+        if (changed.isEmpty()) {
+            return previous;
+        }
+        int points = previous.currentPoints;
+        for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+            points += updated.get(id) ? checks[id].getPoints() : -checks[id].getPoints();
+        }
+        return new ScoringResult(points, maxPoints, checks, updated);
+    }
+
+    private void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    private void checkUsers(DataSources sources) {
+        if (additionUsers.length == 0 && authorizedUsers.length == 0 && unauthorizedUsers.length == 0) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState == null) {
+            return;
+        }
+        List<PolicyState.UserProfile> profiles = policyState.userProfiles != null
+            ? policyState.userProfiles : Collections.<PolicyState.UserProfile>emptyList();
         
-        previousUsers = currentUsers;
-        return points;
+        for (int i = 0; i < additionUsers.length; i++) {
+            boolean present = hasUser(profiles, additionUsers[i]);
+            if (present) {
+                satisfied.set(additionIds[i]);
+            } else if (additionsSeen.get(i)) {
+                // User was removed - penalty
+                satisfied.set(additionRemovedIds[i]);
+            }
+            additionsSeen.set(i, present);
+        }
+        
+        for (int i = 0; i < authorizedUsers.length; i++) {
+            if (!hasUser(profiles, authorizedUsers[i])) {
+                satisfied.set(authorizedRemovedIds[i]);
+            }
+        }
+        
+        for (int i = 0; i < unauthorizedUsers.length; i++) {
+            if (!hasUser(profiles, unauthorizedUsers[i])) {
+                satisfied.set(unauthorizedRemovedIds[i]);
+            }
+        }
     }
 
-    private int checkDeviceRestrictions(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.deviceRestrictions != null && policyState.devicePolicies != null) {
-            if (config.deviceRestrictions.screenCaptureDisabled != null &&
+    private static boolean hasUser(List<PolicyState.UserProfile> profiles, String user) {
+        for (int i = 0; i < profiles.size(); i++) {
+            if (user.equals(profiles.get(i).userName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkDeviceRestrictions(DataSources sources) {
+        if (config.deviceRestrictions == null) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState != null && policyState.devicePolicies != null) {
+            if (screenCaptureId != NO_CHECK &&
                 config.deviceRestrictions.screenCaptureDisabled == policyState.devicePolicies.screenCaptureDisabled) {
-                scores.put("device_screen_capture", new ScoreItem(
-                    "Screen capture disabled policy set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(screenCaptureId);
             }
             
-            if (config.deviceRestrictions.networkLoggingEnabled != null &&
+            if (networkLoggingId != NO_CHECK &&
                 config.deviceRestrictions.networkLoggingEnabled == policyState.devicePolicies.networkLoggingEnabled) {
-                scores.put("device_network_logging", new ScoreItem(
-                    "Network logging policy set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(networkLoggingId);
             }
         }
-        return points;
     }
 
-    private int checkUserRestrictions(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.userRestrictions != null && policyState.userRestrictions != null) {
-            if (config.userRestrictions.noConfigWifi != null &&
+    private void checkUserRestrictions(DataSources sources) {
+        if (config.userRestrictions == null) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState != null && policyState.userRestrictions != null) {
+            if (noConfigWifiId != NO_CHECK &&
                 config.userRestrictions.noConfigWifi == policyState.userRestrictions.noConfigWifi) {
-                scores.put("user_no_config_wifi", new ScoreItem(
-                    "WiFi configuration restriction set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(noConfigWifiId);
             }
             
-            if (config.userRestrictions.disallowDebugging != null &&
+            if (disallowDebuggingId != NO_CHECK &&
                 config.userRestrictions.disallowDebugging == policyState.userRestrictions.disallowDebugging) {
-                scores.put("user_disallow_debugging", new ScoreItem(
-                    "Debugging restriction set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(disallowDebuggingId);
             }
             
-            if (config.userRestrictions.noPrinting != null &&
+            if (noPrintingId != NO_CHECK &&
                 config.userRestrictions.noPrinting == policyState.userRestrictions.noPrinting) {
-                scores.put("user_no_printing", new ScoreItem(
-                    "Printing restriction set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(noPrintingId);
             }
         }
-        return points;
     }
 
-    private int checkPasswordPolicies(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.passwordPolicies != null && policyState.passwordPolicies != null) {
-            if (config.passwordPolicies.passwordQualityName != null &&
+    private void checkPasswordPolicies(DataSources sources) {
+        if (config.passwordPolicies == null) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState != null && policyState.passwordPolicies != null) {
+            if (passwordQualityId != NO_CHECK &&
                 config.passwordPolicies.passwordQualityName.contains(policyState.passwordPolicies.passwordQualityName)) {
-                scores.put("password_quality", new ScoreItem(
-                    "Password quality set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+                satisfied.set(passwordQualityId);
             }
             
-            if (config.passwordPolicies.passwordExpirationTimeout != null &&
-                config.passwordPolicies.passwordExpirationTimeout.equals(policyState.passwordPolicies.passwordExpirationTimeout)) {
-                scores.put("password_expiration", new ScoreItem(
-                    "Password expiration timeout set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+            if (passwordExpirationId != NO_CHECK &&
+                config.passwordPolicies.passwordExpirationTimeout == policyState.passwordPolicies.passwordExpirationTimeout) {
+                satisfied.set(passwordExpirationId);
             }
         }
-        return points;
     }
 
-    private int checkAdditionalRestrictions(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.additionalRestrictions != null && policyState.additionalRestrictions != null) {
-            if (config.additionalRestrictions.disallowFactoryReset != null &&
-                config.additionalRestrictions.disallowFactoryReset == policyState.additionalRestrictions.disallowFactoryReset) {
-                scores.put("additional_factory_reset", new ScoreItem(
-                    "Factory reset restriction set correctly",
-                    config.penaltiesandPoints.policyPoints,
-                    "policy"));
-                points += config.penaltiesandPoints.policyPoints;
+    private void checkAdditionalRestrictions(DataSources sources) {
+        if (factoryResetId == NO_CHECK) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState != null && policyState.additionalRestrictions != null) {
+            if (config.additionalRestrictions.disallowFactoryReset == policyState.additionalRestrictions.disallowFactoryReset) {
+                satisfied.set(factoryResetId);
             }
         }
-        return points;
     }
 
-    private int checkSystemUpdatePolicy(PolicyState policyState, Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.systemUpdatePolicy != null && policyState.systemUpdatePolicy != null) {
+    private void checkSystemUpdatePolicy(DataSources sources) {
+        if (systemUpdateId == NO_CHECK) {
+            return;
+        }
+        PolicyState policyState = sources.policyState();
+        if (policyState != null && policyState.systemUpdatePolicy != null) {
             if (config.systemUpdatePolicy.policyTypeName != null &&
                 config.systemUpdatePolicy.policyTypeName.equals(policyState.systemUpdatePolicy.policyTypeName)) {
-                scores.put("system_update_policy", new ScoreItem(
-                    "System update policy set correctly",
-                    config.penaltiesandPoints.updatePoints,
-                    "policy"));
-                points += config.penaltiesandPoints.updatePoints;
-            }
-        }
-        return points;
-    }
-
-    private int checkSettingsSecure(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.SettingsSecure != null) {
-            Map<String, String> settings = readSettingsXml("/data/system/users/0/settings_secure.xml");
-            for (Map.Entry<String, Integer> entry : config.SettingsSecure.entrySet()) {
-                String value = settings.get(entry.getKey());
-                if (value != null && value.equals(String.valueOf(entry.getValue()))) {
-                    scores.put("settings_secure_" + entry.getKey(), new ScoreItem(
-                        "Secure setting '" + entry.getKey() + "' set correctly",
-                        config.penaltiesandPoints.settingsPoints,
-                        "settings"));
-                    points += config.penaltiesandPoints.settingsPoints;
-                }
+                satisfied.set(systemUpdateId);
             }
         }
-        return points;
     }
 
-    private int checkSettingsSystem(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.SettingsSystem != null) {
-            Map<String, String> settings = readSettingsXml("/data/system/users/0/settings_system.xml");
-            for (Map.Entry<String, Integer> entry : config.SettingsSystem.entrySet()) {
-                String value = settings.get(entry.getKey());
-                if (value != null && value.equals(String.valueOf(entry.getValue()))) {
-                    scores.put("settings_system_" + entry.getKey(), new ScoreItem(
-                        "System setting '" + entry.getKey() + "' set correctly",
-                        config.penaltiesandPoints.settingsPoints,
-                        "settings"));
-                    points += config.penaltiesandPoints.settingsPoints;
-                }
+    private void checkSettings(DataSources sources, SettingsNamespace namespace) {
+        String[] keys = settingKeys[namespace.ordinal()];
+        if (keys.length == 0) {
+            return;
+        }
+        String[] expected = settingValues[namespace.ordinal()];
+        int[] ids = settingIds[namespace.ordinal()];
+        Map<String, String> settings = sources.settings(namespace);
+        for (int i = 0; i < keys.length; i++) {
+            String value = settings.get(keys[i]);
+            if (value != null && value.equals(expected[i])) {
+                satisfied.set(ids[i]);
             }
         }
-        return points;
     }
 
-    private int checkSettingsGlobal(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.SettingsGlobal != null) {
-            Map<String, String> settings = readSettingsXml("/data/system/users/0/settings_global.xml");
-            for (Map.Entry<String, Integer> entry : config.SettingsGlobal.entrySet()) {
-                String value = settings.get(entry.getKey());
-                if (value != null && value.equals(String.valueOf(entry.getValue()))) {
-                    scores.put("settings_global_" + entry.getKey(), new ScoreItem(
-                        "Global setting '" + entry.getKey() + "' set correctly",
-                        config.penaltiesandPoints.settingsPoints,
-                        "settings"));
-                    points += config.penaltiesandPoints.settingsPoints;
-                }
+    private void checkFileDeletions(DataSources sources) {
+        for (int i = 0; i < filePaths.length; i++) {
+            Boolean exists = sources.fileExists(filePaths[i]);
+            if (exists == null) {
+                // Not tested this pass; none of these checks is met
+                break;
+            }
+            if (!exists) {
+                satisfied.set(fileIds[i]);
+            }
+        }
+        
+        for (int i = 0; i < fileRules.length; i++) {
+            FileScan.Result scan = sources.fileScan(fileQueryOffset + i);
+            if (scan == null) {
+                // Not scanned this pass; none of these checks is met
+                break;
+            }
+            boolean found = false;
+            for (int j = 0; j < scan.paths.size() && !found; j++) {
+                found = fileRules[i].matches(scan.paths.get(j));
+            }
+            if (!found && scan.truncated) {
+                // The limit cut the listing short, so a match may remain unseen
+                android.util.Log.w("ScoringEngine", "Scan limit reached for " + fileRules[i].getSpec());
+            } else if (!found) {
+                satisfied.set(fileRuleIds[i]);
             }
         }
-        return points;
     }
-
-    private int checkFileDeletions(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.fileDeletions != null) {
-            for (String filePath : config.fileDeletions) {
-                boolean exists = checkFileExistsWithRoot(filePath);
-                if (!exists) {
-                    String fileName = new File(filePath).getName();
-                    scores.put("file_" + filePath, new ScoreItem(
-                        fileName + " has been deleted",
-                        config.penaltiesandPoints.fileDeletionPoints,
-                        "files"));
-                    points += config.penaltiesandPoints.fileDeletionPoints;
-                }
+    
+    private void checkFileHashes(DataSources sources) {
+        for (int i = 0; i < hashPaths.length; i++) {
+            String digest = sources.fileHash(hashPaths[i]);
+            boolean ok;
+            if (digest == null) {
+                // Deleted: fine unless a specific content is expected
+                ok = expectedHashes.get(i).isEmpty();
+            } else if (digest.isEmpty()) {
+                ok = false;
+            } else {
+                Set<String> expected = expectedHashes.get(i);
+                ok = (expected.isEmpty() || expected.contains(digest))
+                    && !forbiddenHashes.get(i).contains(digest);
+            }
+            if (ok) {
+                satisfied.set(hashIds[i]);
             }
         }
-        return points;
     }
     
-    private boolean checkFileExistsWithRoot(String filePath) {
-        try {
-            Process process = Runtime.getRuntime().exec(new String[]{"su", "-c", "test -e " + filePath + " && echo exists"});
-            BufferedReader reader = new BufferedReader(new java.io.InputStreamReader(process.getInputStream()));
-            String result = reader.readLine();
-            int exitCode = process.waitFor();
-            reader.close();
-            return exitCode == 0 && "exists".equals(result);
-        } catch (Exception e) {
-            android.util.Log.w("ScoringEngine", "Error checking file existence: " + filePath, e);
-            // Fallback to regular file check
-            return new File(filePath).exists();
-        }
-    }
-
-    private int checkAppDeletions(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.appDeletions != null) {
-            PackageManager pm = context.getPackageManager();
-            for (String packageName : config.appDeletions) {
-                if (!isAppInstalled(pm, packageName)) {
-                    scores.put("app_del_" + packageName, new ScoreItem(
-                        packageName + " has been deleted",
-                        config.penaltiesandPoints.appDeletionsPoints,
-                        "apps"));
-                    points += config.penaltiesandPoints.appDeletionsPoints;
-                }
+    private void checkAppDeletions(DataSources sources) {
+        if (deletedApps.length == 0) {
+            return;
+        }
+        Map<String, InstalledPackage> packages = sources.installedPackages();
+        for (int i = 0; i < deletedApps.length; i++) {
+            if (!packages.containsKey(deletedApps[i])) {
+                satisfied.set(deletedAppIds[i]);
             }
         }
-        return points;
     }
 
-    private int checkAppInstalls(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.appInstalls != null) {
-            PackageManager pm = context.getPackageManager();
-            for (String packageName : config.appInstalls) {
-                if (isAppInstalled(pm, packageName)) {
-                    scores.put("app_inst_" + packageName, new ScoreItem(
-                        packageName + " has been installed",
-                        config.penaltiesandPoints.appInstallPoints,
-                        "apps"));
-                    points += config.penaltiesandPoints.appInstallPoints;
-                }
+    private void checkAppInstalls(DataSources sources) {
+        if (installedApps.length == 0) {
+            return;
+        }
+        Map<String, InstalledPackage> packages = sources.installedPackages();
+        for (int i = 0; i < installedApps.length; i++) {
+            if (packages.containsKey(installedApps[i])) {
+                satisfied.set(installedAppIds[i]);
             }
         }
-        return points;
     }
 
-    private int checkAppUpdates(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.appUpdates != null) {
-            PackageManager pm = context.getPackageManager();
-            for (Map.Entry<String, String> entry : config.appUpdates.entrySet()) {
-                String packageName = entry.getKey();
-                String requiredVersion = entry.getValue();
-                
-                try {
-                    PackageInfo info = pm.getPackageInfo(packageName, 0);
-                    if (compareVersions(info.versionName, requiredVersion) > 0) {
-                        scores.put("app_upd_" + packageName, new ScoreItem(
-                            packageName + " has been updated",
-                            config.penaltiesandPoints.updatePoints,
-                            "apps"));
-                        points += config.penaltiesandPoints.updatePoints;
-                    }
-                } catch (PackageManager.NameNotFoundException e) {
-                    // App not installed
-                }
+    private void checkAppUpdates(DataSources sources) {
+        if (updatePackages.length == 0) {
+            return;
+        }
+        Map<String, InstalledPackage> packages = sources.installedPackages();
+        for (int i = 0; i < updatePackages.length; i++) {
+            if (isUpdated(i, packages.get(updatePackages[i]))) {
+                satisfied.set(updateIds[i]);
             }
         }
-        return points;
     }
 
-    private int checkForensicsQuestions(Map<String, ScoreItem> scores) {
-        int points = 0;
-        if (config.forensicsQuestions != null && !config.forensicsQuestions.isEmpty() && 
-            config.penaltiesandPoints != null) {
-            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String answeredJson = prefs.getString(PREFS_ANSWERED, "{}");
-            
-            Gson gson = new Gson();
-            Map<String, Boolean> answeredMap = gson.fromJson(answeredJson, Map.class);
-            
-            if (answeredMap != null) {
-                for (Map.Entry<String, Boolean> entry : answeredMap.entrySet()) {
-                    String questionId = entry.getKey();
-                    Boolean isAnswered = entry.getValue();
-                    
-                    if (isAnswered != null && isAnswered && config.forensicsQuestions.containsKey(questionId)) {
-                        scores.put("forensics_" + questionId, new ScoreItem(
-                            "Forensics question '" + questionId + "' answered correctly",
-                            config.penaltiesandPoints.forensicsPoints,
-                            "forensics"));
-                        points += config.penaltiesandPoints.forensicsPoints;
-                    }
-                }
-            }
+    /** Whether {@code info}, the installed copy of update rule {@code i}'s package, meets it. */
+    private boolean isUpdated(int i, InstalledPackage info) {
+        VersionConstraint constraint = updateConstraints[i];
+        if (info == null || constraint == null) {
+            // App not installed
+            return false;
+        }
+        int outcome = constraint.evaluate(info.versionName, info.versionCode);
+        if (outcome == VersionConstraint.INVALID_VERSION) {
+            android.util.Log.w("ScoringEngine", "Unparseable version '" + info.versionName + "' for " + updatePackages[i]);
+            return false;
         }
-        return points;
+        return outcome == VersionConstraint.SATISFIED;
     }
 
-    private PolicyState loadPolicyState() throws Exception {
-        String filePath = "/data/data/com.deviceconfig.policymanager/policy_state.json";
-        
-        android.util.Log.d("ScoringEngine", "Reading policy file with root: " + filePath);
-        
-        try {
-            // Use su to read the file with root privileges
-            Process process = Runtime.getRuntime().exec(new String[]{"su", "-c", "cat " + filePath});
-            
-            BufferedReader reader = new BufferedReader(new java.io.InputStreamReader(process.getInputStream()));
-            BufferedReader errorReader = new BufferedReader(new java.io.InputStreamReader(process.getErrorStream()));
-            
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
+    private void checkAppPermissions(DataSources sources) {
+        if (statePackages.isEmpty()) {
+            return;
+        }
+        Map<String, PackageState> states = sources.packageStates();
+        if (states == null) {
+            return;
+        }
+        for (int i = 0; i < permissionNames.length; i++) {
+            PackageState state = states.get(permissionPackages[i]);
+            boolean granted = state != null && state.grantedPermissions.contains(permissionNames[i]);
+            if (granted == permissionGranted[i]) {
+                satisfied.set(permissionIds[i]);
             }
-            
-            // Check for errors
-            StringBuilder errors = new StringBuilder();
-            while ((line = errorReader.readLine()) != null) {
-                errors.append(line).append("\n");
+        }
+        for (int i = 0; i < opNames.length; i++) {
+            PackageState state = states.get(opPackages[i]);
+            if (state != null && state.appOps == null) {
+                continue;  // installed, but its ops could not be read
             }
-            
-            int exitCode = process.waitFor();
-            reader.close();
-            errorReader.close();
-            
-            if (exitCode != 0) {
-                android.util.Log.e("ScoringEngine", "Failed to read policy file. Exit code: " + exitCode);
-                android.util.Log.e("ScoringEngine", "Error output: " + errors.toString());
-                throw new Exception("Failed to read policy file with root. Exit code: " + exitCode);
+            String mode = state != null ? state.appOps.get(opNames[i]) : null;
+            if (state == null || PackageState.isDeniedMode(mode)) {
+                satisfied.set(opIds[i]);
             }
-            
-            String jsonContent = sb.toString();
-            if (jsonContent.isEmpty()) {
-                android.util.Log.e("ScoringEngine", "Policy file is empty or could not be read");
-                throw new Exception("Policy file is empty");
+        }
+        for (int i = 0; i < componentNames.length; i++) {
+            PackageState state = states.get(componentPackages[i]);
+            boolean enabled = state != null && state.enabledComponents.contains(componentNames[i]);
+            if (enabled == componentEnabled[i]) {
+                satisfied.set(componentIds[i]);
             }
-            
-            android.util.Log.d("ScoringEngine", "Policy file read successfully. Length: " + jsonContent.length());
-            
-            Gson gson = new Gson();
-            PolicyState state = gson.fromJson(jsonContent, PolicyState.class);
-            
-            android.util.Log.d("ScoringEngine", "Policy state parsed. Users: " + 
-                (state.userProfiles != null ? state.userProfiles.size() : 0));
-            
-            return state;
-            
-        } catch (Exception e) {
-            android.util.Log.e("ScoringEngine", "Error reading policy file", e);
-            throw new Exception("Failed to read policy file: " + e.getMessage(), e);
         }
     }
 
-    private Map<String, String> readSettingsXml(String path) {
-        Map<String, String> settings = new HashMap<>();
-        try {
-            android.util.Log.d("ScoringEngine", "Reading settings file with root: " + path);
-            
-            // Use su to read the file with root privileges
-            Process process = Runtime.getRuntime().exec(new String[]{"su", "-c", "cat " + path});
-            
-            BufferedReader reader = new BufferedReader(new java.io.InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("<setting")) {
-                    String name = extractAttribute(line, "name");
-                    String value = extractAttribute(line, "value");
-                    if (name != null && value != null) {
-                        settings.put(name, value);
-                    }
-                }
+    private void checkProcesses(DataSources sources) {
+        if (processNames.length == 0 && cmdlinePatterns.length == 0) {
+            return;
+        }
+        List<ProcessTable.RunningProcess> processes = sources.processes();
+        if (processes == null) {
+            return;
+        }
+        for (int i = 0; i < processNames.length; i++) {
+            boolean running = false;
+            for (int j = 0; j < processes.size() && !running; j++) {
+                ProcessTable.RunningProcess process = processes.get(j);
+                running = processNames[i].equals(process.executable) || processNames[i].equals(process.name);
             }
-            
-            int exitCode = process.waitFor();
-            reader.close();
-            
-            if (exitCode != 0) {
-                android.util.Log.w("ScoringEngine", "Failed to read settings file: " + path + " (exit code: " + exitCode + ")");
-            } else {
-                android.util.Log.d("ScoringEngine", "Settings file read. Found " + settings.size() + " settings");
+            if (running != processNameForbidden[i]) {
+                satisfied.set(processNameIds[i]);
             }
-            
-        } catch (Exception e) {
-            android.util.Log.w("ScoringEngine", "Error reading settings file: " + path, e);
-        }
-        return settings;
-    }
-
-    private String extractAttribute(String line, String attribute) {
-        int start = line.indexOf(attribute + "=\"");
-        if (start == -1) return null;
-        start += attribute.length() + 2;
-        int end = line.indexOf("\"", start);
-        if (end == -1) return null;
-        return line.substring(start, end);
-    }
-
-    private boolean isAppInstalled(PackageManager pm, String packageName) {
-        try {
-            pm.getPackageInfo(packageName, 0);
-            return true;
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
         }
-    }
-
-    private int compareVersions(String v1, String v2) {
-        String[] parts1 = v1.split("\\.");
-        String[] parts2 = v2.split("\\.");
-        int length = Math.max(parts1.length, parts2.length);
-        
-        for (int i = 0; i < length; i++) {
-            int p1 = i < parts1.length ? Integer.parseInt(parts1[i]) : 0;
-            int p2 = i < parts2.length ? Integer.parseInt(parts2[i]) : 0;
-            if (p1 != p2) {
-                return p1 - p2;
+        for (int i = 0; i < cmdlinePatterns.length; i++) {
+            boolean running = false;
+            for (int j = 0; j < processes.size() && !running; j++) {
+                running = cmdlinePatterns[i].matcher(processes.get(j).cmdline).find();
+            }
+            if (running != cmdlineForbidden[i]) {
+                satisfied.set(cmdlineIds[i]);
             }
         }
-        return 0;
     }
 
-    private int calculateMaxPoints() {
-        int max = 0;
-        
-        if (config.penaltiesandPoints == null) {
-            android.util.Log.e("ScoringEngine", "penaltiesandPoints is null in config!");
-            return 0;
-        }
-        
-        android.util.Log.d("ScoringEngine", "Calculating max points...");
-        
-        if (config.UsersAdditions != null) {
-            max += config.UsersAdditions.size() * config.penaltiesandPoints.userPoints;
-        }
-        if (config.UnauthorizedUsers != null) {
-            max += config.UnauthorizedUsers.size() * config.penaltiesandPoints.userPoints;
-        }
-        
-        // Device restrictions (2 policies)
-        if (config.deviceRestrictions != null) {
-            if (config.deviceRestrictions.screenCaptureDisabled != null) max += config.penaltiesandPoints.policyPoints;
-            if (config.deviceRestrictions.networkLoggingEnabled != null) max += config.penaltiesandPoints.policyPoints;
+    private void checkListeners(DataSources sources) {
+        if (listenerRules.length == 0) {
+            return;
         }
-        
-        // User restrictions (3 policies)
-        if (config.userRestrictions != null) {
-            if (config.userRestrictions.noConfigWifi != null) max += config.penaltiesandPoints.policyPoints;
-            if (config.userRestrictions.disallowDebugging != null) max += config.penaltiesandPoints.policyPoints;
-            if (config.userRestrictions.noPrinting != null) max += config.penaltiesandPoints.policyPoints;
+        List<ProcNet.Listener> listeners = sources.listeners();
+        if (listeners == null) {
+            return;
         }
-        
-        // Password policies (2 policies)
-        if (config.passwordPolicies != null) {
-            if (config.passwordPolicies.passwordQualityName != null) max += config.penaltiesandPoints.policyPoints;
-            if (config.passwordPolicies.passwordExpirationTimeout != null) max += config.penaltiesandPoints.policyPoints;
-        }
-        
-        // Additional restrictions
-        if (config.additionalRestrictions != null && config.additionalRestrictions.disallowFactoryReset != null) {
-            max += config.penaltiesandPoints.policyPoints;
-        }
-        
-        // System update policy
-        if (config.systemUpdatePolicy != null) {
-            max += config.penaltiesandPoints.updatePoints;
-        }
-        
-        // Settings
-        if (config.SettingsSecure != null) {
-            max += config.SettingsSecure.size() * config.penaltiesandPoints.settingsPoints;
-        }
-        if (config.SettingsSystem != null) {
-            max += config.SettingsSystem.size() * config.penaltiesandPoints.settingsPoints;
+        // Sockets carry the uid of the app that opened them; only rules naming
+        // a package need the uid-to-package index
+        Map<Integer, List<String>> packagesByUid = listenerOwners
+            ? packagesByUid(sources.installedPackages()) : null;
+        for (int i = 0; i < listenerRules.length; i++) {
+            ProcNet.Listener match = null;
+            for (int j = 0; j < listeners.size() && match == null; j++) {
+                ProcNet.Listener listener = listeners.get(j);
+                if (listenerRules[i].matches(listener,
+                        packagesByUid != null ? packagesByUid.get(listener.uid) : null)) {
+                    match = listener;
+                }
+            }
+            if (match != null && listenerForbidden[i]) {
+                android.util.Log.d("ScoringEngine", "Forbidden listener " + match + " (uid " + match.uid
+                    + ", inode " + match.inode + ") matches " + listenerRules[i].getSpec());
+            }
+            if ((match != null) != listenerForbidden[i]) {
+                satisfied.set(listenerIds[i]);
+            }
         }
-        if (config.SettingsGlobal != null) {
-            max += config.SettingsGlobal.size() * config.penaltiesandPoints.settingsPoints;
+    }
+
+    private static Map<Integer, List<String>> packagesByUid(Map<String, InstalledPackage> packages) {
+        Map<Integer, List<String>> byUid = new HashMap<>();
+        if (packages == null) {
+            return byUid;
         }
-        
-        // Files
-        if (config.fileDeletions != null) {
-            max += config.fileDeletions.size() * config.penaltiesandPoints.fileDeletionPoints;
+        for (InstalledPackage pkg : packages.values()) {
+            if (pkg.uid == null) {
+                continue;
+            }
+            List<String> names = byUid.get(pkg.uid);
+            if (names == null) {
+                names = new ArrayList<>(1);
+                byUid.put(pkg.uid, names);
+            }
+            names.add(pkg.packageName);
         }
-        
-        // Apps
-        if (config.appDeletions != null) {
-            max += config.appDeletions.size() * config.penaltiesandPoints.appDeletionsPoints;
+        return byUid;
+    }
+
+    private void checkForensicsQuestions(DataSources sources) {
+        if (questionIds.length == 0) {
+            return;
         }
-        if (config.appInstalls != null) {
-            max += config.appInstalls.size() * config.penaltiesandPoints.appInstallPoints;
+        Map<String, Boolean> answeredMap = sources.forensicsAnswers();
+        if (answeredMap == null) {
+            return;
         }
-        if (config.appUpdates != null) {
-            max += config.appUpdates.size() * config.penaltiesandPoints.updatePoints;
+        for (int i = 0; i < questionIds.length; i++) {
+            Boolean isAnswered = answeredMap.get(questionIds[i]);
+            if (isAnswered != null && isAnswered) {
+                satisfied.set(questionCheckIds[i]);
+            }
         }
-        
-        // Forensics questions
-        if (config.forensicsQuestions != null) {
-            max += config.forensicsQuestions.size() * config.penaltiesandPoints.forensicsPoints;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
         }
-        
-        return max;
+        return -1;
     }
 
+    /**
+     * Outcome of one pass: the config's shared check items plus the set of
+     * check ids that were satisfied. Immutable once built.
+     */
     public static class ScoringResult {
-        private int currentPoints;
-        private int maxPoints;
-        private List<ScoreItem> scoreItems;
+        private final int currentPoints;
+        private final int maxPoints;
+        private final ScoreItem[] checks;
+        private final BitSet satisfied;
+        private final long version;
+
+        /** {@code satisfied} is owned by the result from here on and must not be changed. */
+        public ScoringResult(int currentPoints, int maxPoints, ScoreItem[] checks, BitSet satisfied) {
+            this(currentPoints, maxPoints, checks, satisfied, 0);
+        }
 
-        public ScoringResult(int currentPoints, int maxPoints, List<ScoreItem> scoreItems) {
+        private ScoringResult(int currentPoints, int maxPoints, ScoreItem[] checks, BitSet satisfied, long version) {
             this.currentPoints = currentPoints;
             this.maxPoints = maxPoints;
-            this.scoreItems = scoreItems;
+            this.checks = checks;
+            this.satisfied = satisfied;
+            this.version = version;
+        }
+
+        /** Returns this result stamped with {@code version}, sharing its outcomes. */
+        public ScoringResult withVersion(long version) {
+            return new ScoringResult(currentPoints, maxPoints, checks, satisfied, version);
+        }
+
+        /**
+         * The publication number the service stamped this result with; higher
+         * is newer. 0 for a result that was never published.
+         */
+        public long getVersion() {
+            return version;
         }
 
         public int getCurrentPoints() {
@@ -659,8 +1558,34 @@ public class ScoringEngine {
             return maxPoints;
         }
 
+        public int getCheckCount() {
+            return checks.length;
+        }
+
+        public ScoreItem getCheck(int checkId) {
+            return checks[checkId];
+        }
+
+        public boolean isSatisfied(int checkId) {
+            return satisfied.get(checkId);
+        }
+
+        public int getPointsEarned(int checkId) {
+            return satisfied.get(checkId) ? checks[checkId].getPoints() : 0;
+        }
+
+        /** True when both results come from the same config and satisfied the same checks. */
+        public boolean hasSameOutcomeAs(ScoringResult other) {
+            return other != null && other.checks == checks && other.satisfied.equals(satisfied);
+        }
+
+        /** The satisfied checks in check id order, as a new list. */
         public List<ScoreItem> getScoreItems() {
-            return scoreItems;
+            List<ScoreItem> items = new ArrayList<>(satisfied.cardinality());
+            for (int id = satisfied.nextSetBit(0); id >= 0; id = satisfied.nextSetBit(id + 1)) {
+                items.add(checks[id]);
+            }
+            return items;
         }
     }
 }
@@ -0,0 +1,17 @@
+package com.security.scoringengine.scoring;
+
+public enum SettingsNamespace {
+    SECURE("settings_secure.xml"),
+    SYSTEM("settings_system.xml"),
+    GLOBAL("settings_global.xml");
+
+    private final String fileName;
+
+    SettingsNamespace(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,39 @@
+package com.security.scoringengine.scoring;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Line-based reader for the {@code settings_*.xml} files the settings
+ * provider writes: one {@code <setting ... name="..." value="..." />} per line.
+ */
+public final class SettingsXml {
+    private SettingsXml() {
+    }
+
+    public static Map<String, String> parse(BufferedReader reader) throws IOException {
+        Map<String, String> settings = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.contains("<setting")) {
+                String name = extractAttribute(line, "name");
+                String value = extractAttribute(line, "value");
+                if (name != null && value != null) {
+                    settings.put(name, value);
+                }
+            }
+        }
+        return settings;
+    }
+
+    private static String extractAttribute(String line, String attribute) {
+        int start = line.indexOf(attribute + "=\"");
+        if (start == -1) return null;
+        start += attribute.length() + 2;
+        int end = line.indexOf("\"", start);
+        if (end == -1) return null;
+        return line.substring(start, end);
+    }
+}
@@ -0,0 +1,156 @@
+package com.security.scoringengine.scoring;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records nested timing spans (passes, source fetches, su commands, parsing,
+ * checks) into a fixed-size ring, and exports the last few passes as Chrome
+ * trace JSON for chrome://tracing or ui.perfetto.dev.
+ *
+ * Spans are stored in preallocated parallel arrays and names must be
+ * constants, so recording allocates nothing. Once the ring is full the
+ * oldest spans are overwritten. {@link #DISABLED} records nothing and costs
+ * one field read per span.
+ */
+public final class Tracer {
+    public static final Tracer DISABLED = new Tracer(0);
+
+    /** Returned by {@link #begin} when nothing was recorded; {@link #end} ignores it. */
+    public static final long NO_SPAN = -1;
+
+    private final boolean enabled;
+    private final int capacity;
+    private final long[] sequences;
+    private final String[] names;
+    private final long[] starts;
+    private final long[] durations;
+    private final int[] passes;
+    private final long[] threadIds;
+    private final String[] threadNames;
+    private long next;
+    private int pass;
+
+    /** @param capacity how many spans are kept; 0 disables tracing */
+    public Tracer(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.enabled = this.capacity > 0;
+        sequences = new long[this.capacity];
+        names = new String[this.capacity];
+        starts = new long[this.capacity];
+        durations = new long[this.capacity];
+        passes = new int[this.capacity];
+        threadIds = new long[this.capacity];
+        threadNames = new String[this.capacity];
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Starts a new pass and opens its span. */
+    public long beginPass(String name) {
+        if (!enabled) {
+            return NO_SPAN;
+        }
+        synchronized (this) {
+            pass++;
+        }
+        return begin(name);
+    }
+
+    /**
+     * Opens a span on the calling thread. {@code name} should be a constant;
+     * it is kept by reference.
+     */
+    public long begin(String name) {
+        if (!enabled) {
+            return NO_SPAN;
+        }
+        Thread thread = Thread.currentThread();
+        long start = System.nanoTime();
+        synchronized (this) {
+            long sequence = next++;
+            int slot = (int) (sequence % capacity);
+            sequences[slot] = sequence;
+            names[slot] = name;
+            starts[slot] = start;
+            durations[slot] = -1;
+            passes[slot] = pass;
+            threadIds[slot] = thread.getId();
+            threadNames[slot] = thread.getName();
+            return sequence;
+        }
+    }
+
+    /** Closes a span opened by {@link #begin}, unless the ring has since overwritten it. */
+    public void end(long span) {
+        if (span < 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            int slot = (int) (span % capacity);
+            if (sequences[slot] == span) {
+                durations[slot] = now - starts[slot];
+            }
+        }
+    }
+
+    /**
+     * Writes the closed spans of the last {@code lastPasses} passes as a
+     * Chrome trace. Spans still open are left out.
+     */
+    public synchronized void writeChromeTrace(Writer out, int lastPasses) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        long first = Math.max(0, next - capacity);
+        int firstPass = pass - Math.max(1, lastPasses) + 1;
+        for (long sequence = first; sequence < next; sequence++) {
+            int slot = (int) (sequence % capacity);
+            if (durations[slot] < 0 || passes[slot] < firstPass) {
+                continue;
+            }
+            json.beginObject();
+            json.name("name").value(names[slot]);
+            json.name("ph").value("X");
+            json.name("ts").value(starts[slot] / 1000.0);
+            json.name("dur").value(durations[slot] / 1000.0);
+            json.name("pid").value(1);
+            json.name("tid").value(threadIds[slot]);
+            json.name("args").beginObject().name("pass").value(passes[slot]).endObject();
+            json.endObject();
+        }
+        writeThreadNames(json, first);
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    private void writeThreadNames(JsonWriter json, long first) throws IOException {
+        Map<Long, String> threads = new LinkedHashMap<>();
+        for (long sequence = first; sequence < next; sequence++) {
+            int slot = (int) (sequence % capacity);
+            threads.put(threadIds[slot], threadNames[slot]);
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            json.beginObject();
+            json.name("name").value("thread_name");
+            json.name("ph").value("M");
+            json.name("pid").value(1);
+            json.name("tid").value(thread.getKey());
+            json.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+            json.endObject();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.security.scoringengine.scoring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@code appUpdates} requirement, parsed once when the engine is built.
+ *
+ * <p>A requirement is one or more terms that must all hold, separated by
+ * spaces or commas:
+ * <ul>
+ *   <li>{@code 1.0.0.0} - a bare version means "newer than", which is what
+ *       every existing config relies on</li>
+ *   <li>{@code >=5.2.1 <6} - a range using {@code > >= < <= = !=}</li>
+ *   <li>{@code code>=4200} - compares the package's versionCode instead</li>
+ *   <li>{@code =5.2.*} - a trailing {@code *} stands for any further
+ *       components and pre-release tag, so {@code 5.2.*} alone means "newer
+ *       than every 5.2 release"</li>
+ * </ul>
+ *
+ * <p>Versions are dot-separated numbers with an optional pre-release tag, as
+ * in {@code 5.2.1-beta.2} or {@code 2024.01.15.rc1}. Missing components count
+ * as zero, a release sorts after any of its pre-releases, pre-release
+ * identifiers compare as in semver and {@code +build} metadata is ignored.
+ *
+ * <p>{@link #evaluate} scans the installed version in place and does not
+ * allocate, so it is cheap to run against the package index every pass.
+ */
+public final class VersionConstraint {
+    public static final int UNSATISFIED = 0;
+    public static final int SATISFIED = 1;
+    /** The installed versionName could not be parsed. */
+    public static final int INVALID_VERSION = -1;
+
+    private static final int OP_GT = 0;
+    private static final int OP_GE = 1;
+    private static final int OP_LT = 2;
+    private static final int OP_LE = 3;
+    private static final int OP_EQ = 4;
+    private static final int OP_NE = 5;
+
+    // Keeps parsed components well clear of overflow
+    private static final long MAX_COMPONENT = 999999999999999999L / 10;
+    private static final int INVALID = Integer.MIN_VALUE;
+
+    private final String source;
+    private final int[] ops;
+    private final boolean[] onVersionCode;
+    private final long[] versionCodes;
+    private final long[][] numbers;
+    private final boolean[] wildcard;
+    private final String[][] preRelease;
+    private final boolean[][] preReleaseNumeric;
+    private final long[][] preReleaseValues;
+
+    private VersionConstraint(String source, List<Object[]> terms) {
+        this.source = source;
+        int count = terms.size();
+        ops = new int[count];
+        onVersionCode = new boolean[count];
+        versionCodes = new long[count];
+        numbers = new long[count][];
+        wildcard = new boolean[count];
+        preRelease = new String[count][];
+        preReleaseNumeric = new boolean[count][];
+        preReleaseValues = new long[count][];
+        for (int t = 0; t < count; t++) {
+            Object[] term = terms.get(t);
+            ops[t] = (Integer) term[0];
+            if (term[1] instanceof Long) {
+                onVersionCode[t] = true;
+                versionCodes[t] = (Long) term[1];
+            } else {
+                parseVersion((String) term[1], t);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the requirement is not valid
+     */
+    public static VersionConstraint parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty version requirement");
+        }
+        String[] tokens = text.trim().split("[\\s,]+");
+        List<Object[]> terms = new ArrayList<>();
+        
+        if (tokens.length == 1 && startsWithDigitOrV(tokens[0])) {
+            terms.add(new Object[]{OP_GT, tokens[0]});
+            return new VersionConstraint(text, terms);
+        }
+        
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            boolean code = false;
+            if (token.startsWith("versionCode")) {
+                code = true;
+                token = token.substring("versionCode".length());
+            } else if (token.startsWith("code")) {
+                code = true;
+                token = token.substring("code".length());
+            }
+            int opLength = operatorLength(token);
+            if (opLength == 0) {
+                throw new IllegalArgumentException("Expected an operator before '" + token + "' in '" + text + "'");
+            }
+            int op = operator(token.substring(0, opLength));
+            String operand = token.substring(opLength);
+            if (operand.isEmpty()) {
+                // Allow a space between operator and operand, as in ">= 1.2"
+                if (i + 1 >= tokens.length) {
+                    throw new IllegalArgumentException("Missing version after operator in '" + text + "'");
+                }
+                operand = tokens[++i];
+            }
+            if (code) {
+                try {
+                    terms.add(new Object[]{op, Long.parseLong(operand)});
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid versionCode '" + operand + "' in '" + text + "'");
+                }
+            } else {
+                terms.add(new Object[]{op, operand});
+            }
+        }
+        return new VersionConstraint(text, terms);
+    }
+
+    /**
+     * Returns {@link #SATISFIED}, {@link #UNSATISFIED} or
+     * {@link #INVALID_VERSION} for an installed package.
+     */
+    public int evaluate(String versionName, long versionCode) {
+        for (int t = 0; t < ops.length; t++) {
+            int cmp;
+            if (onVersionCode[t]) {
+                cmp = versionCode < versionCodes[t] ? -1 : (versionCode == versionCodes[t] ? 0 : 1);
+            } else {
+                if (versionName == null) {
+                    return INVALID_VERSION;
+                }
+                cmp = compareInstalled(versionName, t);
+                if (cmp == INVALID) {
+                    return INVALID_VERSION;
+                }
+            }
+            if (!holds(ops[t], cmp)) {
+                return UNSATISFIED;
+            }
+        }
+        return SATISFIED;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static boolean holds(int op, int cmp) {
+        switch (op) {
+            case OP_GT: return cmp > 0;
+            case OP_GE: return cmp >= 0;
+            case OP_LT: return cmp < 0;
+            case OP_LE: return cmp <= 0;
+            case OP_EQ: return cmp == 0;
+            default: return cmp != 0;
+        }
+    }
+
+    /** Compares an installed version against term {@code t} without allocating. */
+    private int compareInstalled(String s, int t) {
+        long[] required = numbers[t];
+        int n = s.length();
+        int i = 0;
+        if (n > 0 && (s.charAt(0) == 'v' || s.charAt(0) == 'V')) {
+            i = 1;
+        }
+        if (i >= n || !isDigit(s.charAt(i))) {
+            return INVALID;
+        }
+        
+        int result = 0;
+        int component = 0;
+        while (true) {
+            long value = 0;
+            while (i < n && isDigit(s.charAt(i))) {
+                value = value * 10 + (s.charAt(i) - '0');
+                if (value > MAX_COMPONENT) {
+                    return INVALID;
+                }
+                i++;
+            }
+            long expected = component < required.length ? required[component] : 0;
+            boolean matched = wildcard[t] && component >= required.length;
+            if (result == 0 && !matched && value != expected) {
+                result = value < expected ? -1 : 1;
+            }
+            component++;
+            if (i + 1 < n && s.charAt(i) == '.' && isDigit(s.charAt(i + 1))) {
+                i++;
+                continue;
+            }
+            break;
+        }
+        for (int k = component; result == 0 && k < required.length; k++) {
+            if (required[k] != 0) {
+                result = -1;
+            }
+        }
+        
+        int end = s.indexOf('+', i);
+        if (end < 0) {
+            end = n;
+        }
+        int preStart = end;
+        if (i < end) {
+            char c = s.charAt(i);
+            preStart = (c == '-' || c == '.' || c == '_') ? i + 1 : i;
+            if (preStart >= end) {
+                return INVALID;
+            }
+        }
+        
+        // Validate the pre-release tag even when the numbers already decide
+        String[] requiredPre = preRelease[t];
+        int preResult = 0;
+        boolean installedHasPre = preStart < end;
+        if (installedHasPre && s.charAt(end - 1) == '.') {
+            return INVALID;
+        }
+        if (!installedHasPre) {
+            preResult = requiredPre.length > 0 ? 1 : 0;
+        } else if (requiredPre.length == 0) {
+            preResult = -1;
+        }
+        int index = 0;
+        int start = preStart;
+        while (start < end) {
+            int stop = start;
+            boolean numeric = true;
+            long numericValue = 0;
+            while (stop < end && s.charAt(stop) != '.') {
+                char c = s.charAt(stop);
+                if (isDigit(c) && numeric) {
+                    numericValue = Math.min(numericValue * 10 + (c - '0'), MAX_COMPONENT);
+                } else {
+                    numeric = false;
+                }
+                stop++;
+            }
+            if (stop == start) {
+                return INVALID;
+            }
+            if (preResult == 0 && requiredPre.length > 0) {
+                if (index >= requiredPre.length) {
+                    preResult = 1;
+                } else {
+                    preResult = compareIdentifier(s, start, stop, numeric, numericValue, t, index);
+                }
+            }
+            index++;
+            start = stop + 1;
+        }
+        if (preResult == 0 && installedHasPre && index < requiredPre.length) {
+            preResult = -1;
+        }
+        
+        return result != 0 || wildcard[t] ? result : preResult;
+    }
+
+    private int compareIdentifier(String s, int start, int stop, boolean numeric, long numericValue, int t, int index) {
+        boolean requiredNumeric = preReleaseNumeric[t][index];
+        if (numeric && requiredNumeric) {
+            long expected = preReleaseValues[t][index];
+            return numericValue < expected ? -1 : (numericValue == expected ? 0 : 1);
+        }
+        if (numeric != requiredNumeric) {
+            // Numeric identifiers sort before alphanumeric ones
+            return numeric ? -1 : 1;
+        }
+        String expected = preRelease[t][index];
+        int length = stop - start;
+        int common = Math.min(length, expected.length());
+        for (int k = 0; k < common; k++) {
+            char a = s.charAt(start + k);
+            char b = expected.charAt(k);
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return length < expected.length() ? -1 : (length == expected.length() ? 0 : 1);
+    }
+
+    private void parseVersion(String text, int t) {
+        String s = text;
+        int n = s.length();
+        int i = 0;
+        if (n > 0 && (s.charAt(0) == 'v' || s.charAt(0) == 'V')) {
+            i = 1;
+        }
+        if (i >= n || !isDigit(s.charAt(i))) {
+            throw new IllegalArgumentException("Invalid version '" + text + "'");
+        }
+        
+        List<Long> parts = new ArrayList<>();
+        while (true) {
+            long value = 0;
+            while (i < n && isDigit(s.charAt(i))) {
+                value = value * 10 + (s.charAt(i) - '0');
+                if (value > MAX_COMPONENT) {
+                    throw new IllegalArgumentException("Version component too large in '" + text + "'");
+                }
+                i++;
+            }
+            parts.add(value);
+            if (i + 1 < n && s.charAt(i) == '.' && isDigit(s.charAt(i + 1))) {
+                i++;
+                continue;
+            }
+            break;
+        }
+        numbers[t] = new long[parts.size()];
+        for (int k = 0; k < parts.size(); k++) {
+            numbers[t][k] = parts.get(k);
+        }
+        
+        if (i + 1 < n && s.charAt(i) == '.' && s.charAt(i + 1) == '*') {
+            i += 2;
+            if (i < n && s.charAt(i) != '+') {
+                throw new IllegalArgumentException("Wildcard must be the last component in '" + text + "'");
+            }
+            wildcard[t] = true;
+        }
+        
+        int end = s.indexOf('+', i);
+        if (end < 0) {
+            end = n;
+        }
+        int star = s.indexOf('*', i);
+        if (star >= 0 && star < end) {
+            throw new IllegalArgumentException("Wildcard must be a whole last component in '" + text + "'");
+        }
+        String pre = "";
+        if (i < end) {
+            char c = s.charAt(i);
+            int preStart = (c == '-' || c == '.' || c == '_') ? i + 1 : i;
+            if (preStart >= end) {
+                throw new IllegalArgumentException("Empty pre-release tag in '" + text + "'");
+            }
+            pre = s.substring(preStart, end);
+        }
+        
+        String[] ids = pre.isEmpty() ? new String[0] : pre.split("\\.", -1);
+        preRelease[t] = ids;
+        preReleaseNumeric[t] = new boolean[ids.length];
+        preReleaseValues[t] = new long[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            if (ids[k].isEmpty()) {
+                throw new IllegalArgumentException("Empty pre-release identifier in '" + text + "'");
+            }
+            boolean numeric = true;
+            long value = 0;
+            for (int c = 0; c < ids[k].length(); c++) {
+                char ch = ids[k].charAt(c);
+                if (!isDigit(ch)) {
+                    numeric = false;
+                    break;
+                }
+                value = Math.min(value * 10 + (ch - '0'), MAX_COMPONENT);
+            }
+            preReleaseNumeric[t][k] = numeric;
+            preReleaseValues[t][k] = value;
+        }
+    }
+
+    private static int operatorLength(String token) {
+        if (token.startsWith(">=") || token.startsWith("<=") || token.startsWith("==") || token.startsWith("!=")) {
+            return 2;
+        }
+        if (token.startsWith(">") || token.startsWith("<") || token.startsWith("=")) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int operator(String op) {
+        switch (op) {
+            case ">": return OP_GT;
+            case ">=": return OP_GE;
+            case "<": return OP_LT;
+            case "<=": return OP_LE;
+            case "!=": return OP_NE;
+            default: return OP_EQ;
+        }
+    }
+
+    private static boolean startsWithDigitOrV(String token) {
+        char c = token.charAt(0);
+        return isDigit(c) || ((c == 'v' || c == 'V') && token.length() > 1 && isDigit(token.charAt(1)));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -1,14 +1,28 @@
 package com.security.scoringengine.security;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.util.Base64;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.security.scoringengine.config.ConfigLoader;
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.security.KeyStore;
+import java.util.Collection;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -21,57 +35,239 @@ public class SecureConfigStorage {
     private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final int GCM_TAG_LENGTH = 128;
     private static final String CONFIG_FILE = "scoring_config.enc";
+    private static final String PREFS_NAME = "SecureConfigPrefs";
+    private static final String PREFS_CONFIG_VERSION = "config_version";
 
     private Context context;
+    private SharedPreferences.OnSharedPreferenceChangeListener versionListener;
+
+    public interface ConfigVersionListener {
+        void onConfigVersionChanged(long version);
+    }
 
     public SecureConfigStorage(Context context) {
         this.context = context;
     }
 
     public void saveConfig(String jsonConfig) throws Exception {
+        saveConfigBytes(jsonConfig.getBytes("UTF-8"));
+    }
+
+    /**
+     * Stores a config given in either of its import forms: JSON text or a
+     * plan compiled by the config compiler.
+     */
+    public void saveConfigBytes(byte[] config) throws Exception {
+        ScoringConfig parsed = ConfigLoader.parse(config);
+        if (parsed == null) {
+            throw new IOException("Empty config");
+        }
+        saveConfig(parsed);
+    }
+
+    /** Encrypts {@code config} one section per top-level key and stores it. */
+    public void saveConfig(ScoringConfig config) throws Exception {
+        JsonObject tree = new Gson().toJsonTree(config).getAsJsonObject();
+        Writer writer = openWriter();
+        try {
+            for (Map.Entry<String, JsonElement> section : tree.entrySet()) {
+                writer.writeSection(section.getKey(), section.getValue());
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Opens a writer that encrypts a config into a temporary file as its
+     * sections arrive. Nothing changes until {@link Writer#commit()} renames
+     * it over the stored config; {@link Writer#abort()} discards it.
+     */
+    public Writer openWriter() throws Exception {
         SecretKey key = getOrCreateKey();
-        
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        byte[] iv = cipher.getIV();
-        byte[] encrypted = cipher.doFinal(jsonConfig.getBytes("UTF-8"));
-        
-        // Store IV + encrypted data
+        File tmp = new File(context.getFilesDir(), CONFIG_FILE + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(file, SegmentedConfigFile.CHUNK_SIZE);
+            return new Writer(tmp, file, out, new SegmentedConfigFile.SectionWriter(out, key));
+        } catch (IOException e) {
+            file.close();
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /** An encrypted config being written; see {@link #openWriter()}. */
+    public class Writer implements Closeable {
+        private final File tmp;
+        private final FileOutputStream file;
+        private final BufferedOutputStream out;
+        private final SegmentedConfigFile.SectionWriter sections;
+        private boolean closed;
+
+        Writer(File tmp, FileOutputStream file, BufferedOutputStream out,
+               SegmentedConfigFile.SectionWriter sections) {
+            this.tmp = tmp;
+            this.file = file;
+            this.out = out;
+            this.sections = sections;
+        }
+
+        public void writeSection(String name, JsonElement value) throws IOException {
+            sections.writeSection(name, value);
+        }
+
+        /** Writes the index and atomically replaces the stored config. */
+        public void commit() throws IOException {
+            closed = true;
+            try {
+                sections.finish();
+                out.flush();
+                file.getFD().sync();
+                file.close();
+            } catch (IOException e) {
+                closeQuietly(file);
+                tmp.delete();
+                throw e;
+            }
+            
+            // Set file permissions to be readable only by this app
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            tmp.setWritable(false, false);
+            tmp.setWritable(true, true);
+            
+            File target = new File(context.getFilesDir(), CONFIG_FILE);
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Could not replace " + target);
+            }
+            
+            // Bump the version only once the new file is in place
+            SharedPreferences prefs = getPrefs();
+            prefs.edit().putLong(PREFS_CONFIG_VERSION, prefs.getLong(PREFS_CONFIG_VERSION, 0) + 1).commit();
+        }
+
+        /** Discards what was written; the stored config is untouched. */
+        public void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(file);
+            tmp.delete();
+        }
+
+        /** Same as {@link #abort()} unless already committed. */
+        @Override
+        public void close() {
+            abort();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public boolean hasConfig() {
         File file = new File(context.getFilesDir(), CONFIG_FILE);
-        FileOutputStream fos = new FileOutputStream(file);
-        fos.write(iv.length);
-        fos.write(iv);
-        fos.write(encrypted);
-        fos.close();
-        
-        // Set file permissions to be readable only by this app
-        file.setReadable(false, false);
-        file.setReadable(true, true);
-        file.setWritable(false, false);
-        file.setWritable(true, true);
+        return file.isFile() && file.length() > 0;
+    }
+
+    /**
+     * Returns a counter that increases every time a config is saved, so
+     * long-lived readers can tell when their copy is stale.
+     */
+    public long getConfigVersion() {
+        return getPrefs().getLong(PREFS_CONFIG_VERSION, 0);
+    }
+
+    /**
+     * Notifies {@code listener} on the main thread whenever a new config is
+     * saved from this process. Only one listener is held per instance.
+     */
+    public void setConfigVersionListener(final ConfigVersionListener listener) {
+        SharedPreferences prefs = getPrefs();
+        if (versionListener != null) {
+            prefs.unregisterOnSharedPreferenceChangeListener(versionListener);
+            versionListener = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        // SharedPreferences only keeps a weak reference, so hold it here
+        versionListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                if (PREFS_CONFIG_VERSION.equals(key)) {
+                    listener.onConfigVersionChanged(sharedPreferences.getLong(PREFS_CONFIG_VERSION, 0));
+                }
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(versionListener);
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
+    /** Returns the stored config as JSON, whichever form it is stored in. */
     public String loadConfig() throws Exception {
+        ScoringConfig config = loadScoringConfig();
+        return config != null ? new Gson().toJson(config) : null;
+    }
+
+    /** Loads and parses the whole stored config, or returns null if there is none. */
+    public ScoringConfig loadScoringConfig() throws Exception {
+        return loadScoringConfig(null);
+    }
+
+    /**
+     * Loads only the named top-level sections of the stored config, leaving
+     * the other fields null. Only those sections are decrypted and decoded;
+     * a config in the older single-block format is decrypted whole.
+     */
+    public ScoringConfig loadScoringConfig(Collection<String> sections) throws Exception {
         File file = new File(context.getFilesDir(), CONFIG_FILE);
         if (!file.exists()) {
             return null;
         }
-        
-        FileInputStream fis = new FileInputStream(file);
-        int ivLength = fis.read();
-        byte[] iv = new byte[ivLength];
-        fis.read(iv);
-        
-        byte[] encrypted = new byte[(int) file.length() - ivLength - 1];
-        fis.read(encrypted);
-        fis.close();
+        if (!isSegmented(file)) {
+            return ConfigLoader.parse(loadLegacyBytes(file));
+        }
+        return SegmentedConfigFile.read(file, getOrCreateKey(), sections);
+    }
+
+    private static boolean isSegmented(File file) throws IOException {
+        byte[] header = new byte[4];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(header);
+        } catch (EOFException e) {
+            return false;
+        }
+        // Older files start with the IV length instead of a magic
+        return SegmentedConfigFile.isSegmented(header);
+    }
+
+    private byte[] loadLegacyBytes(File file) throws Exception {
+        byte[] iv;
+        byte[] encrypted;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int ivLength = in.read();
+            iv = new byte[ivLength];
+            in.readFully(iv);
+            encrypted = new byte[(int) file.length() - ivLength - 1];
+            in.readFully(encrypted);
+        }
         
         SecretKey key = getOrCreateKey();
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        byte[] decrypted = cipher.doFinal(encrypted);
-        
-        return new String(decrypted, "UTF-8");
+        return cipher.doFinal(encrypted);
     }
 
     private SecretKey getOrCreateKey() throws Exception {
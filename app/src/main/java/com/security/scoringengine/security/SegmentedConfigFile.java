@@ -0,0 +1,348 @@
+package com.security.scoringengine.security;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.security.scoringengine.config.ConfigPlan;
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Config file format with one encrypted section per top-level config key,
+ * so a reader can decrypt just the sections it needs. Each section holds a
+ * {@link ConfigPlan} of its value, so loading never parses JSON:
+ *
+ * <pre>
+ * "SCE2"
+ * file ID         16 random bytes
+ * section*        each a run of chunks: IV(12) | AES-GCM(plaintext &lt;= 64 KiB) | tag(16)
+ * index           IV(12) | AES-GCM(name, offset, length of every section) | tag(16)
+ * index offset    8 bytes
+ * </pre>
+ *
+ * Every chunk is authenticated on its own, with the file ID, the section
+ * name, its position and whether it is the last one as associated data, so
+ * chunks cannot be reordered, moved between sections or files, or cut off. Sections are
+ * decrypted one chunk at a time, so only the plan being decoded is held.
+ */
+public final class SegmentedConfigFile {
+    private static final byte[] MAGIC = {'S', 'C', 'E', '2'};
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int IV_LENGTH = 12;
+    private static final int FILE_ID_LENGTH = 16;
+    private static final int TAG_BYTES = GCM_TAG_LENGTH / 8;
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final String INDEX_NAME = "\u0000index";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SegmentedConfigFile() {
+    }
+
+    /** True if {@code header} starts with this format's magic. */
+    public static boolean isSegmented(byte[] header) {
+        if (header.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /** Encrypts each member of {@code config} as its own section. */
+    public static void write(JsonObject config, OutputStream out, SecretKey key) throws IOException {
+        SectionWriter writer = new SectionWriter(out, key);
+        for (Map.Entry<String, JsonElement> section : config.entrySet()) {
+            writer.writeSection(section.getKey(), section.getValue());
+        }
+        writer.finish();
+    }
+
+    /**
+     * Writes a config one section at a time, for callers that never hold the
+     * whole config. {@link #finish} appends the index.
+     */
+    public static final class SectionWriter {
+        private final CountingOutputStream file;
+        private final SecretKey key;
+        private final byte[] fileId = new byte[FILE_ID_LENGTH];
+        private final List<String> names = new ArrayList<>();
+        private final List<long[]> extents = new ArrayList<>();
+
+        public SectionWriter(OutputStream out, SecretKey key) throws IOException {
+            this.file = new CountingOutputStream(out);
+            this.key = key;
+            new SecureRandom().nextBytes(fileId);
+            file.write(MAGIC);
+            file.write(fileId);
+        }
+
+        public void writeSection(String name, JsonElement value) throws IOException {
+            long offset = file.count;
+            ChunkOutputStream chunks = new ChunkOutputStream(file, key, fileId, name);
+            ConfigPlan.write(value, chunks);
+            chunks.finish();
+            names.add(name);
+            extents.add(new long[]{offset, chunks.plainLength});
+        }
+
+        public void finish() throws IOException {
+            long indexOffset = file.count;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(index);
+            data.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                data.writeUTF(names.get(i));
+                data.writeLong(extents.get(i)[0]);
+                data.writeLong(extents.get(i)[1]);
+            }
+            writeChunk(file, key, fileId, INDEX_NAME, 0, true, index.toByteArray(), 0, index.size());
+            new DataOutputStream(file).writeLong(indexOffset);
+            file.flush();
+        }
+    }
+
+    /**
+     * Decrypts and decodes the sections named in {@code names}, or all of
+     * them when null. Fields whose section is not read stay null.
+     */
+    public static ScoringConfig read(File file, SecretKey key, Collection<String> names) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!isSegmented(magic)) {
+                throw new IOException("Not a segmented config");
+            }
+            byte[] fileId = new byte[FILE_ID_LENGTH];
+            in.readFully(fileId);
+            in.seek(in.length() - 8);
+            long indexOffset = in.readLong();
+            if (indexOffset < MAGIC.length + FILE_ID_LENGTH || indexOffset > in.length() - 8) {
+                throw new IOException("Corrupt config index offset");
+            }
+            in.seek(indexOffset);
+            byte[] index = readChunk(in, key, fileId, INDEX_NAME, 0, true,
+                (int) (in.length() - 8 - indexOffset - IV_LENGTH));
+
+            ScoringConfig config = new ScoringConfig();
+            DataInputStream entries = new DataInputStream(new ByteArrayInputStream(index));
+            int count = entries.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = entries.readUTF();
+                long offset = entries.readLong();
+                long length = entries.readLong();
+                if (names != null && !names.contains(name)) {
+                    continue;
+                }
+                if (length < 0 || length > Integer.MAX_VALUE) {
+                    throw new IOException("Corrupt length for config section " + name);
+                }
+                byte[] plan = new byte[(int) length];
+                new DataInputStream(new SectionInputStream(in, key, fileId, name, offset, length)).readFully(plan);
+                ConfigPlan.readSection(ByteBuffer.wrap(plan), name, config);
+            }
+            return config;
+        }
+    }
+
+    private static byte[] aad(byte[] fileId, String section, int chunk, boolean last) {
+        byte[] name = section.getBytes(UTF_8);
+        byte[] aad = new byte[MAGIC.length + FILE_ID_LENGTH + name.length + 5];
+        System.arraycopy(MAGIC, 0, aad, 0, MAGIC.length);
+        System.arraycopy(fileId, 0, aad, MAGIC.length, FILE_ID_LENGTH);
+        System.arraycopy(name, 0, aad, MAGIC.length + FILE_ID_LENGTH, name.length);
+        int at = MAGIC.length + FILE_ID_LENGTH + name.length;
+        aad[at] = (byte) (chunk >>> 24);
+        aad[at + 1] = (byte) (chunk >>> 16);
+        aad[at + 2] = (byte) (chunk >>> 8);
+        aad[at + 3] = (byte) chunk;
+        aad[at + 4] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    private static void writeChunk(OutputStream out, SecretKey key, byte[] fileId, String section, int chunk,
+                                   boolean last, byte[] plain, int off, int len) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            // The key requires a random IV, so the cipher picks it
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            cipher.updateAAD(aad(fileId, section, chunk, last));
+            byte[] iv = cipher.getIV();
+            if (iv.length != IV_LENGTH) {
+                throw new IOException("Unexpected IV length " + iv.length);
+            }
+            out.write(iv);
+            out.write(cipher.doFinal(plain, off, len));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not encrypt config", e);
+        }
+    }
+
+    /** Reads and decrypts the chunk at the file's position. */
+    private static byte[] readChunk(RandomAccessFile in, SecretKey key, byte[] fileId, String section, int chunk,
+                                    boolean last, int cipherLength) throws IOException {
+        if (cipherLength < TAG_BYTES) {
+            throw new EOFException("Truncated config section " + section);
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        in.readFully(iv);
+        byte[] encrypted = new byte[cipherLength];
+        in.readFully(encrypted);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            cipher.updateAAD(aad(fileId, section, chunk, last));
+            return cipher.doFinal(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Config section " + section + " failed authentication", e);
+        }
+    }
+
+    /** Splits what is written into fixed-size encrypted chunks. */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final SecretKey key;
+        private final byte[] fileId;
+        private final String section;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int buffered;
+        private int chunk;
+        long plainLength;
+
+        ChunkOutputStream(OutputStream out, SecretKey key, byte[] fileId, String section) {
+            this.out = out;
+            this.key = key;
+            this.fileId = fileId;
+            this.section = section;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (buffered == CHUNK_SIZE) {
+                    // More is coming, so this chunk is not the last
+                    writeChunk(out, key, fileId, section, chunk++, false, buffer, 0, buffered);
+                    buffered = 0;
+                }
+                int n = Math.min(len, CHUNK_SIZE - buffered);
+                System.arraycopy(b, off, buffer, buffered, n);
+                buffered += n;
+                plainLength += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void finish() throws IOException {
+            writeChunk(out, key, fileId, section, chunk, true, buffer, 0, buffered);
+        }
+    }
+
+    /** Decrypts a section one chunk at a time. */
+    private static final class SectionInputStream extends InputStream {
+        private final RandomAccessFile file;
+        private final SecretKey key;
+        private final byte[] fileId;
+        private final String section;
+        private final int chunkCount;
+        private final long plainLength;
+        private long position;
+        private int chunk;
+        private byte[] plain = new byte[0];
+        private int read;
+
+        SectionInputStream(RandomAccessFile file, SecretKey key, byte[] fileId, String section, long offset,
+                           long plainLength) {
+            this.file = file;
+            this.key = key;
+            this.fileId = fileId;
+            this.section = section;
+            this.plainLength = plainLength;
+            this.chunkCount = (int) Math.max(1, (plainLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            this.position = offset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (read == plain.length) {
+                if (chunk == chunkCount) {
+                    return -1;
+                }
+                boolean last = chunk == chunkCount - 1;
+                int length = last ? (int) (plainLength - (long) chunk * CHUNK_SIZE) : CHUNK_SIZE;
+                // The file is shared between sections, so seek before each chunk
+                file.seek(position);
+                plain = readChunk(file, key, fileId, section, chunk, last, length + TAG_BYTES);
+                position += IV_LENGTH + length + TAG_BYTES;
+                chunk++;
+                read = 0;
+                if (plain.length == 0) {
+                    return chunk == chunkCount ? -1 : read(b, off, len);
+                }
+            }
+            int n = Math.min(len, plain.length - read);
+            System.arraycopy(plain, read, b, off, n);
+            read += n;
+            return n;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
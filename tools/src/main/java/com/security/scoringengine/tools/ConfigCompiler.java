@@ -0,0 +1,101 @@
+package com.security.scoringengine.tools;
+
+import com.security.scoringengine.config.ConfigPlan;
+import com.security.scoringengine.config.ConfigValidator;
+import com.security.scoringengine.models.ScoringConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates scoring configs and compiles them into binary plans.
+ *
+ * <pre>
+ * config-compiler validate [--strict] config.json
+ * config-compiler compile [--strict] config.json out.plan
+ * </pre>
+ *
+ * Exits with 1 when the config has errors, or warnings under --strict, and
+ * with 2 on bad usage.
+ */
+public class ConfigCompiler {
+
+    public static void main(String[] args) {
+        boolean strict = false;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if ("--strict".equals(arg)) {
+                strict = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+        
+        if (positional.size() == 2 && "validate".equals(positional.get(0))) {
+            System.exit(run(new File(positional.get(1)), null, strict));
+        } else if (positional.size() == 3 && "compile".equals(positional.get(0))) {
+            System.exit(run(new File(positional.get(1)), new File(positional.get(2)), strict));
+        }
+        
+        System.err.println("Usage:");
+        System.err.println("  config-compiler validate [--strict] <config.json>");
+        System.err.println("  config-compiler compile [--strict] <config.json> <out.plan>");
+        System.exit(2);
+    }
+
+    private static int run(File input, File output, boolean strict) {
+        ConfigValidator.Result result;
+        try (Reader reader = new InputStreamReader(new FileInputStream(input), "UTF-8")) {
+            result = new ConfigValidator().validate(reader);
+        } catch (IOException e) {
+            System.err.println(input + ": " + e.getMessage());
+            return 1;
+        }
+        
+        for (ConfigValidator.Issue issue : result.getIssues()) {
+            System.out.println(input.getName() + ": " + issue);
+        }
+        int errors = result.count(ConfigValidator.Severity.ERROR);
+        int warnings = result.count(ConfigValidator.Severity.WARNING);
+        System.out.println(input.getName() + ": " + errors + " error(s), " + warnings + " warning(s)");
+        
+        if (errors > 0 || (strict && warnings > 0)) {
+            return 1;
+        }
+        if (output == null) {
+            return 0;
+        }
+        
+        ScoringConfig config = result.getConfig();
+        try (FileOutputStream out = new FileOutputStream(output)) {
+            ConfigPlan.write(config, out);
+        } catch (IOException e) {
+            System.err.println(output + ": " + e.getMessage());
+            return 1;
+        }
+        
+        // Import the plan back the way the app does: decode it and validate it again
+        try {
+            ConfigValidator.Result reloaded = new ConfigValidator().validate(
+                ConfigPlan.readTree(ByteBuffer.wrap(Files.readAllBytes(output.toPath()))), null);
+            if (reloaded.hasErrors()) {
+                System.err.println(output + ": compiled plan failed validation: " + reloaded.getIssues());
+                return 1;
+            }
+        } catch (IOException e) {
+            System.err.println(output + ": compiled plan failed to load: " + e.getMessage());
+            return 1;
+        }
+        System.out.println("Wrote " + output + " (" + output.length() + " bytes, from "
+            + input.length() + " bytes of JSON)");
+        return 0;
+    }
+}
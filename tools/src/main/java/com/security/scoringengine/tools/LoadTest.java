@@ -0,0 +1,276 @@
+package com.security.scoringengine.tools;
+
+import com.security.scoringengine.scoring.ScoringEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Scores a large {@link SyntheticDevice} repeatedly with one engine, as the
+ * service does, and reports pass latency, allocation and peak heap.
+ *
+ * <pre>
+ * load-test [--settings N] [--files N] [--apps N] [--questions N] [--users N]
+ *           [--warmup N] [--passes N] [--thresholds FILE [--record]]
+ * </pre>
+ *
+ * A thresholds file is a properties file holding the sizes to generate and
+ * the accepted {@code p50Millis} and {@code p99Millis}. The run exits with 1
+ * if either is exceeded by more than {@code tolerance} (a fraction, 0.5 by
+ * default). {@code --record} writes this run's figures to the file instead,
+ * for a new baseline, leaving its comments and layout as they were. Sizes
+ * given on the command line override the file's.
+ */
+public class LoadTest {
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        SyntheticDevice.Sizes sizes = new SyntheticDevice.Sizes();
+        int warmup = 20;
+        int passes = 100;
+        File thresholdsFile = null;
+        boolean record = false;
+        Properties thresholds = new Properties();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--thresholds".equals(args[i])) {
+                    thresholdsFile = new File(args[++i]);
+                } else if ("--record".equals(args[i])) {
+                    record = true;
+                }
+            }
+            if (thresholdsFile != null && thresholdsFile.isFile()) {
+                try (InputStream in = new FileInputStream(thresholdsFile)) {
+                    thresholds.load(in);
+                }
+                sizes.settings = intProperty(thresholds, "settings", sizes.settings);
+                sizes.fileDeletions = intProperty(thresholds, "fileDeletions", sizes.fileDeletions);
+                sizes.apps = intProperty(thresholds, "apps", sizes.apps);
+                sizes.forensicsQuestions = intProperty(thresholds, "forensicsQuestions", sizes.forensicsQuestions);
+                sizes.users = intProperty(thresholds, "users", sizes.users);
+                warmup = intProperty(thresholds, "warmup", warmup);
+                passes = intProperty(thresholds, "passes", passes);
+            }
+            for (int i = 0; i < args.length; i++) {
+                if ("--settings".equals(args[i])) {
+                    sizes.settings = Integer.parseInt(args[++i]);
+                } else if ("--files".equals(args[i])) {
+                    sizes.fileDeletions = Integer.parseInt(args[++i]);
+                } else if ("--apps".equals(args[i])) {
+                    sizes.apps = Integer.parseInt(args[++i]);
+                } else if ("--questions".equals(args[i])) {
+                    sizes.forensicsQuestions = Integer.parseInt(args[++i]);
+                } else if ("--users".equals(args[i])) {
+                    sizes.users = Integer.parseInt(args[++i]);
+                } else if ("--warmup".equals(args[i])) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if ("--passes".equals(args[i])) {
+                    passes = Integer.parseInt(args[++i]);
+                } else if ("--thresholds".equals(args[i])) {
+                    i++;
+                } else if (!"--record".equals(args[i])) {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Usage: load-test [--settings N] [--files N] [--apps N] [--questions N] [--users N] "
+                + "[--warmup N] [--passes N] [--thresholds FILE [--record]]");
+            System.exit(2);
+            return;
+        }
+        if (passes < 1 || warmup < 0) {
+            System.err.println("--passes must be at least 1");
+            System.exit(2);
+        }
+
+        Report report = run(sizes, warmup, passes);
+        System.out.println("Load test: " + sizes);
+        System.out.println(report);
+
+        if (thresholdsFile == null) {
+            return;
+        }
+        if (record) {
+            System.exit(record(thresholdsFile, sizes, warmup, passes, thresholds, report));
+        }
+        System.exit(check(thresholds, report));
+    }
+
+    static Report run(SyntheticDevice.Sizes sizes, int warmup, int passes) {
+        long buildStart = System.nanoTime();
+        SyntheticDevice device = new SyntheticDevice(sizes, SEED);
+        ScoringEngine engine = new ScoringEngine(device, device.config);
+        Report report = new Report();
+        report.compileMillis = (System.nanoTime() - buildStart) / 1e6;
+
+        for (int i = 0; i < warmup; i++) {
+            engine.calculateScore();
+        }
+
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(thread) : -1;
+
+        long[] latencies = new long[passes];
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            long passStart = System.nanoTime();
+            ScoringEngine.ScoringResult result = engine.calculateScore();
+            latencies[i] = System.nanoTime() - passStart;
+            report.points = result.getCurrentPoints();
+            report.maxPoints = result.getMaxPoints();
+            report.checks = result.getCheckCount();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (allocatedBefore >= 0) {
+            long allocated = allocations.getThreadAllocatedBytes(thread) - allocatedBefore;
+            report.allocatedBytesPerPass = allocated / passes;
+            report.allocationMbPerSecond = allocated / (1024.0 * 1024.0) / (elapsed / 1e9);
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        report.peakHeapMb = peak / (1024.0 * 1024.0);
+
+        Arrays.sort(latencies);
+        report.passes = passes;
+        report.p50Millis = percentile(latencies, 0.50) / 1e6;
+        report.p99Millis = percentile(latencies, 0.99) / 1e6;
+        report.maxMillis = latencies[latencies.length - 1] / 1e6;
+        return report;
+    }
+
+    /** Nearest-rank percentile of sorted values. */
+    private static long percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static int check(Properties thresholds, Report report) {
+        double tolerance = doubleProperty(thresholds, "tolerance", 0.5);
+        int failures = 0;
+        failures += checkOne("p50", report.p50Millis, doubleProperty(thresholds, "p50Millis", -1), tolerance);
+        failures += checkOne("p99", report.p99Millis, doubleProperty(thresholds, "p99Millis", -1), tolerance);
+        return failures > 0 ? 1 : 0;
+    }
+
+    private static int checkOne(String name, double measured, double threshold, double tolerance) {
+        if (threshold < 0) {
+            return 0;
+        }
+        double limit = threshold * (1 + tolerance);
+        if (measured > limit) {
+            System.err.println(String.format(Locale.ROOT,
+                "%s latency regressed: %.2f ms, threshold %.2f ms + %.0f%% = %.2f ms",
+                name, measured, threshold, tolerance * 100, limit));
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int record(File file, SyntheticDevice.Sizes sizes, int warmup, int passes,
+                              Properties thresholds, Report report) {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("settings", String.valueOf(sizes.settings));
+        values.put("fileDeletions", String.valueOf(sizes.fileDeletions));
+        values.put("apps", String.valueOf(sizes.apps));
+        values.put("forensicsQuestions", String.valueOf(sizes.forensicsQuestions));
+        values.put("users", String.valueOf(sizes.users));
+        values.put("warmup", String.valueOf(warmup));
+        values.put("passes", String.valueOf(passes));
+        values.put("p50Millis", String.format(Locale.ROOT, "%.2f", report.p50Millis));
+        values.put("p99Millis", String.format(Locale.ROOT, "%.2f", report.p99Millis));
+        if (thresholds.getProperty("tolerance") == null) {
+            values.put("tolerance", "0.5");
+        }
+        try {
+            // Properties.store would drop the file's comments, so rewrite
+            // only the value lines and append any keys the file lacked
+            List<String> lines = file.isFile()
+                ? Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1) : new ArrayList<String>();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                int separator = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("!") || separator < 0) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim();
+                String value = values.remove(key);
+                if (value != null) {
+                    lines.set(i, key + "=" + value);
+                }
+            }
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                lines.add(entry.getKey() + "=" + entry.getValue());
+            }
+            Files.write(file.toPath(), lines, StandardCharsets.ISO_8859_1);
+            System.out.println("Recorded thresholds to " + file);
+            return 0;
+        } catch (IOException e) {
+            System.err.println(file + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int intProperty(Properties properties, String name, int fallback) {
+        String value = properties.getProperty(name);
+        return value != null ? Integer.parseInt(value.trim()) : fallback;
+    }
+
+    private static double doubleProperty(Properties properties, String name, double fallback) {
+        String value = properties.getProperty(name);
+        return value != null ? Double.parseDouble(value.trim()) : fallback;
+    }
+
+    static class Report {
+        int checks;
+        int points;
+        int maxPoints;
+        int passes;
+        double compileMillis;
+        double p50Millis;
+        double p99Millis;
+        double maxMillis;
+        long allocatedBytesPerPass = -1;
+        double allocationMbPerSecond = -1;
+        double peakHeapMb;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                "%d checks, %d/%d points, compiled in %.1f ms%n"
+                    + "%d passes: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n"
+                    + "allocation: %s per pass, %s%n"
+                    + "peak heap: %.1f MB",
+                checks, points, maxPoints, compileMillis, passes, p50Millis, p99Millis, maxMillis,
+                allocatedBytesPerPass >= 0 ? (allocatedBytesPerPass / 1024) + " KB" : "unavailable",
+                allocationMbPerSecond >= 0 ? String.format(Locale.ROOT, "%.1f MB/s", allocationMbPerSecond) : "",
+                peakHeapMb);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.security.scoringengine.tools;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+import com.security.scoringengine.scoring.DeviceReader;
+import com.security.scoringengine.scoring.FileHashCache;
+import com.security.scoringengine.scoring.FileScan;
+import com.security.scoringengine.scoring.ProcNet;
+import com.security.scoringengine.scoring.ProcessTable;
+import com.security.scoringengine.scoring.SettingsNamespace;
+import com.security.scoringengine.scoring.SettingsXml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads device state from a captured image directory instead of a live
+ * device:
+ *
+ * <pre>
+ * policy_state.json          copy of the policy manager's state file
+ * settings_secure.xml        copies of /data/system/users/0/settings_*.xml
+ * settings_system.xml
+ * settings_global.xml
+ * packages.json              [{"packageName", "versionName", "versionCode", "uid"}],
+ *                            uid being optional
+ * package_states.json        optional {"package": {"grantedPermissions": [...],
+ *                            "enabledComponents": [class names], "appOps":
+ *                            {"CAMERA": "ignore"}}} for installed packages
+ * files.txt                  absolute paths of files that existed on the device
+ * hashes.txt                 optional sha256sum output for watched files
+ * processes.txt              optional, one running process per line as
+ *                            "name&lt;TAB&gt;arguments joined by spaces"
+ * proc_net.txt               optional, /proc/net/tcp, tcp6, udp and udp6 each
+ *                            after a "#tcp", "#tcp6", ... line
+ * forensics_answers.json     optional {"questionId": true}
+ * </pre>
+ *
+ * Missing files read as empty, except policy_state.json which fails like an
+ * unreadable policy file does on the device, and package_states.json,
+ * processes.txt and proc_net.txt whose absence leaves their checks unscored.
+ */
+public class SnapshotDeviceReader implements DeviceReader {
+    private final File dir;
+
+    public SnapshotDeviceReader(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    @Override
+    public PolicyState readPolicyState() throws Exception {
+        try (Reader reader = open("policy_state.json")) {
+            PolicyState state = new Gson().fromJson(reader, PolicyState.class);
+            if (state == null) {
+                throw new IOException("Policy file is empty");
+            }
+            return state;
+        }
+    }
+
+    @Override
+    public Map<String, String> readSettings(SettingsNamespace namespace) {
+        File file = new File(dir, namespace.getFileName());
+        if (!file.isFile()) {
+            return new HashMap<>();
+        }
+        try (BufferedReader reader = new BufferedReader(open(namespace.getFileName()))) {
+            return SettingsXml.parse(reader);
+        } catch (IOException e) {
+            android.util.Log.w("ScoringEngine", "Could not read " + file, e);
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    public Map<String, InstalledPackage> readInstalledPackages() {
+        Map<String, InstalledPackage> packages = new HashMap<>();
+        if (!new File(dir, "packages.json").isFile()) {
+            return packages;
+        }
+        try (Reader reader = open("packages.json")) {
+            List<InstalledPackage> list = new Gson().fromJson(reader,
+                    new TypeToken<List<InstalledPackage>>() {}.getType());
+            if (list != null) {
+                for (InstalledPackage pkg : list) {
+                    if (pkg != null && pkg.packageName != null) {
+                        packages.put(pkg.packageName, pkg);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Could not read packages.json in " + dir, e);
+        }
+        return packages;
+    }
+
+    @Override
+    public Map<String, PackageState> readPackageStates(Collection<String> packages, Collection<String> opPackages) {
+        if (!new File(dir, "package_states.json").isFile()) {
+            return null;
+        }
+        Map<String, PackageState> states = new HashMap<>();
+        try (Reader reader = open("package_states.json")) {
+            Map<String, PackageState> all = new Gson().fromJson(reader,
+                    new TypeToken<Map<String, PackageState>>() {}.getType());
+            if (all != null) {
+                for (String pkg : packages) {
+                    PackageState state = all.get(pkg);
+                    if (state != null) {
+                        state.packageName = pkg;
+                        states.put(pkg, state);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Could not read package_states.json in " + dir, e);
+            return null;
+        }
+        return states;
+    }
+
+    @Override
+    public Set<String> findExistingFiles(Collection<String> paths) {
+        if (paths.isEmpty() || !new File(dir, "files.txt").isFile()) {
+            return Collections.emptySet();
+        }
+        Set<String> wanted = new HashSet<>(paths);
+        Set<String> existing = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(open("files.txt"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String path = line.trim();
+                if (wanted.contains(path)) {
+                    existing.add(path);
+                }
+            }
+        } catch (IOException e) {
+            android.util.Log.w("ScoringEngine", "Could not read files.txt in " + dir, e);
+        }
+        return existing;
+    }
+
+    @Override
+    public Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache) {
+        Map<String, String> digests = new HashMap<>();
+        if (paths.isEmpty() || !new File(dir, "hashes.txt").isFile()) {
+            return digests;
+        }
+        Set<String> wanted = new HashSet<>(paths);
+        try (BufferedReader reader = new BufferedReader(open("hashes.txt"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // sha256sum format: "<hex>  <path>"
+                if (line.length() > 66 && wanted.contains(line.substring(66))) {
+                    digests.put(line.substring(66), line.substring(0, 64).toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException e) {
+            android.util.Log.w("ScoringEngine", "Could not read hashes.txt in " + dir, e);
+        }
+        return digests;
+    }
+
+    @Override
+    public List<ProcessTable.RunningProcess> readProcesses(ProcessTable table) {
+        if (!new File(dir, "processes.txt").isFile()) {
+            return null;
+        }
+        List<ProcessTable.RunningProcess> processes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(open("processes.txt"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    processes.add(new ProcessTable.RunningProcess(line.substring(0, tab), line.substring(tab + 1).trim()));
+                }
+            }
+        } catch (IOException e) {
+            android.util.Log.w("ScoringEngine", "Could not read processes.txt in " + dir, e);
+            return null;
+        }
+        return processes;
+    }
+
+    @Override
+    public List<ProcNet.Listener> readListeners() {
+        File file = new File(dir, "proc_net.txt");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return ProcNet.parse(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            android.util.Log.w("ScoringEngine", "Could not read proc_net.txt in " + dir, e);
+            return null;
+        }
+    }
+
+    @Override
+    public List<FileScan.Result> scanFiles(List<FileScan.Query> queries) {
+        List<List<String>> listings = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            listings.add(new ArrayList<String>());
+        }
+        if (!queries.isEmpty() && new File(dir, "files.txt").isFile()) {
+            try (BufferedReader reader = new BufferedReader(open("files.txt"))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String path = line.trim();
+                    for (int i = 0; i < queries.size(); i++) {
+                        FileScan.Query query = queries.get(i);
+                        if (listings.get(i).size() <= query.limit && inScope(query, path)) {
+                            listings.get(i).add(path);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                android.util.Log.w("ScoringEngine", "Could not read files.txt in " + dir, e);
+            }
+        }
+        List<FileScan.Result> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(FileScan.Result.of(listings.get(i), queries.get(i).limit));
+        }
+        return results;
+    }
+
+    private static boolean inScope(FileScan.Query query, String path) {
+        String prefix = query.root.endsWith("/") ? query.root : query.root + "/";
+        if (!path.startsWith(prefix) || path.length() == prefix.length()) {
+            return false;
+        }
+        String relative = path.substring(prefix.length());
+        int depth = 1;
+        for (int i = 0; i < relative.length(); i++) {
+            if (relative.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        String name = relative.substring(relative.lastIndexOf('/') + 1);
+        return depth >= query.minDepth && depth <= query.maxDepth && query.acceptsName(name);
+    }
+
+    @Override
+    public Map<String, Boolean> readForensicsAnswers() {
+        if (!new File(dir, "forensics_answers.json").isFile()) {
+            return new HashMap<>();
+        }
+        try (Reader reader = open("forensics_answers.json")) {
+            Map<String, Boolean> answers = new Gson().fromJson(reader,
+                    new TypeToken<Map<String, Boolean>>() {}.getType());
+            return answers != null ? answers : new HashMap<String, Boolean>();
+        } catch (Exception e) {
+            android.util.Log.w("ScoringEngine", "Could not read forensics_answers.json in " + dir, e);
+            return new HashMap<>();
+        }
+    }
+
+    private Reader open(String name) throws IOException {
+        return new InputStreamReader(new FileInputStream(new File(dir, name)), "UTF-8");
+    }
+}
@@ -0,0 +1,308 @@
+package com.security.scoringengine.tools;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.security.scoringengine.config.ConfigLoader;
+import com.security.scoringengine.models.ScoreItem;
+import com.security.scoringengine.models.ScoringConfig;
+import com.security.scoringengine.scoring.ScenarioSet;
+import com.security.scoringengine.scoring.ScoringEngine;
+import com.security.scoringengine.scoring.Tracer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scores captured device images (see {@link SnapshotDeviceReader}) against a
+ * config on the host, one engine per image on a fork-join pool.
+ *
+ * <pre>
+ * score-snapshots [--threads N] [--out DIR] [--trace FILE] [--scenario NAME=CONFIG]...
+ *                 config.json|config.plan IMAGE...
+ * </pre>
+ *
+ * An IMAGE argument that is not itself an image directory is treated as a
+ * folder of images. Each result is written to DIR/&lt;image&gt;.json, or to
+ * stdout as one JSON line per image. An image holding an
+ * {@code expected_points} file is checked against it, and any mismatch or
+ * failure makes the run exit with 1. {@code --trace} writes every image's
+ * pass as Chrome trace JSON.
+ *
+ * Each {@code --scenario} adds a config that every image is also scored
+ * against, from the same read of the image; its result goes under
+ * "scenarios" in the image's JSON.
+ */
+public class SnapshotRunner {
+    private static final String MAIN_SCENARIO = "\u0000main";
+    private static final String[] IMAGE_MARKERS = {
+            "policy_state.json", "packages.json", "files.txt", "settings_secure.xml"
+    };
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outDir = null;
+        File traceFile = null;
+        List<String> scenarioArgs = new ArrayList<>();
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--threads".equals(args[i])) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--out".equals(args[i])) {
+                    outDir = new File(args[++i]);
+                } else if ("--trace".equals(args[i])) {
+                    traceFile = new File(args[++i]);
+                } else if ("--scenario".equals(args[i])) {
+                    scenarioArgs.add(args[++i]);
+                } else {
+                    positional.add(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            positional.clear();
+        }
+        
+        if (positional.size() < 2 || threads < 1) {
+            System.err.println("Usage: score-snapshots [--threads N] [--out DIR] [--trace FILE] "
+                + "[--scenario NAME=CONFIG]... <config> <image>...");
+            System.exit(2);
+        }
+        
+        ScoringConfig config;
+        Map<String, ScoringConfig> scenarios = new LinkedHashMap<>();
+        String current = positional.get(0);
+        try {
+            config = ConfigLoader.parse(Files.readAllBytes(new File(current).toPath()));
+            for (String arg : scenarioArgs) {
+                int eq = arg.indexOf('=');
+                if (eq <= 0 || eq == arg.length() - 1) {
+                    System.err.println("--scenario expects NAME=CONFIG, got " + arg);
+                    System.exit(2);
+                }
+                current = arg.substring(eq + 1);
+                scenarios.put(arg.substring(0, eq), ConfigLoader.parse(Files.readAllBytes(new File(current).toPath())));
+            }
+        } catch (Exception e) {
+            System.err.println(current + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        
+        List<File> images = new ArrayList<>();
+        for (String arg : positional.subList(1, positional.size())) {
+            collectImages(new File(arg), images);
+        }
+        if (outDir != null && !outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("Cannot create " + outDir);
+            System.exit(1);
+        }
+        
+        // Sized for a few hundred spans per pass
+        Tracer tracer = traceFile != null ? new Tracer(Math.max(1, images.size()) * 256) : Tracer.DISABLED;
+        int status = run(config, scenarios, images, threads, outDir, tracer);
+        if (traceFile != null) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(traceFile), "UTF-8")) {
+                tracer.writeChromeTrace(writer, images.size());
+            } catch (IOException e) {
+                System.err.println(traceFile + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        System.exit(status);
+    }
+
+    static int run(final ScoringConfig config, final Map<String, ScoringConfig> scenarios, List<File> images,
+                   int threads, final File outDir, final Tracer tracer) {
+        GsonBuilder builder = new GsonBuilder().disableHtmlEscaping();
+        if (outDir != null) {
+            builder.setPrettyPrinting();
+        }
+        final Gson gson = builder.create();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        
+        List<ForkJoinTask<ImageResult>> tasks = new ArrayList<>(images.size());
+        for (final File image : images) {
+            tasks.add(pool.submit(new Callable<ImageResult>() {
+                @Override
+                public ImageResult call() throws Exception {
+                    ImageResult result = score(config, scenarios, image, tracer);
+                    if (outDir != null) {
+                        try (Writer writer = new OutputStreamWriter(
+                                new FileOutputStream(new File(outDir, result.image + ".json")), "UTF-8")) {
+                            gson.toJson(result, writer);
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+        
+        int failures = 0;
+        int regressions = 0;
+        long engineNanos = 0;
+        for (ForkJoinTask<ImageResult> task : tasks) {
+            ImageResult result = task.join();
+            engineNanos += result.elapsedMicros * 1000L;
+            if (result.error != null) {
+                failures++;
+                System.err.println(result.image + ": " + result.error);
+            } else if (result.expectedPoints != null && result.expectedPoints != result.currentPoints) {
+                regressions++;
+                System.err.println(result.image + ": scored " + result.currentPoints
+                        + ", expected " + result.expectedPoints);
+            }
+            if (outDir == null) {
+                System.out.println(gson.toJson(result));
+            }
+        }
+        pool.shutdown();
+        
+        long wallNanos = System.nanoTime() - start;
+        double seconds = wallNanos / 1e9;
+        System.err.println(String.format(java.util.Locale.ROOT,
+                "%d images on %d threads in %.2f s (%.1f images/s, %.2f ms engine time per image), "
+                        + "%d failed, %d regressed",
+                images.size(), threads, seconds, seconds > 0 ? images.size() / seconds : 0.0,
+                images.isEmpty() ? 0.0 : engineNanos / 1e6 / images.size(), failures, regressions));
+        return failures + regressions > 0 ? 1 : 0;
+    }
+
+    static ImageResult score(ScoringConfig config, Map<String, ScoringConfig> scenarios, File image,
+                             Tracer tracer) {
+        ImageResult result = new ImageResult();
+        result.image = image.getName();
+        long start = System.nanoTime();
+        try {
+            result.expectedPoints = readExpectedPoints(image);
+            SnapshotDeviceReader reader = new SnapshotDeviceReader(image);
+            ScoringEngine.ScoringResult scoring;
+            if (scenarios.isEmpty()) {
+                ScoringEngine engine = new ScoringEngine(reader, config);
+                engine.setTracer(tracer);
+                scoring = engine.calculateScore();
+            } else {
+                // The main config is scored as one more scenario of the same pass
+                Map<String, ScoringConfig> all = new LinkedHashMap<>();
+                all.put(MAIN_SCENARIO, config);
+                all.putAll(scenarios);
+                ScenarioSet set = new ScenarioSet(reader, all);
+                set.setTracer(tracer);
+                Map<String, ScoringEngine.ScoringResult> results = set.calculateScores();
+                scoring = results.remove(MAIN_SCENARIO);
+                result.scenarios = new LinkedHashMap<>();
+                for (Map.Entry<String, ScoringEngine.ScoringResult> scenario : results.entrySet()) {
+                    result.scenarios.put(scenario.getKey(), new ScenarioResult(scenario.getValue()));
+                }
+            }
+            result.currentPoints = scoring.getCurrentPoints();
+            result.maxPoints = scoring.getMaxPoints();
+            result.items = items(scoring);
+        } catch (Exception e) {
+            result.error = e.toString();
+        }
+        result.elapsedMicros = (System.nanoTime() - start) / 1000L;
+        return result;
+    }
+
+    private static List<Item> items(ScoringEngine.ScoringResult scoring) {
+        List<Item> items = new ArrayList<>();
+        for (ScoreItem item : scoring.getScoreItems()) {
+            items.add(new Item(item));
+        }
+        Collections.sort(items, ITEM_ORDER);
+        return items;
+    }
+
+    private static void collectImages(File file, List<File> images) {
+        if (isImage(file)) {
+            images.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            System.err.println(file + ": not an image directory");
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory() && isImage(child)) {
+                images.add(child);
+            }
+        }
+    }
+
+    private static boolean isImage(File dir) {
+        for (String marker : IMAGE_MARKERS) {
+            if (new File(dir, marker).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer readExpectedPoints(File image) throws IOException {
+        File file = new File(image, "expected_points");
+        if (!file.isFile()) {
+            return null;
+        }
+        return Integer.valueOf(new String(Files.readAllBytes(file.toPath()), "UTF-8").trim());
+    }
+
+    private static final Comparator<Item> ITEM_ORDER = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            int c = String.valueOf(a.category).compareTo(String.valueOf(b.category));
+            return c != 0 ? c : String.valueOf(a.description).compareTo(String.valueOf(b.description));
+        }
+    };
+
+    static class ImageResult {
+        String image;
+        int currentPoints;
+        int maxPoints;
+        Integer expectedPoints;
+        long elapsedMicros;
+        String error;
+        List<Item> items;
+        Map<String, ScenarioResult> scenarios;
+    }
+
+    static class ScenarioResult {
+        int currentPoints;
+        int maxPoints;
+        List<Item> items;
+
+        ScenarioResult(ScoringEngine.ScoringResult scoring) {
+            this.currentPoints = scoring.getCurrentPoints();
+            this.maxPoints = scoring.getMaxPoints();
+            this.items = items(scoring);
+        }
+    }
+
+    static class Item {
+        String category;
+        String description;
+        int points;
+
+        Item(ScoreItem item) {
+            this.category = item.getCategory().getLabel();
+            this.description = item.getDescription();
+            this.points = item.getPoints();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.security.scoringengine.tools;
+
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+import com.security.scoringengine.models.ScoringConfig;
+import com.security.scoringengine.scoring.DeviceReader;
+import com.security.scoringengine.scoring.FileHashCache;
+import com.security.scoringengine.scoring.FileScan;
+import com.security.scoringengine.scoring.ProcNet;
+import com.security.scoringengine.scoring.ProcessTable;
+import com.security.scoringengine.scoring.SettingsNamespace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A generated config and a matching in-memory device, for exercising the
+ * engine at sizes no real scenario has. Roughly half of every kind of check
+ * is met, so both branches of each check run. The same sizes and seed always
+ * give the same config and device.
+ *
+ * The reader hands out fresh copies of its state on every call, as the real
+ * readers build new collections each pass, but does no I/O; a pass measures
+ * the engine, not the device.
+ */
+public class SyntheticDevice implements DeviceReader {
+    private static final int FILES_PER_DIR = 100;
+
+    /** How many of each kind of check to generate. */
+    public static class Sizes {
+        public int settings = 10000;
+        public int fileDeletions = 5000;
+        public int apps = 2000;
+        public int forensicsQuestions = 500;
+        public int users = 50;
+
+        @Override
+        public String toString() {
+            return settings + " settings, " + fileDeletions + " file deletions, " + apps + " apps, "
+                + forensicsQuestions + " forensics questions, " + users + " users";
+        }
+    }
+
+    public final ScoringConfig config;
+    private final PolicyState policyState;
+    private final Map<SettingsNamespace, Map<String, String>> settings = new EnumMap<>(SettingsNamespace.class);
+    private final Map<String, InstalledPackage> packages = new HashMap<>();
+    private final Set<String> files = new HashSet<>();
+    private final Map<String, Boolean> answers = new HashMap<>();
+
+    public SyntheticDevice(Sizes sizes, long seed) {
+        Random random = new Random(seed);
+        config = new ScoringConfig();
+        policyState = new PolicyState();
+        generateUsers(sizes.users, random);
+        generatePolicies();
+        generateSettings(sizes.settings, random);
+        generateFiles(sizes.fileDeletions, random);
+        generateApps(sizes.apps, random);
+        generateQuestions(sizes.forensicsQuestions, random);
+
+        ScoringConfig.PenaltiesAndPoints points = new ScoringConfig.PenaltiesAndPoints();
+        points.updatePoints = 2;
+        points.appInstallPoints = 2;
+        points.appDeletionsPoints = 2;
+        points.fileDeletionPoints = 1;
+        points.settingsPoints = 1;
+        points.policyPoints = 3;
+        points.userPoints = 2;
+        points.userPenalty = 5;
+        points.appPenalty = 5;
+        points.forensicsPoints = 4;
+        config.penaltiesandPoints = points;
+    }
+
+    private void generateUsers(int count, Random random) {
+        config.UsersAdditions = new ArrayList<>();
+        config.AuthorizedUsers = new ArrayList<>();
+        config.UnauthorizedUsers = new ArrayList<>();
+        policyState.userProfiles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = "user" + i;
+            List<String> list = i % 3 == 0 ? config.UsersAdditions
+                : i % 3 == 1 ? config.AuthorizedUsers : config.UnauthorizedUsers;
+            list.add(name);
+            if (random.nextBoolean()) {
+                PolicyState.UserProfile profile = new PolicyState.UserProfile();
+                profile.userId = 10 + i;
+                profile.userName = name;
+                policyState.userProfiles.add(profile);
+            }
+        }
+    }
+
+    private void generatePolicies() {
+        config.deviceRestrictions = new ScoringConfig.DeviceRestrictions();
+        config.deviceRestrictions.screenCaptureDisabled = true;
+        config.deviceRestrictions.networkLoggingEnabled = true;
+        config.userRestrictions = new ScoringConfig.UserRestrictions();
+        config.userRestrictions.disallowDebugging = true;
+        config.userRestrictions.noPrinting = true;
+        config.passwordPolicies = new ScoringConfig.PasswordPolicies();
+        config.passwordPolicies.passwordQualityName = Arrays.asList("PASSWORD_QUALITY_COMPLEX");
+
+        policyState.devicePolicies = new PolicyState.DevicePolicies();
+        policyState.devicePolicies.screenCaptureDisabled = true;
+        policyState.userRestrictions = new PolicyState.UserRestrictions();
+        policyState.userRestrictions.noPrinting = true;
+        policyState.passwordPolicies = new PolicyState.PasswordPolicies();
+        policyState.passwordPolicies.passwordQualityName = "PASSWORD_QUALITY_COMPLEX";
+    }
+
+    private void generateSettings(int count, Random random) {
+        config.SettingsSecure = new LinkedHashMap<>();
+        config.SettingsSystem = new LinkedHashMap<>();
+        config.SettingsGlobal = new LinkedHashMap<>();
+        for (SettingsNamespace namespace : SettingsNamespace.values()) {
+            settings.put(namespace, new HashMap<String, String>());
+        }
+        for (int i = 0; i < count; i++) {
+            SettingsNamespace namespace = SettingsNamespace.values()[i % SettingsNamespace.values().length];
+            Map<String, Integer> expected = namespace == SettingsNamespace.SECURE ? config.SettingsSecure
+                : namespace == SettingsNamespace.SYSTEM ? config.SettingsSystem : config.SettingsGlobal;
+            String key = "load_setting_" + i;
+            int value = random.nextInt(3);
+            expected.put(key, value);
+            settings.get(namespace).put(key, String.valueOf(random.nextBoolean() ? value : value + 1));
+        }
+        // Devices carry many settings no check looks at
+        for (int i = 0; i < count; i++) {
+            settings.get(SettingsNamespace.values()[i % 3]).put("unrelated_" + i, "1");
+        }
+    }
+
+    private void generateFiles(int count, Random random) {
+        config.fileDeletions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String dir = "/sdcard/load/dir" + (i / FILES_PER_DIR) + "/";
+            // One rule in fifty is a glob, so directory scans are exercised too
+            String path = i % 50 == 0 ? dir + "*.tmp" : dir + "file" + i + ".bin";
+            config.fileDeletions.add(path);
+            if (random.nextBoolean()) {
+                files.add(i % 50 == 0 ? dir + "left" + i + ".tmp" : path);
+            }
+        }
+    }
+
+    private void generateApps(int count, Random random) {
+        config.appDeletions = new ArrayList<>();
+        config.appInstalls = new ArrayList<>();
+        config.appUpdates = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String pkg = "com.load.app" + i;
+            boolean installed = random.nextBoolean();
+            switch (i % 3) {
+                case 0:
+                    config.appDeletions.add(pkg);
+                    break;
+                case 1:
+                    config.appInstalls.add(pkg);
+                    break;
+                default:
+                    config.appUpdates.put(pkg, ">=2." + (i % 10));
+                    installed = true;
+                    break;
+            }
+            if (installed) {
+                String version = "2." + random.nextInt(20);
+                packages.put(pkg, new InstalledPackage(pkg, version, 200 + i, 10000 + i));
+            }
+        }
+        // Plus a typical device's worth of unrelated packages
+        for (int i = 0; i < 300; i++) {
+            String pkg = "com.android.system" + i;
+            packages.put(pkg, new InstalledPackage(pkg, "1.0", 1, 1000));
+        }
+    }
+
+    private void generateQuestions(int count, Random random) {
+        config.forensicsQuestions = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String id = "forensicsQuestion" + i;
+            config.forensicsQuestions.put(id, Arrays.asList("Question " + i + "?", "answer" + i));
+            if (random.nextBoolean()) {
+                answers.put(id, true);
+            }
+        }
+    }
+
+    @Override
+    public PolicyState readPolicyState() {
+        return policyState;
+    }
+
+    @Override
+    public Map<String, String> readSettings(SettingsNamespace namespace) {
+        return new HashMap<>(settings.get(namespace));
+    }
+
+    @Override
+    public Map<String, InstalledPackage> readInstalledPackages() {
+        return new HashMap<>(packages);
+    }
+
+    @Override
+    public Map<String, PackageState> readPackageStates(Collection<String> packageNames, Collection<String> opPackages) {
+        return null;
+    }
+
+    @Override
+    public Set<String> findExistingFiles(Collection<String> paths) {
+        Set<String> existing = new HashSet<>();
+        for (String path : paths) {
+            if (files.contains(path)) {
+                existing.add(path);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache) {
+        return new HashMap<>();
+    }
+
+    @Override
+    public List<ProcessTable.RunningProcess> readProcesses(ProcessTable table) {
+        return null;
+    }
+
+    @Override
+    public List<ProcNet.Listener> readListeners() {
+        return null;
+    }
+
+    @Override
+    public List<FileScan.Result> scanFiles(List<FileScan.Query> queries) {
+        List<FileScan.Result> results = new ArrayList<>(queries.size());
+        for (FileScan.Query query : queries) {
+            String prefix = query.root.endsWith("/") ? query.root : query.root + "/";
+            List<String> listing = new ArrayList<>();
+            for (String path : files) {
+                String name = path.substring(path.lastIndexOf('/') + 1);
+                if (path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0 && query.acceptsName(name)) {
+                    listing.add(path);
+                }
+            }
+            results.add(FileScan.Result.of(listing, query.limit));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Boolean> readForensicsAnswers() {
+        return new HashMap<>(answers);
+    }
+}
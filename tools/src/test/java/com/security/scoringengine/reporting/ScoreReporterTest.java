@@ -0,0 +1,171 @@
+package com.security.scoringengine.reporting;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.security.scoringengine.models.ScoreCategory;
+import com.security.scoringengine.models.ScoreItem;
+import com.security.scoringengine.scoring.ScoringEngine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.BitSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** Runs a reporter against a local scoreboard that can be told to fail. */
+public class ScoreReporterTest {
+    private static final ScoreItem[] CHECKS = {
+        new ScoreItem(0, "Duplicate description", 5, ScoreCategory.FILES),
+        new ScoreItem(1, "Duplicate description", 5, ScoreCategory.FILES),
+        new ScoreItem(2, "Firewall enabled", 3, ScoreCategory.SETTINGS)
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    // Requests to answer with 503 before accepting
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private ScoreReporter reporter;
+
+    private static class Request {
+        final String contentEncoding;
+        final JsonObject body;
+
+        Request(String contentEncoding, JsonObject body) {
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/scores", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                byte[] body = readAll(new GZIPInputStream(exchange.getRequestBody()));
+                requests.add(new Request(encoding,
+                    JsonParser.parseString(new String(body, "UTF-8")).getAsJsonObject()));
+                int status = failuresLeft.getAndDecrement() > 0 ? 503 : 200;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        if (reporter != null) {
+            reporter.shutdown();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void batchesClosePassesIntoOneGzipRequest() throws Exception {
+        reporter = newReporter(500);
+        reporter.report(result(0));
+        reporter.report(result(0, 2));
+        reporter.report(result(2));
+
+        Request request = nextRequest();
+        assertEquals("gzip", request.contentEncoding);
+        assertEquals("team-07", request.body.get("deviceId").getAsString());
+        JsonArray reports = request.body.getAsJsonArray("reports");
+        assertEquals(3, reports.size());
+        assertEquals(true, reports.get(0).getAsJsonObject().get("full").getAsBoolean());
+        assertEquals(false, reports.get(2).getAsJsonObject().get("full").getAsBoolean());
+        assertNull(requests.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, reporter.getSentBatches());
+        assertEquals(0, reporter.getQueuedReports());
+    }
+
+    @Test
+    public void retriesFailedUploadsUntilAccepted() throws Exception {
+        failuresLeft.set(2);
+        reporter = newReporter(0);
+        reporter.report(result(2));
+
+        // The same queued report is resent; only the envelope's sentAt changes
+        JsonArray first = nextRequest().body.getAsJsonArray("reports");
+        assertEquals(first, nextRequest().body.getAsJsonArray("reports"));
+        assertEquals(first, nextRequest().body.getAsJsonArray("reports"));
+        assertNull(requests.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(2, reporter.getFailedAttempts());
+        assertEquals(1, reporter.getSentBatches());
+        assertEquals(0, reporter.getQueuedReports());
+    }
+
+    @Test
+    public void keysItemsByCheckIdNotDescription() throws Exception {
+        reporter = newReporter(0);
+        reporter.report(result(0));
+        nextRequest();
+        reporter.report(result(1));
+
+        JsonObject delta = nextRequest().body.getAsJsonArray("reports").get(0).getAsJsonObject();
+        JsonArray gained = delta.getAsJsonArray("gained");
+        assertEquals(1, gained.size());
+        assertEquals(1, gained.get(0).getAsJsonObject().get("checkId").getAsInt());
+        JsonArray lost = delta.getAsJsonArray("lost");
+        assertEquals(1, lost.size());
+        assertEquals(0, lost.get(0).getAsInt());
+    }
+
+    private ScoreReporter newReporter(long lingerMs) throws IOException {
+        URL endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/scores");
+        ScoreReportQueue queue = new ScoreReportQueue(folder.newFile("queue.jsonl"), 100);
+        return new ScoreReporter(endpoint, "team-07", null, 20, queue, lingerMs, 20);
+    }
+
+    private Request nextRequest() throws InterruptedException {
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No request reached the scoreboard", request);
+        return request;
+    }
+
+    private static ScoringEngine.ScoringResult result(int... satisfiedIds) {
+        BitSet satisfied = new BitSet();
+        int points = 0;
+        for (int id : satisfiedIds) {
+            satisfied.set(id);
+            points += CHECKS[id].getPoints();
+        }
+        return new ScoringEngine.ScoringResult(points, 13, CHECKS, satisfied);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,200 @@
+package com.security.scoringengine.scoring;
+
+import com.security.scoringengine.models.InstalledPackage;
+import com.security.scoringengine.models.PackageState;
+import com.security.scoringengine.models.PolicyState;
+import com.security.scoringengine.models.ScoreItem;
+import com.security.scoringengine.models.ScoringConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Recalculations must leave the outcomes of inputs that were not dirty alone. */
+public class RecalculateTest {
+    private static final String PENALTY = "User 'alice' was removed (penalty)";
+    private static final String DELETED = "com.example.bad has been deleted";
+
+    private final Device device = new Device();
+    private ScoringEngine engine;
+
+    /** A device whose state the test changes directly. */
+    private static class Device implements DeviceReader {
+        final PolicyState policyState = new PolicyState();
+        final Map<String, String> secureSettings = new HashMap<>();
+        final Map<String, InstalledPackage> installed = new HashMap<>();
+        boolean failPackageReads;
+
+        @Override
+        public PolicyState readPolicyState() {
+            return policyState;
+        }
+
+        @Override
+        public Map<String, String> readSettings(SettingsNamespace namespace) {
+            return namespace == SettingsNamespace.SECURE
+                ? new HashMap<>(secureSettings) : new HashMap<String, String>();
+        }
+
+        @Override
+        public Map<String, InstalledPackage> readInstalledPackages() {
+            return new HashMap<>(installed);
+        }
+
+        @Override
+        public InstalledPackage readInstalledPackage(String packageName) {
+            if (failPackageReads) {
+                throw new RuntimeException("Package manager unavailable");
+            }
+            return installed.get(packageName);
+        }
+
+        @Override
+        public Map<String, PackageState> readPackageStates(Collection<String> packageNames,
+                                                           Collection<String> opPackages) {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Set<String> findExistingFiles(Collection<String> paths) {
+            return new HashSet<>();
+        }
+
+        @Override
+        public Map<String, String> hashFiles(Collection<String> paths, FileHashCache cache) {
+            return new HashMap<>();
+        }
+
+        @Override
+        public List<ProcessTable.RunningProcess> readProcesses(ProcessTable table) {
+            return null;
+        }
+
+        @Override
+        public List<ProcNet.Listener> readListeners() {
+            return null;
+        }
+
+        @Override
+        public List<FileScan.Result> scanFiles(List<FileScan.Query> queries) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Map<String, Boolean> readForensicsAnswers() {
+            return new HashMap<>();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        PolicyState.UserProfile alice = new PolicyState.UserProfile();
+        alice.userId = 10;
+        alice.userName = "alice";
+        device.policyState.userProfiles = new ArrayList<>(Collections.singletonList(alice));
+        device.secureSettings.put("adb_enabled", "1");
+        device.installed.put("com.example.bad", new InstalledPackage("com.example.bad", "1.0", 1));
+
+        ScoringConfig config = new ScoringConfig();
+        config.UsersAdditions = Arrays.asList("alice");
+        config.SettingsSecure = new LinkedHashMap<>();
+        config.SettingsSecure.put("adb_enabled", 0);
+        config.appDeletions = Collections.singletonList("com.example.bad");
+        config.penaltiesandPoints = new ScoringConfig.PenaltiesAndPoints();
+        config.penaltiesandPoints.userPoints = 2;
+        config.penaltiesandPoints.userPenalty = 5;
+        config.penaltiesandPoints.settingsPoints = 1;
+        config.penaltiesandPoints.appDeletionsPoints = 3;
+        engine = new ScoringEngine(device, config);
+        engine.setPackageIndex(new PackageIndex());
+    }
+
+    @Test
+    public void unrelatedRecalculationKeepsRemovalPenalty() {
+        ScoringEngine.ScoringResult removed = removeAlice();
+
+        device.secureSettings.put("adb_enabled", "0");
+        ScoringEngine.ScoringResult result = engine.recalculate(removed,
+            Collections.singleton(InputKey.setting(SettingsNamespace.SECURE, "adb_enabled")));
+
+        assertTrue(descriptions(result).contains(PENALTY));
+        assertEquals(removed.getCurrentPoints() + 1, result.getCurrentPoints());
+    }
+
+    @Test
+    public void verifiedRecalculationKeepsRemovalPenalty() {
+        engine.setVerifyIncremental(true);
+        ScoringEngine.ScoringResult removed = removeAlice();
+
+        device.secureSettings.put("adb_enabled", "0");
+        ScoringEngine.ScoringResult result = engine.recalculate(removed,
+            Collections.singleton(InputKey.setting(SettingsNamespace.SECURE, "adb_enabled")));
+
+        assertTrue(descriptions(result).contains(PENALTY));
+        assertEquals(removed.getCurrentPoints() + 1, result.getCurrentPoints());
+    }
+
+    @Test
+    public void userListChangeLapsesRemovalPenalty() {
+        ScoringEngine.ScoringResult removed = removeAlice();
+
+        ScoringEngine.ScoringResult result = engine.recalculate(removed,
+            Collections.singleton(InputKey.policy("userProfiles")));
+
+        assertFalse(descriptions(result).contains(PENALTY));
+        assertEquals(removed.getCurrentPoints() + 5, result.getCurrentPoints());
+    }
+
+    @Test
+    public void failedRecalculationDropsPackageIndex() {
+        ScoringEngine.ScoringResult initial = engine.calculateScore();
+        assertFalse(descriptions(initial).contains(DELETED));
+
+        device.installed.remove("com.example.bad");
+        device.failPackageReads = true;
+        assertNull(engine.recalculate(initial,
+            Collections.singleton(InputKey.forPackage("com.example.bad"))));
+
+        // The fallback full pass must list packages again, not trust the index
+        device.failPackageReads = false;
+        ScoringEngine.ScoringResult result = engine.calculateScore();
+        assertTrue(descriptions(result).contains(DELETED));
+        assertEquals(initial.getCurrentPoints() + 3, result.getCurrentPoints());
+    }
+
+    /** Scores with alice present, then removes her and recalculates the user list. */
+    private ScoringEngine.ScoringResult removeAlice() {
+        ScoringEngine.ScoringResult initial = engine.calculateScore();
+        assertEquals(2, initial.getCurrentPoints());
+
+        device.policyState.userProfiles.clear();
+        ScoringEngine.ScoringResult removed = engine.recalculate(initial,
+            Collections.singleton(InputKey.policy("userProfiles")));
+        assertTrue(descriptions(removed).contains(PENALTY));
+        assertEquals(-5, removed.getCurrentPoints());
+        return removed;
+    }
+
+    private static Set<String> descriptions(ScoringEngine.ScoringResult result) {
+        Set<String> descriptions = new HashSet<>();
+        for (ScoreItem item : result.getScoreItems()) {
+            descriptions.add(item.getDescription());
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,111 @@
+package com.security.scoringengine.scoring;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** The appUpdates requirement grammar and how installed versions compare against it. */
+public class VersionConstraintTest {
+
+    @Test
+    public void bareVersionMeansNewerThan() {
+        assertTrue(satisfies("1.0.0.0", "1.0.1"));
+        assertTrue(satisfies("v2.3", "2.3.0.1"));
+        assertFalse(satisfies("1.0.0.0", "1.0"));
+        assertFalse(satisfies("1.0.0.0", "0.9.9"));
+    }
+
+    @Test
+    public void rangesNeedEveryTerm() {
+        assertTrue(satisfies(">=5.2.1 <6", "5.2.1"));
+        assertTrue(satisfies(">=5.2.1 <6", "5.9.9"));
+        assertFalse(satisfies(">=5.2.1 <6", "5.2.0"));
+        assertFalse(satisfies(">=5.2.1 <6", "6.0"));
+        // Operators may be spaced from their versions and terms separated by commas
+        assertTrue(satisfies(">= 1.2, <= 1.4", "1.4"));
+        assertFalse(satisfies(">= 1.2, <= 1.4", "1.4.1"));
+        assertTrue(satisfies("!=3.1", "3.1.1"));
+        assertFalse(satisfies("==3.1", "3.1.1"));
+    }
+
+    @Test
+    public void preReleasesSortBeforeTheirRelease() {
+        assertTrue(satisfies(">=5.2.1-beta.2", "5.2.1-beta.10"));
+        assertTrue(satisfies(">=5.2.1-beta.2", "5.2.1"));
+        assertFalse(satisfies(">=5.2.1-beta.2", "5.2.1-beta.1"));
+        assertFalse(satisfies(">=5.2.1-beta.2", "5.2.1-alpha"));
+        assertFalse(satisfies(">=5.2.1", "5.2.1-rc1"));
+        assertTrue(satisfies("2024.01.15.rc1", "2024.01.15"));
+        // Build metadata is ignored
+        assertTrue(satisfies("=1.0+abc", "1.0+xyz"));
+    }
+
+    @Test
+    public void versionCodesCompareInsteadOfNames() {
+        VersionConstraint atLeast = VersionConstraint.parse("code>=4200");
+        assertEquals(VersionConstraint.SATISFIED, atLeast.evaluate(null, 4200));
+        assertEquals(VersionConstraint.UNSATISFIED, atLeast.evaluate("9.9", 4199));
+        assertEquals(VersionConstraint.SATISFIED, VersionConstraint.parse("versionCode<10").evaluate("1.0", 9));
+    }
+
+    @Test
+    public void wildcardsMatchAnyRemainingComponents() {
+        assertTrue(satisfies("=5.2.*", "5.2"));
+        assertTrue(satisfies("=5.2.*", "5.2.9.1"));
+        assertTrue(satisfies("=5.2.*", "5.2.1-beta"));
+        assertFalse(satisfies("=5.2.*", "5.3"));
+        assertFalse(satisfies("=5.2.*", "5.1.99"));
+        assertTrue(satisfies("<5.2.*", "5.1.9"));
+        assertFalse(satisfies("<5.2.*", "5.2.0"));
+        assertTrue(satisfies("<=5.2.*", "5.2.7"));
+        // A bare wildcard version means newer than the whole line
+        assertTrue(satisfies("5.2.*", "5.3"));
+        assertFalse(satisfies("5.2.*", "5.2.99"));
+        assertTrue(satisfies(">=1.* <3.*", "2.5"));
+        assertFalse(satisfies(">=1.* <3.*", "3.0"));
+    }
+
+    @Test
+    public void malformedRequirementsAreRejected() {
+        assertRejected("");
+        assertRejected("   ");
+        assertRejected(">");
+        assertRejected("~1.2");
+        assertRejected("x1");
+        assertRejected("code>=abc");
+        assertRejected(">=1.2 <");
+        assertRejected("1.2-");
+        assertRejected("1.2-beta..1");
+        assertRejected("1.2.*.3");
+        assertRejected("1.*-beta");
+        assertRejected("=1.2.3*");
+        assertRejected("1999999999999999999.0");
+    }
+
+    @Test
+    public void malformedInstalledVersionsAreInvalid() {
+        VersionConstraint constraint = VersionConstraint.parse(">=1.0");
+        assertEquals(VersionConstraint.INVALID_VERSION, constraint.evaluate("abc", 0));
+        assertEquals(VersionConstraint.INVALID_VERSION, constraint.evaluate(null, 0));
+        assertEquals(VersionConstraint.INVALID_VERSION, constraint.evaluate("1.2-", 0));
+        assertEquals(VersionConstraint.INVALID_VERSION, constraint.evaluate("1.2-beta.", 0));
+        // Checked even when the numbers alone would decide
+        assertEquals(VersionConstraint.INVALID_VERSION, constraint.evaluate("0.1-rc..1", 0));
+    }
+
+    private static boolean satisfies(String requirement, String version) {
+        return VersionConstraint.parse(requirement).evaluate(version, 0) == VersionConstraint.SATISFIED;
+    }
+
+    private static void assertRejected(String requirement) {
+        try {
+            VersionConstraint.parse(requirement);
+            fail("Accepted '" + requirement + "'");
+        } catch (IllegalArgumentException expected) {
+            // Reported by ConfigValidator and skipped by the engine
+        }
+    }
+}